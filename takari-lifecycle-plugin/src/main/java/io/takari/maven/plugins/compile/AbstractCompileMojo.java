@@ -39,6 +39,8 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Stopwatch;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
@@ -50,12 +52,41 @@ import io.takari.incrementalbuild.Incremental;
 import io.takari.incrementalbuild.Incremental.Configuration;
 import io.takari.incrementalbuild.ResourceMetadata;
 import io.takari.maven.plugins.compile.javac.CompilerJavacLauncher;
+import io.takari.maven.plugins.compile.jdt.CompilerJdt;
 import io.takari.maven.plugins.exportpackage.ExportPackageMojo;
 
 public abstract class AbstractCompileMojo extends AbstractMojo {
 
   private static final String DEFAULT_COMPILER_LEVEL = "1.7";
 
+  private static final String PROCESSOR_SERVICES = "META-INF/services/javax.annotation.processing.Processor";
+
+  /**
+   * System property that controls maximum number of jars with cached declared annotation processors.
+   */
+  public static final String PROP_DECLARED_PROCESSORS_MAXSIZE = "takari.declaredProcessors.maxSize";
+
+  /**
+   * Annotation processors declared by classpath jars. Jars are opened again only when their size or timestamp change or when they were evicted from the cache.
+   */
+  private static final Cache<File, DeclaredProcessors> DECLARED_PROCESSORS = CacheBuilder.newBuilder() //
+      .maximumSize(Long.getLong(PROP_DECLARED_PROCESSORS_MAXSIZE, 2000)) //
+      .build();
+
+  private static class DeclaredProcessors {
+    final long length;
+
+    final long lastModified;
+
+    final List<String> processors;
+
+    DeclaredProcessors(long length, long lastModified, List<String> processors) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.processors = processors;
+    }
+  }
+
   // I much prefer slf4j over plexus logger api
   private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -238,6 +269,37 @@ public abstract class AbstractCompileMojo extends AbstractMojo {
   @Parameter
   protected Sourcepath sourcepath;
 
+  /**
+   * Number of threads used by {@code jdt} compiler. Values greater than {@code 1} enable JDT parallel compilation pipeline, which reads source files ahead of the parser and resolves and generates
+   * code on a separate thread, concurrently with writing of compilation results. Compilation results are the same regardless of this parameter value. Ignored by other compilers.
+   *
+   * @since 1.12.3
+   */
+  @Parameter(property = "maven.compiler.compilerThreads", defaultValue = "1")
+  @Incremental(configuration = Configuration.ignore)
+  private int compilerThreads;
+
+  /**
+   * Maximum number of sources compiled together by {@code jdt} compiler during full build. Smaller batches reduce compiler memory footprint of very large modules, at the cost of longer
+   * compilation time. Batches are ordered such that referenced types are compiled first, where known from the previous build. Compilation results are the same regardless of this parameter value.
+   * {@code 0} (the default) compiles all sources together. Ignored by other compilers and when annotation processing is enabled.
+   *
+   * @since 1.12.3
+   */
+  @Parameter(property = "maven.compiler.compilerBatchSize", defaultValue = "0")
+  @Incremental(configuration = Configuration.ignore)
+  private int compilerBatchSize;
+
+  /**
+   * Share annotation processor classloader among {@code jdt} compilations of the build session that use the same processorpath, so processor classes are loaded once per session. Only enable
+   * for processors that do not keep state in static fields. Ignored by other compilers, {@code forked-javac} never reuses compiler JVMs when annotation processing is enabled.
+   *
+   * @since 1.12.3
+   */
+  @Parameter(property = "maven.compiler.shareProcessorClassLoader", defaultValue = "false")
+  @Incremental(configuration = Configuration.ignore)
+  private boolean shareProcessorClassLoader;
+
   //
 
   @Parameter(defaultValue = "${project.file}", readonly = true)
@@ -248,10 +310,6 @@ public abstract class AbstractCompileMojo extends AbstractMojo {
   @Incremental(configuration = Configuration.ignore)
   private File basedir;
 
-  @Parameter(defaultValue = "${project.build.directory}", readonly = true)
-  @Incremental(configuration = Configuration.ignore)
-  private File buildDirectory;
-
   @Parameter(defaultValue = "${plugin.pluginArtifact}", readonly = true)
   @Incremental(configuration = Configuration.ignore)
   private Artifact pluginArtifact;
@@ -275,6 +333,9 @@ public abstract class AbstractCompileMojo extends AbstractMojo {
   @Component
   private ReactorProjects reactorProjects;
 
+  @Component
+  private ReactorOutputRegistry reactorOutputs;
+
   public Charset getSourceEncoding() {
     return encoding == null ? null : Charset.forName(encoding);
   }
@@ -364,6 +425,8 @@ public abstract class AbstractCompileMojo extends AbstractMojo {
       throw new MojoExecutionException("Unsupported compilerId" + compilerId);
     }
 
+    reactorOutputs.unpublish(getOutputDirectory());
+
     try {
       final List<ResourceMetadata<File>> sources = getSources();
 
@@ -394,10 +457,16 @@ public abstract class AbstractCompileMojo extends AbstractMojo {
       compiler.setTransitiveDependencyReference(transitiveDependencyReference);
       compiler.setPrivatePackageReference(privatePackageReference);
 
+      if (compiler instanceof CompilerJdt) {
+        ((CompilerJdt) compiler).setCompilerThreads(compilerThreads);
+        ((CompilerJdt) compiler).setCompilerBatchSize(compilerBatchSize);
+        ((CompilerJdt) compiler).setShareProcessorClassLoader(shareProcessorClassLoader);
+        ((CompilerJdt) compiler).setSourceRoots(getSourceRoots());
+      }
+
       if (compiler instanceof CompilerJavacLauncher) {
         ((CompilerJavacLauncher) compiler).setBasedir(basedir);
         ((CompilerJavacLauncher) compiler).setJar(pluginArtifact.getFile());
-        ((CompilerJavacLauncher) compiler).setBuildDirectory(buildDirectory);
         ((CompilerJavacLauncher) compiler).setMeminitial(meminitial);
         ((CompilerJavacLauncher) compiler).setMaxmem(maxmem);
       }
@@ -416,6 +485,8 @@ public abstract class AbstractCompileMojo extends AbstractMojo {
         context.markUptodateExecution();
       }
 
+      compiler.publishOutputs();
+
       if (proc != Proc.none && !sources.isEmpty()) {
         addGeneratedSources(project);
       }
@@ -508,19 +579,10 @@ public abstract class AbstractCompileMojo extends AbstractMojo {
       Multimap<File, String> processors = TreeMultimap.create();
       for (File jar : classpath) {
         if (jar.isFile()) {
-          try (ZipFile zip = new ZipFile(jar)) {
-            ZipEntry entry = zip.getEntry("META-INF/services/javax.annotation.processing.Processor");
-            if (entry != null) {
-              try (Reader r = new InputStreamReader(zip.getInputStream(entry), Charsets.UTF_8)) {
-                processors.putAll(jar, CharStreams.readLines(r));
-              }
-            }
-          } catch (IOException e) {
-            // ignore, compiler won't be able to use this jar either
-          }
+          processors.putAll(jar, getDeclaredProcessors(jar));
         } else if (jar.isDirectory()) {
           try {
-            processors.putAll(jar, Files.readLines(new File(jar, "META-INF/services/javax.annotation.processing.Processor"), Charsets.UTF_8));
+            processors.putAll(jar, Files.readLines(new File(jar, PROCESSOR_SERVICES), Charsets.UTF_8));
           } catch (IOException e) {
             // ignore, compiler won't be able to use this jar either
           }
@@ -538,6 +600,28 @@ public abstract class AbstractCompileMojo extends AbstractMojo {
     return proc;
   }
 
+  private static List<String> getDeclaredProcessors(File jar) {
+    long length = jar.length();
+    long lastModified = jar.lastModified();
+    DeclaredProcessors declared = DECLARED_PROCESSORS.getIfPresent(jar);
+    if (declared == null || declared.length != length || declared.lastModified != lastModified) {
+      List<String> processors = Collections.emptyList();
+      try (ZipFile zip = new ZipFile(jar)) {
+        ZipEntry entry = zip.getEntry(PROCESSOR_SERVICES);
+        if (entry != null) {
+          try (Reader r = new InputStreamReader(zip.getInputStream(entry), Charsets.UTF_8)) {
+            processors = ImmutableList.copyOf(CharStreams.readLines(r));
+          }
+        }
+      } catch (IOException e) {
+        // ignore, compiler won't be able to use this jar either
+      }
+      declared = new DeclaredProcessors(length, lastModified, processors);
+      DECLARED_PROCESSORS.put(jar, declared);
+    }
+    return declared.processors;
+  }
+
   private static String getTarget(String target, String source) {
     if (target != null) {
       return target;
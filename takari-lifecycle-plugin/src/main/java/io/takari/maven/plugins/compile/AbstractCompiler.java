@@ -193,4 +193,9 @@ public abstract class AbstractCompiler {
 
   public abstract int compile() throws MojoExecutionException, IOException;
 
+  /**
+   * Makes outputs available to other compiler executions. Called after {@link #compile()} or when compilation was skipped because the outputs are up-to-date.
+   */
+  public void publishOutputs() throws IOException {}
+
 }
@@ -25,6 +25,7 @@ import io.takari.incrementalbuild.spi.DefaultBuildContextState;
 import io.takari.incrementalbuild.spi.DefaultOutput;
 import io.takari.incrementalbuild.spi.DefaultResource;
 import io.takari.incrementalbuild.spi.DefaultResourceMetadata;
+import io.takari.incrementalbuild.spi.Message;
 
 
 // TODO replace all Default* implementation types with corresponding API interfaces
@@ -155,6 +156,38 @@ public class CompilerBuildContext extends AbstractBuildContext {
     return setResourceAttribute(source, key, value);
   }
 
+  /**
+   * Returns resource attribute value set during previous build.
+   */
+  public <V extends Serializable> V getPreviousAttribute(File resource, String key, Class<V> clazz) {
+    return getResourceAttribute(oldState, resource, key, clazz);
+  }
+
+  /**
+   * Carries over outputs, attributes and messages of a generated source that was regenerated with the same contents as during previous build and will not be compiled again. Returns {@code false}
+   * and does not change the context if any of the source outputs does not exist or was already processed during this build.
+   */
+  public boolean markUptodateGeneratedSource(File sourceFile) {
+    Collection<File> outputs = oldState.getResourceOutputs(sourceFile);
+    if (outputs != null) {
+      for (File output : outputs) {
+        if (isProcessedResource(output) || !output.isFile()) {
+          return false;
+        }
+      }
+      state.setResourceOutputs(sourceFile, new ArrayList<>(outputs));
+    }
+    Map<String, Serializable> attributes = oldState.getResourceAttributes(sourceFile);
+    if (attributes != null) {
+      state.setResourceAttributes(sourceFile, new HashMap<>(attributes));
+    }
+    Collection<Message> messages = oldState.getResourceMessages(sourceFile);
+    if (messages != null) {
+      state.setResourceMessages(sourceFile, new ArrayList<>(messages));
+    }
+    return true;
+  }
+
   //
   // output tracking
   //
@@ -42,9 +42,12 @@ public class ProjectClasspathDigester {
 
   private final CompilerBuildContext context;
 
+  private final ReactorOutputRegistry reactorOutputs;
+
   @Inject
-  public ProjectClasspathDigester(CompilerBuildContext context) {
+  public ProjectClasspathDigester(CompilerBuildContext context, ReactorOutputRegistry reactorOutputs) {
     this.context = context;
+    this.reactorOutputs = reactorOutputs;
   }
 
   /**
@@ -72,17 +75,10 @@ public class ProjectClasspathDigester {
       for (final File dependency : dependencies) {
         File normalized = normalize(dependency);
         ArtifactFile previousArtifact = previousArtifacts.get(normalized);
-        ArtifactFile artifact = CACHE.get(normalized);
+        ArtifactFile artifact = getArtifact(normalized, previousArtifact);
         if (artifact == null) {
-          if (normalized.isFile()) {
-            artifact = newFileArtifact(normalized, previousArtifact);
-          } else if (normalized.isDirectory()) {
-            artifact = newDirectoryArtifact(normalized, previousArtifact);
-          } else {
-            // happens with reactor dependencies with empty source folders
-            continue;
-          }
-          CACHE.put(normalized, artifact);
+          // happens with reactor dependencies with empty source folders
+          continue;
         }
 
         digest.put(normalized, artifact);
@@ -108,6 +104,36 @@ public class ProjectClasspathDigester {
     return changed;
   }
 
+  /**
+   * Returns fingerprint of the dependencies, which changes whenever {@link #digestClasspath(List)} would detect a change of the dependencies.
+   */
+  public List<String> fingerprint(List<File> dependencies) {
+    List<String> fingerprint = new ArrayList<>();
+    for (File dependency : dependencies) {
+      ArtifactFile artifact = getArtifact(normalize(dependency), null);
+      if (artifact != null) {
+        fingerprint.add(artifact.file + ":" + artifact.isFile + ":" + artifact.length + ":" + artifact.lastModified);
+      }
+    }
+    return fingerprint;
+  }
+
+  private ArtifactFile getArtifact(File normalized, ArtifactFile previousArtifact) {
+    ReactorOutputRegistry.ClassesDirectory published = reactorOutputs.get(normalized);
+    ArtifactFile artifact = published != null ? newPublishedArtifact(published) : CACHE.get(normalized);
+    if (artifact == null) {
+      if (normalized.isFile()) {
+        artifact = newFileArtifact(normalized, previousArtifact);
+      } else if (normalized.isDirectory()) {
+        artifact = newDirectoryArtifact(normalized, previousArtifact);
+      } else {
+        return null;
+      }
+      CACHE.put(normalized, artifact);
+    }
+    return artifact;
+  }
+
   private File normalize(File file) {
     try {
       return file.getCanonicalFile();
@@ -168,6 +194,10 @@ public class ProjectClasspathDigester {
     return new ArtifactFile(directory, false, fileCount, maxLastModified);
   }
 
+  private ArtifactFile newPublishedArtifact(ReactorOutputRegistry.ClassesDirectory published) {
+    return new ArtifactFile(published.getDirectory(), false, published.getFileCount(), published.getLastModified());
+  }
+
   private ArtifactFile newFileArtifact(File file, ArtifactFile previousArtifact) {
     return new ArtifactFile(file, true, file.length(), file.lastModified());
   }
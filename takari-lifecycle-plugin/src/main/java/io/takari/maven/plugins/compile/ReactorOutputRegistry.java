@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2014 Takari, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package io.takari.maven.plugins.compile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Named;
+
+import org.apache.maven.SessionScoped;
+
+import io.takari.maven.plugins.compile.jdt.ClasspathDigest;
+
+/**
+ * Classes directories produced by compiler executions of the current build session.
+ * <p>
+ * The compiler publishes what it already knows about its output directory, so projects that have the directory on their classpath later in the session, including test compilation of the same
+ * project, do not have to scan and digest the directory again. Published directories are trusted for the rest of the session, unless the compiler execution that produced them runs again.
+ * <p>
+ * In particular, changes made to a published directory by other plugins later in the session, for example bytecode post-processing or classes generated by other tools, are not detected.
+ * Such changes are only seen by consumers in subsequent build sessions.
+ */
+@Named
+@SessionScoped
+public class ReactorOutputRegistry {
+
+  public static class ClassesDirectory {
+
+    private final File directory;
+
+    private final ClasspathDigest.Segment typeDigests;
+
+    private final long fileCount;
+
+    private final long lastModified;
+
+    ClassesDirectory(File directory, ClasspathDigest.Segment typeDigests, long fileCount, long lastModified) {
+      this.directory = directory;
+      this.typeDigests = typeDigests;
+      this.fileCount = fileCount;
+      this.lastModified = lastModified;
+    }
+
+    public File getDirectory() {
+      return directory;
+    }
+
+    /**
+     * Returns '/' separated qualified names of all types of the directory.
+     */
+    public Collection<String> getTypes() {
+      Collection<String> types = new ArrayList<>(typeDigests.size());
+      for (String type : typeDigests.getTypes()) {
+        types.add(type.replace('.', '/'));
+      }
+      return types;
+    }
+
+    public ClasspathDigest.Segment getTypeDigests() {
+      return typeDigests;
+    }
+
+    /**
+     * Returns number of all files of the directory, including resources.
+     */
+    public long getFileCount() {
+      return fileCount;
+    }
+
+    /**
+     * Returns the most recent timestamp of all files of the directory.
+     */
+    public long getLastModified() {
+      return lastModified;
+    }
+  }
+
+  private final Map<File, ClassesDirectory> directories = new ConcurrentHashMap<>();
+
+  public void publish(File directory, ClasspathDigest.Segment typeDigests, long fileCount, long lastModified) {
+    directory = normalize(directory);
+    directories.put(directory, new ClassesDirectory(directory, typeDigests, fileCount, lastModified));
+  }
+
+  /**
+   * Removes the directory from the registry, must be called before the directory is modified.
+   */
+  public void unpublish(File directory) {
+    directories.remove(normalize(directory));
+  }
+
+  /**
+   * Returns published classes directory or {@code null} if the directory was not produced by a compiler execution of the current build session.
+   */
+  public ClassesDirectory get(File directory) {
+    return directories.get(normalize(directory));
+  }
+
+  private static File normalize(File file) {
+    try {
+      return file.getCanonicalFile();
+    } catch (IOException e) {
+      return file.getAbsoluteFile();
+    }
+  }
+}
@@ -9,15 +9,30 @@ package io.takari.maven.plugins.compile.javac;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Provider;
 
 import org.apache.maven.plugin.MojoExecutionException;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
 
+import io.takari.incrementalbuild.MessageSeverity;
 import io.takari.incrementalbuild.Resource;
 import io.takari.incrementalbuild.ResourceMetadata;
 import io.takari.incrementalbuild.ResourceStatus;
@@ -27,10 +42,54 @@ import io.takari.maven.plugins.compile.AbstractCompileMojo.Proc;
 import io.takari.maven.plugins.compile.AbstractCompiler;
 import io.takari.maven.plugins.compile.CompilerBuildContext;
 import io.takari.maven.plugins.compile.ProjectClasspathDigester;
+import io.takari.maven.plugins.compile.jdt.ClassfileDigester;
+import io.takari.maven.plugins.compile.jdt.ClasspathDigest;
+import io.takari.maven.plugins.compile.jdt.ClasspathDigester;
 import io.takari.maven.plugins.compile.jdt.CompilerJdt;
+import io.takari.maven.plugins.compile.jdt.ReferenceCollection;
+import io.takari.maven.plugins.compile.jdt.ReferenceIndex;
 
+/**
+ * Common javac compiler configuration and incremental compilation.
+ * <p>
+ * Without annotation processing, only modified sources and sources that reference types whose .class files changed are recompiled. Type references of each source are read from the .class files
+ * compiled from the source and are kept in the same {@link ReferenceCollection} and {@link ReferenceIndex} structures used by {@link CompilerJdt}. All sources are recompiled if the compiler
+ * configuration, structure of classpath types or sourcepath changed, if a compile-time constant changed, because javac inlines constants and does not reference their declaring types, if a type was
+ * removed or an annotation type changed, because unused imports and annotations with source retention are not recorded in .class files, or if a source has to be recompiled more than twice during
+ * the same build.
+ */
 public abstract class AbstractCompilerJavac extends AbstractCompiler {
 
+  /**
+   * Output .class file structure hash
+   */
+  private static final String ATTR_CLASS_DIGEST = "javac.class.digest";
+
+  /**
+   * Output .class file compile-time constants hash, see {@link ClassfileReferences#getConstantsDigest()}
+   */
+  private static final String ATTR_CLASS_CONSTANTS = "javac.class.constants";
+
+  /**
+   * Java source {@link ReferenceCollection}, types referenced by .class files compiled from the source
+   */
+  private static final String ATTR_REFERENCES = "javac.references";
+
+  /**
+   * {@link ReferenceIndex} of all sources, not set if the previous build did not track references or failed
+   */
+  private static final String ATTR_REFERENCE_INDEX = "javac.references.index";
+
+  /**
+   * Classpath digest, map of accessible types to their .class structure hashes.
+   */
+  private static final String ATTR_CLASSPATH_DIGEST = "javac.classpath.digest";
+
+  /**
+   * Maximum number of times a source is compiled during incremental build before all sources are recompiled
+   */
+  private static final int MAX_RECOMPILES = 2;
+
   protected static final boolean isJava8orBetter;
 
   static {
@@ -45,14 +104,24 @@ public abstract class AbstractCompilerJavac extends AbstractCompiler {
 
   private final ProjectClasspathDigester digester;
 
-  private final List<ResourceMetadata<File>> sources = new ArrayList<ResourceMetadata<File>>();
+  private final Provider<ClasspathDigester> classpathDigester;
+
+  private final Map<File, ResourceMetadata<File>> sources = new LinkedHashMap<>();
 
   private String classpath;
   private String sourcepath = "";
 
-  protected AbstractCompilerJavac(CompilerBuildContext context, ProjectClasspathDigester digester) {
+  private boolean classpathChanged;
+  private boolean sourcepathChanged;
+
+  private ReferenceIndex referenceIndex;
+
+  private boolean errors;
+
+  protected AbstractCompilerJavac(CompilerBuildContext context, ProjectClasspathDigester digester, Provider<ClasspathDigester> classpathDigester) {
     super(context);
     this.digester = digester;
+    this.classpathDigester = classpathDigester;
   }
 
   protected List<String> getCompilerOptions() {
@@ -174,7 +243,35 @@ public abstract class AbstractCompilerJavac extends AbstractCompiler {
     }
     this.classpath = cp.toString();
 
-    return digester.digestClasspath(classpath);
+    if (getProc() != Proc.none) {
+      // annotation processors and resources they read are loaded from the classpath
+      classpathChanged = digester.digestClasspath(classpath);
+      return classpathChanged;
+    }
+
+    ClasspathDigest oldDigest = context.getAttribute(ATTR_CLASSPATH_DIGEST, true, ClasspathDigest.class);
+    if (!digester.digestClasspath(classpath)) {
+      // same files have the same types, carry over without reading them
+      if (oldDigest != null) {
+        context.setAttribute(ATTR_CLASSPATH_DIGEST, oldDigest);
+      }
+      classpathChanged = false;
+      return false;
+    }
+
+    // rebuilt dependencies often have the same types, only changes to their structure require compilation
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    ClasspathDigest digest = classpathDigester.get().digestDependencies(classpath);
+    context.setAttribute(ATTR_CLASSPATH_DIGEST, digest);
+    if (oldDigest != null) {
+      List<String> changedTypes = new ArrayList<>();
+      digest.diff(oldDigest, changedTypes::add);
+      classpathChanged = !changedTypes.isEmpty();
+      log.debug("Digested {} types in {} ms, {} changed", digest.size(), stopwatch.elapsed(TimeUnit.MILLISECONDS), changedTypes.size());
+    } else {
+      classpathChanged = true;
+    }
+    return classpathChanged;
   }
 
   @Override
@@ -187,12 +284,21 @@ public abstract class AbstractCompilerJavac extends AbstractCompiler {
     }
     this.sourcepath = cp.toString();
 
-    return digester.digestSourcepath(dependencies);
+    sourcepathChanged = digester.digestSourcepath(dependencies);
+    return sourcepathChanged;
   }
 
   @Override
   public boolean setSources(List<ResourceMetadata<File>> sources) {
-    this.sources.addAll(sources);
+    for (ResourceMetadata<File> source : sources) {
+      this.sources.put(source.getResource(), source);
+    }
+
+    // carry over the index, context-level attributes are not carried over when compilation is skipped
+    referenceIndex = context.getAttribute(ATTR_REFERENCE_INDEX, true, ReferenceIndex.class);
+    if (referenceIndex != null) {
+      context.setAttribute(ATTR_REFERENCE_INDEX, referenceIndex);
+    }
 
     List<ResourceMetadata<File>> modifiedSources = new ArrayList<ResourceMetadata<File>>();
     List<ResourceMetadata<File>> inputs = new ArrayList<ResourceMetadata<File>>();
@@ -244,17 +350,284 @@ public abstract class AbstractCompilerJavac extends AbstractCompiler {
 
   @Override
   public final int compile() throws MojoExecutionException, IOException {
+    if (isIncremental()) {
+      int compiled = compileIncremental();
+      if (compiled >= 0) {
+        return compiled;
+      }
+      log.debug("Incremental compilation is not possible, recompiling all sources");
+    }
+    return compileAll();
+  }
+
+  private boolean isIncremental() {
+    if (referenceIndex == null || context.isEscalated() || getProc() != Proc.none) {
+      // annotation processors can generate anything from any source
+      return false;
+    }
+    if (classpathChanged || sourcepathChanged || !sourcepath.isEmpty()) {
+      return false;
+    }
+    // outputs of previous builds that did not associate outputs with sources
+    return context.getDissociatedOutputs().isEmpty();
+  }
+
+  private int compileAll() throws MojoExecutionException, IOException {
     // eagerly delete all outputs.
     // otherwise javac may use stale outputs and resolve types that will be deleted at the end of the build
     context.deleteOutputs();
 
     // everything is being rebuilt, mark as processed
     Map<File, Resource<File>> files = new LinkedHashMap<>(sources.size());
-    for (ResourceMetadata<File> input : sources) {
+    for (ResourceMetadata<File> input : sources.values()) {
       files.put(input.getResource(), input.process());
     }
 
-    return compile(files);
+    errors = false;
+    int compiled = compile(files);
+
+    referenceIndex = null;
+    if (getProc() == Proc.none && !errors) {
+      referenceIndex = new ReferenceIndex();
+      for (Resource<File> input : files.values()) {
+        if (!digestOutputs(input, null, null, null)) {
+          referenceIndex = null;
+          break;
+        }
+      }
+    }
+    context.setAttribute(ATTR_REFERENCE_INDEX, referenceIndex);
+
+    return compiled;
+  }
+
+  /**
+   * Compiles modified sources and sources that reference changed types, repeatedly, until no more types change. Returns number of compiled sources or {@code -1} if all sources must be recompiled.
+   */
+  private int compileIncremental() throws MojoExecutionException, IOException {
+    if (!context.getRemovedSources().isEmpty()) {
+      // removed types can be referenced by unused imports, which are not recorded in .class files
+      return -1;
+    }
+
+    Set<File> queue = new LinkedHashSet<>();
+    for (ResourceMetadata<File> input : sources.values()) {
+      if (input.getStatus() != ResourceStatus.UNMODIFIED || context.getAttribute(input.getResource(), ATTR_REFERENCES, ReferenceCollection.class) == null) {
+        queue.add(input.getResource());
+      }
+    }
+
+    Set<String> changedTypes = new HashSet<>();
+    Multiset<File> compiled = HashMultiset.create();
+    while (!queue.isEmpty()) {
+      Map<File, byte[]> oldDigests = new HashMap<>();
+      Map<File, byte[]> oldConstants = new HashMap<>();
+      Map<File, Resource<File>> files = new LinkedHashMap<>();
+      for (File sourceFile : queue) {
+        if (compiled.add(sourceFile, 1) >= MAX_RECOMPILES) {
+          return -1;
+        }
+        ResourceMetadata<File> input = sources.get(sourceFile);
+        for (ResourceMetadata<File> output : context.getAssociatedOutputs(input)) {
+          File outputFile = output.getResource();
+          oldDigests.put(outputFile, context.getAttribute(outputFile, ATTR_CLASS_DIGEST, byte[].class));
+          oldConstants.put(outputFile, context.getAttribute(outputFile, ATTR_CLASS_CONSTANTS, byte[].class));
+        }
+        files.put(sourceFile, input.process());
+      }
+
+      // same as full build, do not let javac resolve types that are no longer produced by the sources
+      for (File outputFile : oldDigests.keySet()) {
+        context.deleteOutput(outputFile);
+      }
+
+      errors = false;
+      compile(files);
+      if (errors) {
+        // some outputs are missing, recompile everything once the errors are fixed
+        referenceIndex = null;
+        context.setAttribute(ATTR_REFERENCE_INDEX, referenceIndex);
+        return compiled.elementSet().size();
+      }
+
+      for (File outputFile : oldDigests.keySet()) {
+        if (!context.isProcessedOutput(outputFile)) {
+          // type is no longer declared by the source, same as removed sources above
+          return -1;
+        }
+      }
+      Set<String> roundChangedTypes = new HashSet<>();
+      Map<String, Collection<String>> supertypes = new HashMap<>();
+      for (Resource<File> input : files.values()) {
+        if (!digestOutputs(input, oldDigests, oldConstants, supertypes)) {
+          return -1;
+        }
+      }
+      for (Map.Entry<File, byte[]> entry : oldDigests.entrySet()) {
+        File outputFile = entry.getKey();
+        if (context.isProcessedOutput(outputFile)) {
+          byte[] digest = context.getAttribute(outputFile, ATTR_CLASS_DIGEST, byte[].class);
+          if (digest == null || !Arrays.equals(digest, entry.getValue())) {
+            addJavaType(outputFile, roundChangedTypes);
+          }
+        }
+      }
+      for (Map.Entry<File, Resource<File>> entry : files.entrySet()) {
+        for (ResourceMetadata<File> output : context.getAssociatedOutputs(entry.getValue())) {
+          if (!oldDigests.containsKey(output.getResource())) {
+            addJavaType(output.getResource(), roundChangedTypes); // new type
+          }
+        }
+      }
+
+      // members inherited from changed supertypes are visible through subtypes
+      changedTypes.addAll(roundChangedTypes);
+      boolean changed = true;
+      while (changed) {
+        changed = false;
+        for (Map.Entry<String, Collection<String>> entry : supertypes.entrySet()) {
+          if (!changedTypes.contains(entry.getKey()) && !Collections.disjoint(entry.getValue(), changedTypes)) {
+            changedTypes.add(entry.getKey());
+            roundChangedTypes.add(entry.getKey());
+            changed = true;
+          }
+        }
+      }
+
+      queue = getDependents(roundChangedTypes, files.keySet());
+    }
+
+    context.setAttribute(ATTR_REFERENCE_INDEX, referenceIndex);
+
+    return compiled.elementSet().size();
+  }
+
+  /**
+   * Records digests of .class files compiled from the source and source type references. Returns {@code false} if compile-time constants of any of the .class files changed, if any of the
+   * .class files is a changed annotation type or if references of any of the .class files could not be read.
+   */
+  private boolean digestOutputs(Resource<File> input, Map<File, byte[]> oldDigests, Map<File, byte[]> oldConstants, Map<String, Collection<String>> supertypes) throws IOException {
+    boolean constantsUnchanged = true;
+    Set<String> referencedTypes = new HashSet<>();
+    ClassfileDigester digester = new ClassfileDigester();
+    for (ResourceMetadata<File> output : context.getAssociatedOutputs(input)) {
+      File outputFile = output.getResource();
+      String type = getJavaType(outputFile);
+      if (type == null || !outputFile.isFile()) {
+        continue;
+      }
+      byte[] bytes = Files.readAllBytes(outputFile.toPath());
+      ClassfileReferences references;
+      try {
+        references = ClassfileReferences.read(bytes);
+      } catch (IOException e) {
+        log.debug("Could not read .class file references {}", outputFile, e);
+        return false;
+      }
+      referencedTypes.addAll(references.getReferencedTypes());
+      if (supertypes != null) {
+        supertypes.put(type, references.getSupertypes());
+      }
+      byte[] digest = null;
+      try {
+        digest = digester.digest(bytes);
+        context.setAttribute(outputFile, ATTR_CLASS_DIGEST, digest);
+      } catch (ClassFormatException e) {
+        // the type is always considered changed
+      }
+      if (references.isAnnotation() && oldDigests != null && oldDigests.containsKey(outputFile) && !Arrays.equals(digest, oldDigests.get(outputFile))) {
+        // uses of annotations with source retention are not recorded in .class files
+        return false;
+      }
+      byte[] constants = references.getConstantsDigest();
+      if (constants != null) {
+        context.setAttribute(outputFile, ATTR_CLASS_CONSTANTS, constants);
+      }
+      if (oldConstants != null && oldConstants.containsKey(outputFile) && !Arrays.equals(oldConstants.get(outputFile), constants)) {
+        // includes new constants, which may hide inherited constants inlined by dependents
+        constantsUnchanged = false;
+      }
+    }
+    ReferenceCollection references = ReferenceCollection.ofTypes(referencedTypes);
+    context.setAttribute(input.getResource(), ATTR_REFERENCES, references);
+    referenceIndex.put(input.getResource(), references);
+    return constantsUnchanged;
+  }
+
+  /**
+   * Returns sources that reference any of the types, except the excluded sources.
+   */
+  private Set<File> getDependents(Collection<String> types, Set<File> excluded) {
+    Set<String> rootNames = new HashSet<>();
+    Set<String> qualifiedNames = new HashSet<>();
+    Set<String> simpleNames = new HashSet<>();
+    for (String type : types) {
+      // same as CompilerJdt addDependentsOf
+      int idx = type.indexOf('.');
+      if (idx > 0) {
+        rootNames.add(type.substring(0, idx));
+        idx = type.lastIndexOf('.');
+        qualifiedNames.add(type.substring(0, idx));
+        simpleNames.add(type.substring(idx + 1));
+      } else {
+        rootNames.add(type);
+        simpleNames.add(type);
+      }
+    }
+
+    Set<File> dependents = new LinkedHashSet<>();
+    ReferenceCollection.Query query = new ReferenceCollection.Query(qualifiedNames, simpleNames, rootNames);
+    if (!query.isEmpty()) {
+      for (File sourceFile : referenceIndex.getCandidates(query)) {
+        if (!excluded.contains(sourceFile) && sources.containsKey(sourceFile)) {
+          ReferenceCollection references = context.getAttribute(sourceFile, ATTR_REFERENCES, ReferenceCollection.class);
+          if (references != null && references.includes(query)) {
+            dependents.add(sourceFile);
+          }
+        }
+      }
+    }
+    return dependents;
+  }
+
+  private void addJavaType(File outputFile, Set<String> types) {
+    String type = getJavaType(outputFile);
+    if (type != null) {
+      types.add(type);
+    }
+  }
+
+  private String getJavaType(File outputFile) {
+    String outputDirectory = getOutputDirectory().getAbsolutePath();
+    String path = outputFile.getAbsolutePath();
+    if (!path.startsWith(outputDirectory) || !path.endsWith(".class")) {
+      return null;
+    }
+    path = path.substring(outputDirectory.length(), path.length() - ".class".length());
+    if (path.startsWith(File.separator)) {
+      path = path.substring(1);
+    }
+    return path.replace(File.separatorChar, '.');
+  }
+
+  /**
+   * Adds compiler message to a source or an output.
+   */
+  protected void addMessage(Resource<File> resource, int line, int column, String message, MessageSeverity severity) {
+    if (severity == MessageSeverity.ERROR) {
+      errors = true;
+    }
+    resource.addMessage(line, column, message, severity, null);
+  }
+
+  /**
+   * Adds compiler message that is not associated with any source.
+   */
+  protected void addPomMessage(String message, MessageSeverity severity) {
+    if (severity == MessageSeverity.ERROR) {
+      errors = true;
+    }
+    context.addPomMessage(message, severity, null);
   }
 
   protected abstract int compile(Map<File, Resource<File>> sources) throws MojoExecutionException, IOException;
@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2014 Takari, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package io.takari.maven.plugins.compile.javac;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Type references and compile-time constants of a .class file.
+ * <p>
+ * Referenced types are collected from constant pool class entries and from type descriptors and generic signatures found in constant pool strings, which covers supertypes, field and method
+ * types, types used in method bodies, invoked members and annotations with class or runtime retention. Types that are only used at compile time do not appear in .class files, namely owners of
+ * inlined constants, types of unused local variables (unless compiled with {@code -g:vars}), unused imports and annotations with source retention. Constants are tracked separately, see
+ * {@link #getConstantsDigest()}, removed types and changed annotation types require full recompilation, see {@link #isAnnotation()}.
+ */
+class ClassfileReferences {
+
+  private static final int CONSTANT_Utf8 = 1;
+  private static final int CONSTANT_Integer = 3;
+  private static final int CONSTANT_Float = 4;
+  private static final int CONSTANT_Long = 5;
+  private static final int CONSTANT_Double = 6;
+  private static final int CONSTANT_Class = 7;
+  private static final int CONSTANT_String = 8;
+  private static final int CONSTANT_Fieldref = 9;
+  private static final int CONSTANT_Methodref = 10;
+  private static final int CONSTANT_InterfaceMethodref = 11;
+  private static final int CONSTANT_NameAndType = 12;
+  private static final int CONSTANT_MethodHandle = 15;
+  private static final int CONSTANT_MethodType = 16;
+  private static final int CONSTANT_Dynamic = 17;
+  private static final int CONSTANT_InvokeDynamic = 18;
+  private static final int CONSTANT_Module = 19;
+  private static final int CONSTANT_Package = 20;
+
+  private static final int ACC_ANNOTATION = 0x2000;
+
+  private final Set<String> referencedTypes = new HashSet<>();
+
+  private final List<String> supertypes = new ArrayList<>();
+
+  private byte[] constantsDigest;
+
+  private boolean annotation;
+
+  private ClassfileReferences() {}
+
+  public static ClassfileReferences read(byte[] classfile) throws IOException {
+    ClassfileReferences references = new ClassfileReferences();
+    references.parse(new DataInputStream(new ByteArrayInputStream(classfile)));
+    return references;
+  }
+
+  private void parse(DataInputStream in) throws IOException {
+    if (in.readInt() != 0xCAFEBABE) {
+      throw new IOException("Not a .class file");
+    }
+    in.readUnsignedShort(); // minor_version
+    in.readUnsignedShort(); // major_version
+
+    int count = in.readUnsignedShort();
+    String[] strings = new String[count];
+    int[] classes = new int[count]; // name indexes of CONSTANT_Class entries
+    int[] stringValues = new int[count]; // value indexes of CONSTANT_String entries
+    Object[] constants = new Object[count];
+    for (int i = 1; i < count; i++) {
+      int tag = in.readUnsignedByte();
+      switch (tag) {
+        case CONSTANT_Utf8:
+          strings[i] = in.readUTF();
+          break;
+        case CONSTANT_Integer:
+          constants[i] = in.readInt();
+          break;
+        case CONSTANT_Float:
+          constants[i] = in.readFloat();
+          break;
+        case CONSTANT_Long:
+          constants[i++] = in.readLong(); // takes two entries
+          break;
+        case CONSTANT_Double:
+          constants[i++] = in.readDouble(); // takes two entries
+          break;
+        case CONSTANT_Class:
+          classes[i] = in.readUnsignedShort();
+          break;
+        case CONSTANT_String:
+          stringValues[i] = in.readUnsignedShort();
+          break;
+        case CONSTANT_MethodType:
+        case CONSTANT_Module:
+        case CONSTANT_Package:
+          in.readUnsignedShort();
+          break;
+        case CONSTANT_MethodHandle:
+          in.readUnsignedByte();
+          in.readUnsignedShort();
+          break;
+        case CONSTANT_Fieldref:
+        case CONSTANT_Methodref:
+        case CONSTANT_InterfaceMethodref:
+        case CONSTANT_NameAndType:
+        case CONSTANT_Dynamic:
+        case CONSTANT_InvokeDynamic:
+          in.readInt();
+          break;
+        default:
+          throw new IOException("Unsupported constant pool tag " + tag);
+      }
+    }
+
+    Set<Integer> classNames = new HashSet<>();
+    for (int i = 1; i < count; i++) {
+      if (classes[i] != 0) {
+        String name = strings[classes[i]];
+        classNames.add(classes[i]);
+        if (name.startsWith("[")) {
+          addDescriptorTypes(name);
+        } else {
+          addType(name);
+        }
+      }
+    }
+    for (int i = 1; i < count; i++) {
+      if (strings[i] != null && !classNames.contains(i)) {
+        addDescriptorTypes(strings[i]);
+      }
+    }
+
+    annotation = (in.readUnsignedShort() & ACC_ANNOTATION) != 0;
+    in.readUnsignedShort(); // this_class
+    int superclass = in.readUnsignedShort();
+    if (superclass != 0) {
+      supertypes.add(toJavaType(strings[classes[superclass]]));
+    }
+    int interfaces = in.readUnsignedShort();
+    for (int i = 0; i < interfaces; i++) {
+      supertypes.add(toJavaType(strings[classes[in.readUnsignedShort()]]));
+    }
+
+    Hasher hasher = null;
+    int fields = in.readUnsignedShort();
+    for (int i = 0; i < fields; i++) {
+      int access = in.readUnsignedShort();
+      String name = strings[in.readUnsignedShort()];
+      String descriptor = strings[in.readUnsignedShort()];
+      int attributes = in.readUnsignedShort();
+      for (int j = 0; j < attributes; j++) {
+        String attribute = strings[in.readUnsignedShort()];
+        int length = in.readInt();
+        if ("ConstantValue".equals(attribute) && !Modifier.isPrivate(access)) {
+          // private constants can only be inlined by nested types, which are compiled from the same source
+          int index = in.readUnsignedShort();
+          Object value = stringValues[index] != 0 ? strings[stringValues[index]] : constants[index];
+          if (hasher == null) {
+            hasher = Hashing.murmur3_128().newHasher();
+          }
+          hasher.putString(name, Charsets.UTF_8).putString(descriptor, Charsets.UTF_8).putString(String.valueOf(value), Charsets.UTF_8);
+        } else {
+          in.skipBytes(length);
+        }
+      }
+    }
+    if (hasher != null) {
+      constantsDigest = hasher.hash().asBytes();
+    }
+    // methods and class attributes do not reference anything that is not in the constant pool
+  }
+
+  private void addType(String internalName) {
+    referencedTypes.add(toJavaType(internalName));
+  }
+
+  /**
+   * Adds class types of a field or method descriptor or generic signature, e.g. {@code (Ljava/util/List<Lp/A;>;)Lp/B;}. Strings that are not descriptors can add bogus names, which only makes
+   * references more conservative.
+   */
+  private void addDescriptorTypes(String descriptor) {
+    int length = descriptor.length();
+    int idx = descriptor.indexOf('L');
+    while (idx >= 0 && idx < length) {
+      int end = idx + 1;
+      while (end < length && isNameChar(descriptor.charAt(end))) {
+        end++;
+      }
+      if (end > idx + 1 && end < length && (descriptor.charAt(end) == ';' || descriptor.charAt(end) == '<')) {
+        addType(descriptor.substring(idx + 1, end));
+      }
+      idx = descriptor.indexOf('L', end);
+    }
+  }
+
+  private static boolean isNameChar(char ch) {
+    return ch != ';' && ch != '<' && ch != '>' && ch != '.' && ch != '[' && ch != ':' && ch != '(' && ch != ')' && !Character.isWhitespace(ch);
+  }
+
+  private static String toJavaType(String internalName) {
+    return internalName.replace('/', '.');
+  }
+
+  /**
+   * Returns qualified names of referenced types, nested type names use '$' separator.
+   */
+  public Collection<String> getReferencedTypes() {
+    return referencedTypes;
+  }
+
+  /**
+   * Returns qualified names of direct superclass and superinterfaces.
+   */
+  public Collection<String> getSupertypes() {
+    return supertypes;
+  }
+
+  /**
+   * Returns hash of names, types and values of non-private compile-time constant fields, {@code null} if the class does not declare any. Javac inlines constant values into dependent .class
+   * files, which do not reference the class that declares the constants.
+   */
+  public byte[] getConstantsDigest() {
+    return constantsDigest;
+  }
+
+  /**
+   * Returns {@code true} if the class is an annotation type. Uses of annotations with source retention are not recorded in .class files.
+   */
+  public boolean isAnnotation() {
+    return annotation;
+  }
+}
@@ -16,6 +16,7 @@ import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.tools.Diagnostic;
 import javax.tools.Diagnostic.Kind;
 import javax.tools.DiagnosticCollector;
@@ -31,6 +32,7 @@ import io.takari.incrementalbuild.Output;
 import io.takari.incrementalbuild.Resource;
 import io.takari.maven.plugins.compile.CompilerBuildContext;
 import io.takari.maven.plugins.compile.ProjectClasspathDigester;
+import io.takari.maven.plugins.compile.jdt.ClasspathDigester;
 
 @Named(CompilerJavac.ID)
 public class CompilerJavac extends AbstractCompilerJavac {
@@ -50,8 +52,8 @@ public class CompilerJavac extends AbstractCompilerJavac {
   }
 
   @Inject
-  public CompilerJavac(CompilerBuildContext context, ProjectClasspathDigester digester) {
-    super(context, digester);
+  public CompilerJavac(CompilerBuildContext context, ProjectClasspathDigester digester, Provider<ClasspathDigester> classpathDigester) {
+    super(context, digester, classpathDigester);
   }
 
   @Override
@@ -81,7 +83,8 @@ public class CompilerJavac extends AbstractCompilerJavac {
     final RecordingJavaFileManager recordingFileManager = new RecordingJavaFileManager(javaFileManager, getSourceEncoding()) {
       @Override
       protected void record(File inputFile, File outputFile) {
-        outputs.put(outputFile, context.processOutput(outputFile));
+        Resource<File> input = inputFile != null ? sources.get(inputFile) : null;
+        outputs.put(outputFile, input != null ? context.associatedOutput(input, outputFile) : context.processOutput(outputFile));
       }
     };
 
@@ -109,7 +112,7 @@ public class CompilerJavac extends AbstractCompilerJavac {
               resource = outputs.get(file);
             }
             if (resource != null) {
-              resource.addMessage((int) diagnostic.getLineNumber(), (int) diagnostic.getColumnNumber(), message, severity, null);
+              addMessage(resource, (int) diagnostic.getLineNumber(), (int) diagnostic.getColumnNumber(), message, severity);
             } else {
               log.warn("Unexpected java {} resource {}", source.getKind(), source.toUri().toASCIIString());
             }
@@ -117,7 +120,7 @@ public class CompilerJavac extends AbstractCompilerJavac {
             log.warn("Unsupported compiler message on {} resource {}: {}", source.getKind(), source.toUri(), message);
           }
         } else {
-          context.addPomMessage(message, severity, null);
+          addPomMessage(message, severity);
         }
       }
     }
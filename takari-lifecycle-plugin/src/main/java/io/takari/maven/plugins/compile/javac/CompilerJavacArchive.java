@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2014 Takari, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package io.takari.maven.plugins.compile.javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Class data sharing archive of forked compiler JVMs.
+ * <p>
+ * One archive is created per JDK, compiler jar and JVM memory settings, archive file name is derived from all of them, so archives of other JDK or plugin versions are never used. Java 19 and
+ * newer validate the archive on startup and recreate stale or incompatible archives automatically. Java 13 to 18 dump the archive when the first forked compiler JVM, the training JVM, exits.
+ * Older JDKs do not support dynamic archives and forked compiler JVMs are started without an archive. Archives can be disabled with {@value #PROP_ENABLED} system property.
+ * <p>
+ * Archives of other JDK, plugin versions or memory settings are deleted when a new archive is published, except archives used by this Maven JVM, so the cache directory does not grow with
+ * every upgrade.
+ */
+class CompilerJavacArchive {
+
+  /**
+   * System property that enables or disables class data sharing archives, enabled by default.
+   */
+  public static final String PROP_ENABLED = "takari.javac.cds";
+
+  private static final Logger log = LoggerFactory.getLogger(CompilerJavacArchive.class);
+
+  private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(PROP_ENABLED, "true"));
+
+  private static final int JAVA_VERSION = getJavaVersion();
+
+  /**
+   * Archives being dumped by training JVMs of this Maven JVM.
+   */
+  private static final Set<File> TRAINING = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Archives used by forked compiler JVMs of this Maven JVM, never pruned.
+   */
+  private static final Set<File> USED = ConcurrentHashMap.newKeySet();
+
+  private static final CompilerJavacArchive NONE = new CompilerJavacArchive(Collections.<String>emptyList(), null, null);
+
+  private final List<String> jvmOptions;
+
+  private final File archive;
+
+  private final File training;
+
+  private CompilerJavacArchive(List<String> jvmOptions, File archive, File training) {
+    this.jvmOptions = jvmOptions;
+    this.archive = archive;
+    this.training = training;
+  }
+
+  /**
+   * Returns archive of a new forked compiler JVM.
+   */
+  public static CompilerJavacArchive get(File cacheDirectory, CompilerJavacWorkers.Key key) {
+    if (!ENABLED || JAVA_VERSION < 13 || cacheDirectory == null || !key.jar.isFile()) {
+      // classes loaded from directories are never archived
+      return NONE;
+    }
+    if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+      return NONE;
+    }
+
+    File archive = new File(cacheDirectory, getArchiveName(key));
+    USED.add(archive);
+
+    List<String> jvmOptions = new ArrayList<>();
+    // archive warnings go to stdout by default, which is reserved for compilation results
+    jvmOptions.add("-Xlog:disable");
+    jvmOptions.add("-Xlog:all=warning:stderr");
+
+    if (JAVA_VERSION >= 19) {
+      jvmOptions.add("-XX:+AutoCreateSharedArchive");
+      jvmOptions.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+      return new CompilerJavacArchive(jvmOptions, archive, null);
+    }
+
+    if (archive.isFile()) {
+      jvmOptions.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+      return new CompilerJavacArchive(jvmOptions, archive, null);
+    }
+
+    if (!TRAINING.add(archive)) {
+      return NONE; // another JVM is creating the archive
+    }
+
+    // concurrent Maven builds may train the same archive, the first one to finish wins
+    File training = new File(cacheDirectory, archive.getName() + "." + UUID.randomUUID() + ".tmp");
+    jvmOptions.add("-XX:ArchiveClassesAtExit=" + training.getAbsolutePath());
+    return new CompilerJavacArchive(jvmOptions, archive, training);
+  }
+
+  private static String getArchiveName(CompilerJavacWorkers.Key key) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putString(System.getProperty("java.home"), Charsets.UTF_8);
+    hasher.putString(System.getProperty("java.vm.version"), Charsets.UTF_8);
+    hasher.putString(key.jar.getAbsolutePath(), Charsets.UTF_8);
+    hasher.putLong(key.jar.length());
+    hasher.putLong(key.jar.lastModified());
+    hasher.putString(String.valueOf(key.meminitial), Charsets.UTF_8);
+    hasher.putString(String.valueOf(key.maxmem), Charsets.UTF_8);
+    return "javac-" + JAVA_VERSION + "-" + hasher.hash().toString() + ".jsa";
+  }
+
+  private static int getJavaVersion() {
+    String version = System.getProperty("java.specification.version");
+    if (version.startsWith("1.")) {
+      version = version.substring(2);
+    }
+    try {
+      return Integer.parseInt(version);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  public List<String> getJvmOptions() {
+    return jvmOptions;
+  }
+
+  /**
+   * Called when the JVM is terminated, publishes the archive dumped by the training JVM.
+   */
+  public void onExit(boolean normal) {
+    if (training == null) {
+      return;
+    }
+    try {
+      if (normal && training.isFile() && training.length() > 0) {
+        Files.move(training.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Created forked compiler class data sharing archive {}", archive);
+        pruneArchives(archive.getParentFile());
+      }
+    } catch (IOException e) {
+      log.debug("Could not create forked compiler class data sharing archive {}", archive, e);
+    } finally {
+      training.delete();
+      TRAINING.remove(archive);
+    }
+  }
+
+  /**
+   * Deletes archives not used by this Maven JVM. Archives still used by other Maven JVMs remain mapped by the forked compiler JVMs, or cannot be deleted on Windows.
+   */
+  private static void pruneArchives(File cacheDirectory) {
+    File[] files = cacheDirectory.listFiles((dir, name) -> name.startsWith("javac-") && name.endsWith(".jsa"));
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (!USED.contains(file) && file.delete()) {
+        log.debug("Deleted stale forked compiler class data sharing archive {}", file);
+      }
+    }
+  }
+}
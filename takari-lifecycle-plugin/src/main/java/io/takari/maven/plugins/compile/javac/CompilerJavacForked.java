@@ -7,22 +7,24 @@
  */
 package io.takari.maven.plugins.compile.javac;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.Writer;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.StringTokenizer;
+import java.util.Set;
 
 import javax.tools.Diagnostic;
 import javax.tools.Diagnostic.Kind;
@@ -34,14 +36,55 @@ import javax.tools.ToolProvider;
 
 import io.takari.incrementalbuild.MessageSeverity;
 
+/**
+ * Forked compiler process main class.
+ * <p>
+ * The process compiles requests read from stdin until stdin is closed, and streams compilation results back on stdout while javac is running. Requests and results are sequences of
+ * records, each record is one type byte followed by record fields. Strings are written as {@code int} length followed by UTF-8 bytes, {@code -1} length denotes {@code null}. Compiler text
+ * output is sent to the parent process as {@link #TEXT} records, anything else written to {@code System.out} is redirected to stderr.
+ * <p>
+ * Reused processes are not started in the project base directory, relative paths of compiler options are resolved against the {@link #WORKING_DIRECTORY} of each request.
+ */
 public class CompilerJavacForked {
 
-  private static final String EOL = "\n";
+  private static final Charset ENCODING = StandardCharsets.UTF_8;
+
+  // request records
+
+  private static final byte WORKING_DIRECTORY = 'D';
+
+  private static final byte SOURCE_ENCODING = 'C';
+
+  private static final byte OPTION = 'O';
+
+  private static final byte SOURCE = 'S';
+
+  // result records
+
+  private static final byte OUTPUT = 'O';
+
+  private static final byte MESSAGE = 'M';
+
+  private static final byte LOG = 'L';
+
+  private static final byte TEXT = 'T';
 
-  private static final String ENCODING = "UTF-8";
+  private static final byte FAILURE = 'F';
+
+  // end of request and end of results
+
+  private static final byte END = 'E';
+
+  /**
+   * Compiler options followed by a path or by a {@link File#pathSeparator} separated list of paths.
+   */
+  private static final Set<String> PATH_OPTIONS = new HashSet<>(Arrays.asList("-d", "-s", "-h", "-cp", "-classpath", "--class-path", "-sourcepath", "--source-path", "-processorpath",
+      "--processor-path", "-bootclasspath", "--boot-class-path", "-extdirs", "-endorseddirs", "-p", "--module-path", "--upgrade-module-path", "--processor-module-path", "--system"));
 
   public static class CompilerConfiguration {
 
+    private final File workingDirectory;
+
     private final Charset encoding;
 
     private final Iterable<String> options;
@@ -49,11 +92,23 @@ public class CompilerJavacForked {
     private final Iterable<File> sources;
 
     public CompilerConfiguration(Charset encoding, Iterable<String> options, Iterable<File> sources) {
+      this(null, encoding, options, sources);
+    }
+
+    public CompilerConfiguration(File workingDirectory, Charset encoding, Iterable<String> options, Iterable<File> sources) {
+      this.workingDirectory = workingDirectory;
       this.encoding = encoding;
       this.options = options;
       this.sources = sources;
     }
 
+    /**
+     * Returns directory relative paths of compiler options are resolved against, {@code null} to use the compiler process current directory.
+     */
+    public File getWorkingDirectory() {
+      return workingDirectory;
+    }
+
     public Charset getSourceEncoding() {
       return encoding;
     }
@@ -66,173 +121,229 @@ public class CompilerJavacForked {
       return sources;
     }
 
-    public void write(File file) throws IOException {
-      Writer writer = newWriter(file);
-      try {
-        // encoding
-        if (encoding != null) {
-          writer.write('C');
-          writer.write(encoding.name());
-          writer.write(EOL);
-        }
-
-        // options
-        for (String option : options) {
-          writer.write('O');
-          writer.write(option);
-          writer.write(EOL);
-        }
-
-        // sources
-        for (File source : sources) {
-          writer.write('S');
-          writer.write(source.getCanonicalPath());
-          writer.write(EOL);
-        }
-      } finally {
-        writer.close();
+    public void write(DataOutputStream out) throws IOException {
+      if (workingDirectory != null) {
+        out.writeByte(WORKING_DIRECTORY);
+        writeString(out, workingDirectory.getCanonicalPath());
+      }
+      if (encoding != null) {
+        out.writeByte(SOURCE_ENCODING);
+        writeString(out, encoding.name());
       }
+      for (String option : options) {
+        out.writeByte(OPTION);
+        writeString(out, option);
+      }
+      for (File source : sources) {
+        out.writeByte(SOURCE);
+        writeString(out, source.getCanonicalPath());
+      }
+      out.writeByte(END);
     }
 
-    public static CompilerConfiguration read(File file) throws IOException {
+    /**
+     * Reads next request, returns {@code null} if there are no more requests.
+     */
+    public static CompilerConfiguration read(DataInputStream in) throws IOException {
+      int type = in.read();
+      if (type < 0) {
+        return null;
+      }
+
+      File workingDirectory = null;
       Charset encoding = null;
       List<String> options = new ArrayList<String>();
       List<File> sources = new ArrayList<File>();
+      for (; type != END; type = in.readByte()) {
+        switch (type) {
+          case WORKING_DIRECTORY:
+            workingDirectory = new File(readString(in));
+            break;
+          case SOURCE_ENCODING:
+            encoding = Charset.forName(readString(in));
+            break;
+          case OPTION:
+            options.add(readString(in));
+            break;
+          case SOURCE:
+            sources.add(new File(readString(in)));
+            break;
+          default:
+            throw new IOException("Unexpected compiler request record " + type);
+        }
+      }
 
-      BufferedReader reader = newBufferedReader(file);
-      try {
-        String str;
-        while ((str = reader.readLine()) != null) {
-          String value = str.substring(1);
-          switch (str.charAt(0)) {
-            case 'C':
-              encoding = Charset.forName(value);
-              break;
-            case 'O':
-              options.add(value);
-              break;
-            case 'S':
-              sources.add(new File(value));
-              break;
-          }
+      if (workingDirectory != null) {
+        options = resolve(workingDirectory, options);
+      }
+
+      return new CompilerConfiguration(workingDirectory, encoding, options, sources);
+    }
+
+    /**
+     * Makes relative paths of path options and of {@code @argfiles} absolute.
+     */
+    private static List<String> resolve(File workingDirectory, List<String> options) {
+      List<String> resolved = new ArrayList<>(options.size());
+      for (int i = 0; i < options.size(); i++) {
+        String option = options.get(i);
+        if (option.startsWith("@") && option.length() > 1) {
+          option = "@" + resolve(workingDirectory, option.substring(1), false);
+        } else if (i > 0 && PATH_OPTIONS.contains(options.get(i - 1))) {
+          option = resolve(workingDirectory, option, true);
         }
-      } finally {
-        reader.close();
+        resolved.add(option);
       }
+      return resolved;
+    }
 
-      return new CompilerConfiguration(encoding, options, sources);
+    private static String resolve(File workingDirectory, String path, boolean list) {
+      String[] elements = list ? path.split(File.pathSeparator, -1) : new String[] {path};
+      for (int i = 0; i < elements.length; i++) {
+        if (!elements[i].isEmpty() && !new File(elements[i]).isAbsolute()) {
+          elements[i] = new File(workingDirectory, elements[i]).getPath();
+        }
+      }
+      return String.join(File.pathSeparator, elements);
     }
   }
 
   public static class CompilerOutput {
 
-    private final Writer writer;
+    private final DataOutputStream out;
 
-    public CompilerOutput(File file) throws IOException {
-      this.writer = newWriter(file);
+    public CompilerOutput(DataOutputStream out) {
+      this.out = out;
     }
 
-    public void processOutput(File inputFile, File outputFile) {
+    public synchronized void processOutput(File inputFile, File outputFile) {
       try {
-        writer.write('O');
-        writer.write(inputFile != null ? URLEncoder.encode(inputFile.getCanonicalPath(), ENCODING) : ".");
-        writer.write(' ');
-        writer.write(URLEncoder.encode(outputFile.getCanonicalPath(), ENCODING));
-        writer.write(EOL);
+        out.writeByte(OUTPUT);
+        writeString(out, inputFile != null ? inputFile.getCanonicalPath() : null);
+        writeString(out, outputFile.getCanonicalPath());
+        out.flush(); // let the parent process record outputs while compilation is running
       } catch (IOException e) {
         handleException(e);
       }
     }
 
-    public void addMessage(String path, int line, int column, String message, Kind kind) {
+    public synchronized void addMessage(String path, int line, int column, String message, Kind kind) {
       try {
-        writer.write('M');
-        writer.write(URLEncoder.encode(path, ENCODING));
-        writer.write(' ');
-        writer.write(Integer.toString(line));
-        writer.write(' ');
-        writer.write(Integer.toString(column));
-        writer.write(' ');
+        out.writeByte(MESSAGE);
+        writeString(out, path);
+        out.writeInt(line);
+        out.writeInt(column);
         switch (kind) {
           case ERROR:
-            writer.write('E');
+            out.writeByte('E');
             break;
           case NOTE:
-            writer.write('I');
+            out.writeByte('I');
             break;
           default:
-            writer.write('W');
+            out.writeByte('W');
             break;
         }
-        writer.write(' ');
-        writer.write(URLEncoder.encode(message, ENCODING));
-        writer.write(EOL);
+        writeString(out, message);
       } catch (IOException e) {
         handleException(e);
       }
     }
 
-    public void addLogMessage(String message) {
+    public synchronized void addLogMessage(String message) {
       try {
-        writer.write('L');
-        writer.write(message);
-        writer.write(EOL);
+        out.writeByte(LOG);
+        writeString(out, message);
       } catch (IOException e) {
         handleException(e);
       }
     }
 
-    public void close() throws IOException {
-      writer.close();
+    public synchronized void addText(String text) {
+      try {
+        out.writeByte(TEXT);
+        writeString(out, text);
+        out.flush();
+      } catch (IOException e) {
+        handleException(e);
+      }
+    }
+
+    /**
+     * Reports compiler crash, the worker terminates after the results of the request.
+     */
+    public synchronized void addFailure(Throwable failure) {
+      try {
+        StringWriter buf = new StringWriter();
+        failure.printStackTrace(new PrintWriter(buf));
+        out.writeByte(FAILURE);
+        writeString(out, buf.toString());
+      } catch (IOException e) {
+        handleException(e);
+      }
+    }
+
+    public synchronized void close() throws IOException {
+      out.writeByte(END);
+      out.flush();
     }
 
     private void handleException(IOException e) {
       e.printStackTrace();
-      System.exit(1); // this will trigger ExecutionException in Maven plugin
+      System.exit(1); // parent process will see unexpected end of results
     }
 
-    public static void process(File file, CompilerOutputProcessor callback) throws IOException {
-      BufferedReader reader = newBufferedReader(file);
-      try {
-        String str;
-        while ((str = reader.readLine()) != null) {
-          String value = str.substring(1);
-          switch (str.charAt(0)) {
-            case 'O': {
-              StringTokenizer st = new StringTokenizer(value, " ");
-              String inputPath = URLDecoder.decode(st.nextToken(), ENCODING);
-              String outputPath = URLDecoder.decode(st.nextToken(), ENCODING);
-              callback.processOutput(!".".equals(inputPath) ? new File(inputPath) : null, new File(outputPath));
-              break;
-            }
-            case 'M': {
-              StringTokenizer st = new StringTokenizer(value, " ");
-              String path = URLDecoder.decode(st.nextToken(), ENCODING);
-              int line = Integer.parseInt(st.nextToken());
-              int column = Integer.parseInt(st.nextToken());
-              MessageSeverity severity = toSeverity(st.nextToken());
-              String message = URLDecoder.decode(st.nextToken(), ENCODING);
-              callback.addMessage(path, line, column, message, severity);
-              break;
-            }
-            case 'L': {
-              callback.addLogMessage(value);
-              break;
-            }
-            default:
-              throw new IllegalArgumentException();
+    /**
+     * Reads results of one request and passes them to the callback as they become available. Throws {@link java.io.EOFException} if the stream ends before all results were read and
+     * {@link CompilerFailureException} if the compiler crashed.
+     */
+    public static void process(DataInputStream in, CompilerOutputProcessor callback) throws IOException {
+      String failure = null;
+      for (byte type = in.readByte(); type != END; type = in.readByte()) {
+        switch (type) {
+          case OUTPUT: {
+            String inputPath = readString(in);
+            String outputPath = readString(in);
+            callback.processOutput(inputPath != null ? new File(inputPath) : null, new File(outputPath));
+            break;
+          }
+          case MESSAGE: {
+            String path = readString(in);
+            int line = in.readInt();
+            int column = in.readInt();
+            MessageSeverity severity = toSeverity(in.readByte());
+            String message = readString(in);
+            callback.addMessage(path, line, column, message, severity);
+            break;
+          }
+          case LOG: {
+            callback.addLogMessage(readString(in));
+            break;
           }
+          case TEXT: {
+            // same as compiler text output of the forked process used to be
+            System.out.print(readString(in));
+            System.out.flush();
+            break;
+          }
+          case FAILURE: {
+            failure = readString(in);
+            break;
+          }
+          default:
+            throw new IOException("Unexpected compiler result record " + type);
         }
-      } finally {
-        reader.close();
+      }
+      if (failure != null) {
+        throw new CompilerFailureException(failure);
       }
     }
 
-    private static MessageSeverity toSeverity(String token) {
-      switch (token) {
-        case "E":
+    private static MessageSeverity toSeverity(byte kind) {
+      switch (kind) {
+        case 'E':
           return MessageSeverity.ERROR;
-        case "I":
+        case 'I':
           return MessageSeverity.INFO;
         default:
           return MessageSeverity.WARNING;
@@ -240,6 +351,17 @@ public class CompilerJavacForked {
     }
   }
 
+  /**
+   * Compiler crashed in the forked JVM, for example annotation processor threw an exception or the JVM ran out of memory.
+   */
+  public static class CompilerFailureException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public CompilerFailureException(String stackTrace) {
+      super("Forked compiler failed with exception:\n" + stackTrace);
+    }
+  }
+
   public static interface CompilerOutputProcessor {
     public void processOutput(File inputFile, File outputFile);
 
@@ -248,20 +370,46 @@ public class CompilerJavacForked {
     public void addLogMessage(String message);
   }
 
-  static Writer newWriter(File file) throws IOException {
-    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), ENCODING));
+  static void writeString(DataOutputStream out, String str) throws IOException {
+    if (str == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = str.getBytes(ENCODING);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
   }
 
-  static BufferedReader newBufferedReader(File file) throws IOException {
-    return new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+  static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, ENCODING);
   }
 
   public static void main(String[] args) throws IOException {
-    final CompilerConfiguration config = CompilerConfiguration.read(new File(args[0]));
-    final CompilerOutput output = new CompilerOutput(new File(args[1]));
-    try {
-      compile(config, output);
-    } finally {
+    DataInputStream requests = new DataInputStream(new BufferedInputStream(System.in));
+    DataOutputStream results = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+    // stdout is reserved for results
+    System.setOut(System.err);
+
+    CompilerConfiguration config;
+    while ((config = CompilerConfiguration.read(requests)) != null) {
+      CompilerOutput output = new CompilerOutput(results);
+      try {
+        compile(config, output);
+      } catch (Throwable e) {
+        // compiler and annotation processor state is unknown, report the failure and terminate
+        try {
+          output.addFailure(e);
+          output.close();
+        } finally {
+          System.exit(1);
+        }
+      }
       output.close();
     }
   }
@@ -286,7 +434,27 @@ public class CompilerJavacForked {
       }
     };
 
-    Writer stdout = new PrintWriter(System.out, true);
+    PrintWriter stdout = new PrintWriter(new Writer() {
+      private final StringBuilder buf = new StringBuilder();
+
+      @Override
+      public void write(char[] cbuf, int off, int len) {
+        buf.append(cbuf, off, len);
+      }
+
+      @Override
+      public void flush() {
+        if (buf.length() > 0) {
+          output.addText(buf.toString());
+          buf.setLength(0);
+        }
+      }
+
+      @Override
+      public void close() {
+        flush();
+      }
+    }, true);
     final JavaCompiler.CompilationTask task = compiler.getTask(stdout, // Writer out
         recordingFileManager, // file manager
         diagnosticCollector, // diagnostic listener
@@ -295,6 +463,7 @@ public class CompilerJavacForked {
         fileObjects);
 
     boolean success = task.call();
+    stdout.flush();
 
     for (Diagnostic<? extends JavaFileObject> diagnostic : diagnosticCollector.getDiagnostics()) {
       JavaFileObject source = diagnostic.getSource();
@@ -318,5 +487,12 @@ public class CompilerJavacForked {
         output.addMessage(".", 0, 0, diagnostic.getMessage(null), kind);
       }
     }
+
+    try {
+      // releases annotation processor classloader and open jars, required by long-lived workers
+      standardFileManager.close();
+    } catch (IOException e) {
+      output.addLogMessage("Could not close compiler file manager: " + e.getMessage());
+    }
   }
 }
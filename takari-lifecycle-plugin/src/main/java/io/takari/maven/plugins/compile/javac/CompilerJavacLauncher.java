@@ -14,20 +14,17 @@ import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
-
-import org.apache.commons.exec.CommandLine;
-import org.apache.commons.exec.DefaultExecutor;
-import org.apache.commons.exec.ExecuteException;
-import org.apache.commons.exec.ShutdownHookProcessDestroyer;
+import javax.inject.Provider;
 
 import io.takari.incrementalbuild.MessageSeverity;
 import io.takari.incrementalbuild.Output;
 import io.takari.incrementalbuild.Resource;
+import io.takari.maven.plugins.compile.AbstractCompileMojo.Proc;
 import io.takari.maven.plugins.compile.CompilerBuildContext;
 import io.takari.maven.plugins.compile.ProjectClasspathDigester;
 import io.takari.maven.plugins.compile.javac.CompilerJavacForked.CompilerConfiguration;
-import io.takari.maven.plugins.compile.javac.CompilerJavacForked.CompilerOutput;
 import io.takari.maven.plugins.compile.javac.CompilerJavacForked.CompilerOutputProcessor;
+import io.takari.maven.plugins.compile.jdt.ClasspathDigester;
 
 @Named(CompilerJavacLauncher.ID)
 public class CompilerJavacLauncher extends AbstractCompilerJavac {
@@ -38,91 +35,49 @@ public class CompilerJavacLauncher extends AbstractCompilerJavac {
 
   private File basedir;
 
-  private File buildDirectory;
-
   private String meminitial;
 
   private String maxmem;
 
+  private final CompilerJavacWorkers workers;
+
   @Inject
-  public CompilerJavacLauncher(CompilerBuildContext context, ProjectClasspathDigester digester) {
-    super(context, digester);
+  public CompilerJavacLauncher(CompilerBuildContext context, ProjectClasspathDigester digester, Provider<ClasspathDigester> classpathDigester, CompilerJavacWorkers workers) {
+    super(context, digester, classpathDigester);
+    this.workers = workers;
   }
 
   @Override
-  public int compile(Map<File, Resource<File>> sources) throws IOException {
+  public int compile(final Map<File, Resource<File>> sources) throws IOException {
     if (sources.isEmpty()) {
       return 0;
     }
 
-    File options = File.createTempFile("javac-forked", ".options", buildDirectory);
-    File output = File.createTempFile("javac-forked", ".output", buildDirectory);
-    compile(options, output, sources);
-    // don't delete temp files in case of an exception
-    // they maybe useful to debug the problem
-    options.delete();
-    output.delete();
-
-    return sources.size();
-  }
-
-  private void compile(File options, File output, final Map<File, Resource<File>> sources) throws IOException {
-    new CompilerConfiguration(getSourceEncoding(), getCompilerOptions(), sources.keySet()).write(options);
+    CompilerConfiguration config = new CompilerConfiguration(basedir, getSourceEncoding(), getCompilerOptions(), sources.keySet());
 
     // use the same JVM as the one used to run Maven (the "java.home" one)
     String executable = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
     if (File.separatorChar == '\\') {
       executable = executable + ".exe";
     }
+    CompilerJavacWorkers.Key key = new CompilerJavacWorkers.Key(executable, jar, meminitial, maxmem);
 
-    CommandLine cli = new CommandLine(executable);
-
-    // jvm options
-    cli.addArguments(new String[] {"-cp", jar.getAbsolutePath()});
-    if (meminitial != null) {
-      cli.addArgument("-Xms" + meminitial);
-    }
-    if (maxmem != null) {
-      cli.addArgument("-Xmx" + maxmem);
-    }
-
-    // main class and program arguments
-    cli.addArgument(CompilerJavacForked.class.getName());
-    cli.addArgument(options.getAbsolutePath(), false);
-    cli.addArgument(output.getAbsolutePath(), false);
-
-    DefaultExecutor executor = new DefaultExecutor();
-    // ExecuteWatchdog watchdog = null;
-    // if (forkedProcessTimeoutInSeconds > 0) {
-    // watchdog = new ExecuteWatchdog(forkedProcessTimeoutInSeconds * 1000L);
-    // executor.setWatchdog(watchdog);
-    // }
-    // best effort to avoid orphaned child process
-    executor.setProcessDestroyer(new ShutdownHookProcessDestroyer());
-    executor.setWorkingDirectory(basedir);
-
-    log.debug("External java process command line:\n   {}", cli);
-    try {
-      executor.execute(cli); // this throws ExecuteException if process return code != 0
-    } catch (ExecuteException e) {
-      if (!log.isDebugEnabled()) {
-        log.info("External java process command line:\n   {}", cli);
-      }
-      throw e;
-    }
+    // annotation processors may keep static state, only reuse compiler JVMs when annotation processing is disabled
+    boolean reuse = getProc() == Proc.none;
 
     final Map<File, Output<File>> outputs = new HashMap<File, Output<File>>();
 
-    CompilerOutput.process(output, new CompilerOutputProcessor() {
+    workers.compile(key, basedir, reuse, config, new CompilerOutputProcessor() {
       @Override
       public void processOutput(File inputFile, File outputFile) {
-        outputs.put(outputFile, context.processOutput(outputFile));
+        Resource<File> input = inputFile != null ? sources.get(inputFile) : null;
+        outputs.put(outputFile, input != null ? context.associatedOutput(input, outputFile) : context.processOutput(outputFile));
       }
 
       @Override
       public void addMessage(String path, int line, int column, String message, MessageSeverity kind) {
         if (".".equals(path)) {
-          context.addPomMessage(message, kind, null);
+          addPomMessage(message, kind);
         } else {
           File file = new File(path);
           Resource<File> resource = sources.get(file);
@@ -131,7 +86,7 @@ public class CompilerJavacLauncher extends AbstractCompilerJavac {
           }
           if (resource != null) {
             if (isShowWarnings() || kind != MessageSeverity.WARNING) {
-              resource.addMessage(line, column, message, kind, null);
+              CompilerJavacLauncher.this.addMessage(resource, line, column, message, kind);
             }
           } else {
             log.warn("Unexpected java resource {}", file);
@@ -144,6 +99,8 @@ public class CompilerJavacLauncher extends AbstractCompilerJavac {
         log.warn(message);
       }
     });
+
+    return sources.size();
   }
 
   public void setBasedir(File basedir) {
@@ -154,10 +111,6 @@ public class CompilerJavacLauncher extends AbstractCompilerJavac {
     this.jar = jar;
   }
 
-  public void setBuildDirectory(File buildDirectory) {
-    this.buildDirectory = buildDirectory;
-  }
-
   public void setMeminitial(String meminitial) {
     this.meminitial = meminitial;
   }
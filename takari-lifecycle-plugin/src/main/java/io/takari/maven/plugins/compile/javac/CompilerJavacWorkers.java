@@ -0,0 +1,342 @@
+/**
+ * Copyright (c) 2014 Takari, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package io.takari.maven.plugins.compile.javac;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.maven.SessionScoped;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.takari.maven.plugins.compile.SessionEndListener;
+import io.takari.maven.plugins.compile.javac.CompilerJavacForked.CompilerConfiguration;
+import io.takari.maven.plugins.compile.javac.CompilerJavacForked.CompilerOutput;
+import io.takari.maven.plugins.compile.javac.CompilerJavacForked.CompilerOutputProcessor;
+
+/**
+ * Forked compiler JVMs, see {@link CompilerJavacForked}.
+ * <p>
+ * Reusable workers are keyed by java executable, compiler classpath and memory settings, and are reused by all forked compilations with the same key, so javac classes are loaded and JIT-compiled once
+ * rather than once per project. Each compilation still runs in a separate JVM, not in Maven JVM heap. Idle workers are checked to be alive before reuse, workers are recycled after the
+ * number of compilations set by {@value #PROP_MAX_COMPILES} system property, {@code 100} by default, and all workers are shut down at the end of the build session. Values less than {@code 2}
+ * disable worker reuse. New JVMs are started with class data sharing archive, see {@link CompilerJavacArchive}.
+ * <p>
+ * Workers that crash during a compilation, for example because an annotation processor threw an exception, are terminated and the compilation fails, the crash is never visible to the next
+ * compilation. Workers that do not complete a compilation within the number of seconds set by {@value #PROP_TIMEOUT} system property are terminated and the compilation fails. The timeout is
+ * disabled by default, values less than {@code 1} disable the timeout.
+ */
+@Named
+@SessionScoped
+public class CompilerJavacWorkers {
+
+  /**
+   * System property that controls maximum number of compilations performed by one worker.
+   */
+  public static final String PROP_MAX_COMPILES = "takari.javac.worker.maxCompiles";
+
+  private static final Logger log = LoggerFactory.getLogger(CompilerJavacWorkers.class);
+
+  /**
+   * System property that controls maximum duration of one compilation, in seconds, {@code 0}, i.e. no timeout, by default.
+   */
+  public static final String PROP_TIMEOUT = "takari.javac.worker.timeout";
+
+  private static final int MAX_COMPILES = Integer.getInteger(PROP_MAX_COMPILES, 100);
+
+  private static final long TIMEOUT = Long.getLong(PROP_TIMEOUT, 0);
+
+  private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor( //
+      new ThreadFactoryBuilder().setNameFormat("forked-javac-watchdog").setDaemon(true).build());
+
+  private static final long SHUTDOWN_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+
+  public static class Key {
+    final String executable;
+
+    final File jar;
+
+    final String meminitial;
+
+    final String maxmem;
+
+    public Key(String executable, File jar, String meminitial, String maxmem) {
+      this.executable = executable;
+      this.jar = jar;
+      this.meminitial = meminitial;
+      this.maxmem = maxmem;
+    }
+
+    List<String> getCommandLine(List<String> jvmOptions) {
+      List<String> cli = new ArrayList<>();
+      cli.add(executable);
+      cli.addAll(jvmOptions);
+      cli.add("-cp");
+      cli.add(jar.getAbsolutePath());
+      if (meminitial != null) {
+        cli.add("-Xms" + meminitial);
+      }
+      if (maxmem != null) {
+        cli.add("-Xmx" + maxmem);
+      }
+      cli.add(CompilerJavacForked.class.getName());
+      return cli;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(executable, jar, meminitial, maxmem);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return executable.equals(other.executable) && jar.equals(other.jar) && Objects.equals(meminitial, other.meminitial) && Objects.equals(maxmem, other.maxmem);
+    }
+  }
+
+  private static class Worker {
+    final List<String> commandLine;
+
+    final CompilerJavacArchive archive;
+
+    final Process process;
+
+    final DataOutputStream requests;
+
+    final DataInputStream results;
+
+    final Thread stderr;
+
+    int compiles;
+
+    Worker(List<String> commandLine, CompilerJavacArchive archive, Process process) {
+      this.commandLine = commandLine;
+      this.archive = archive;
+      this.process = process;
+      this.requests = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+      this.results = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+      this.stderr = new Thread(() -> {
+        try (InputStream is = process.getErrorStream()) {
+          byte[] buf = new byte[4096];
+          int n;
+          while ((n = is.read(buf)) > 0) {
+            System.err.write(buf, 0, n);
+          }
+        } catch (IOException e) {
+          // worker terminated
+        }
+      }, "forked-javac-worker-stderr");
+      stderr.setDaemon(true);
+      stderr.start();
+    }
+
+    void compile(CompilerConfiguration config, CompilerOutputProcessor callback) throws IOException {
+      compiles++;
+      AtomicBoolean expired = new AtomicBoolean();
+      ScheduledFuture<?> watchdog = null;
+      if (TIMEOUT > 0) {
+        watchdog = WATCHDOG.schedule(() -> {
+          expired.set(true);
+          process.destroyForcibly(); // unblocks the results reader
+        }, TIMEOUT, TimeUnit.SECONDS);
+      }
+      try {
+        config.write(requests);
+        requests.flush();
+        CompilerOutput.process(results, callback);
+      } catch (IOException e) {
+        if (expired.get()) {
+          throw new IOException("Forked compiler process did not complete compilation in " + TIMEOUT + " seconds and was terminated", e);
+        }
+        if (e instanceof EOFException) {
+          throw new IOException("Forked compiler process terminated unexpectedly", e);
+        }
+        throw e;
+      } finally {
+        if (watchdog != null) {
+          watchdog.cancel(false);
+        }
+      }
+    }
+
+    /**
+     * Returns {@code true} if the worker JVM exited with status {@code 0}.
+     */
+    boolean shutdown() {
+      boolean normal = false;
+      try {
+        requests.close(); // worker exits when its stdin is closed
+        if (process.waitFor(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+          normal = process.exitValue() == 0;
+        } else {
+          process.destroy();
+        }
+        stderr.join(SHUTDOWN_TIMEOUT);
+      } catch (IOException | InterruptedException e) {
+        process.destroy();
+      } finally {
+        archive.onExit(normal);
+      }
+      return normal;
+    }
+  }
+
+  private static final Map<Key, Deque<Worker>> IDLE = new HashMap<>();
+
+  private static final Set<Worker> WORKERS = ConcurrentHashMap.newKeySet();
+
+  static {
+    // best effort to avoid orphaned child processes
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      for (Worker worker : WORKERS) {
+        worker.process.destroy();
+      }
+    }, "forked-javac-workers-shutdown"));
+  }
+
+  private final File cacheDirectory;
+
+  @Inject
+  public CompilerJavacWorkers(MavenSession session) {
+    SessionEndListener.register(session, CompilerJavacWorkers::shutdown);
+    MavenExecutionRequest request = session.getRequest();
+    File localRepository = request != null ? request.getLocalRepositoryPath() : null;
+    this.cacheDirectory = localRepository != null ? new File(localRepository, ".cache/takari-lifecycle-plugin/javac") : null;
+  }
+
+  /**
+   * Compiles in a forked compiler JVM and passes compilation results to the callback as they become available. If {@code reuse} is {@code true}, uses an idle or new worker, otherwise starts
+   * new JVM in {@code basedir} and terminates it after the compilation. Throws {@link IOException} if the compiler crashed, if the JVM terminates before completing the compilation or, when
+   * the JVM is not reused, if it does not exit normally.
+   */
+  public void compile(Key key, File basedir, boolean reuse, CompilerConfiguration config, CompilerOutputProcessor callback) throws IOException {
+    reuse = reuse && MAX_COMPILES > 1;
+    Worker worker = reuse ? acquire(key) : start(key, basedir);
+    boolean healthy = false;
+    try {
+      worker.compile(config, callback);
+      // reused workers only exit when asked to, exit after the results means the compiler crashed
+      healthy = !reuse || worker.process.isAlive();
+    } catch (IOException e) {
+      logCommandLine(worker);
+      throw e;
+    } finally {
+      if (reuse) {
+        release(key, worker, healthy);
+      } else {
+        WORKERS.remove(worker);
+        healthy = worker.shutdown() && healthy;
+      }
+    }
+    if (!healthy) {
+      // all results were received, but the compiler failed after that
+      logCommandLine(worker);
+      throw new IOException("Forked compiler process did not exit normally");
+    }
+  }
+
+  private static void logCommandLine(Worker worker) {
+    if (!log.isDebugEnabled()) {
+      log.info("External java process command line:\n   {}", worker.commandLine);
+    }
+  }
+
+  private Worker acquire(Key key) throws IOException {
+    synchronized (IDLE) {
+      Deque<Worker> idle = IDLE.get(key);
+      while (idle != null && !idle.isEmpty()) {
+        Worker worker = idle.pop();
+        if (worker.process.isAlive()) {
+          return worker;
+        }
+        WORKERS.remove(worker);
+        worker.shutdown();
+      }
+    }
+    return start(key, null);
+  }
+
+  private Worker start(Key key, File directory) throws IOException {
+    CompilerJavacArchive archive = CompilerJavacArchive.get(cacheDirectory, key);
+    List<String> commandLine = key.getCommandLine(archive.getJvmOptions());
+    log.debug("External java process command line:\n   {}", commandLine);
+    Process process;
+    try {
+      process = new ProcessBuilder(commandLine).directory(directory).start();
+    } catch (IOException e) {
+      archive.onExit(false);
+      throw e;
+    }
+    Worker worker = new Worker(commandLine, archive, process);
+    WORKERS.add(worker);
+    return worker;
+  }
+
+  private static void release(Key key, Worker worker, boolean healthy) {
+    if (healthy && worker.compiles < MAX_COMPILES) {
+      synchronized (IDLE) {
+        IDLE.computeIfAbsent(key, k -> new ArrayDeque<>()).push(worker);
+      }
+    } else {
+      WORKERS.remove(worker);
+      worker.shutdown();
+    }
+  }
+
+  /**
+   * Shuts down all idle workers.
+   */
+  public static void shutdown() {
+    Collection<Worker> workers = new ArrayList<>();
+    synchronized (IDLE) {
+      for (Deque<Worker> idle : IDLE.values()) {
+        workers.addAll(idle);
+      }
+      IDLE.clear();
+    }
+    for (Worker worker : workers) {
+      WORKERS.remove(worker);
+      worker.shutdown();
+    }
+  }
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2014 Takari, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package io.takari.maven.plugins.compile.jdt;
+
+import static org.eclipse.jdt.internal.compiler.util.SuffixConstants.SUFFIX_STRING_class;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+
+import com.google.common.io.Files;
+
+/**
+ * ABI digests of all .class files of a classes directory, written by the compiler to {@value #PATH} and packaged with the rest of the classes directory.
+ * <p>
+ * Allows {@link ClasspathDigester} to use digests computed during compilation instead of re-digesting the .class files. For each .class file, the manifest records file length, timestamp and
+ * CRC-32, which are used to detect .class files changed since the manifest was written. Timestamps are checked in classes directories, CRC-32 in jar files, where it is available from the
+ * central directory without reading entry contents.
+ */
+public class AbiManifest {
+
+  public static final String PATH = "META-INF/takari/abi-digest";
+
+  private static final int MAGIC = 0x54414249; // TABI
+
+  private static final int VERSION = 2;
+
+  public static class Entry {
+    final long length;
+    final long lastModified;
+    final long crc;
+    final byte[] digest;
+
+    public Entry(long length, long lastModified, long crc, byte[] digest) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.crc = crc;
+      this.digest = digest;
+    }
+  }
+
+  /**
+   * Relative .class file path, always '/' separated, to the file entry.
+   */
+  private final SortedMap<String, Entry> entries;
+
+  public AbiManifest(SortedMap<String, Entry> entries) {
+    this.entries = entries;
+  }
+
+  /**
+   * Returns manifest of the classes directory or {@code null} if the directory does not have valid manifest.
+   */
+  public static AbiManifest read(File directory) {
+    File file = new File(directory, PATH);
+    if (!file.isFile()) {
+      return null;
+    }
+    try (InputStream is = new FileInputStream(file)) {
+      return read(is);
+    } catch (IOException e) {
+      return null; // silently ignore bad manifest files
+    }
+  }
+
+  public static AbiManifest read(InputStream is) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new IOException("Unsupported ABI manifest format");
+    }
+    SortedMap<String, Entry> entries = new TreeMap<>();
+    for (int i = 0, count = in.readInt(); i < count; i++) {
+      String path = in.readUTF();
+      long length = in.readLong();
+      long lastModified = in.readLong();
+      long crc = in.readInt() & 0xFFFFFFFFL;
+      byte[] digest = new byte[in.readUnsignedByte()];
+      in.readFully(digest);
+      entries.put(path, new Entry(length, lastModified, crc, digest));
+    }
+    return new AbiManifest(entries);
+  }
+
+  /**
+   * Writes the manifest to the classes directory. The manifest file is not modified if it already has the same contents.
+   */
+  public void write(File directory) throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(buf))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(entries.size());
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeLong(entry.getValue().length);
+        out.writeLong(entry.getValue().lastModified);
+        out.writeInt((int) entry.getValue().crc);
+        out.writeByte(entry.getValue().digest.length);
+        out.write(entry.getValue().digest);
+      }
+    }
+    byte[] bytes = buf.toByteArray();
+    File file = new File(directory, PATH);
+    if (file.isFile() && Arrays.equals(bytes, Files.toByteArray(file))) {
+      return;
+    }
+    file.getParentFile().mkdirs();
+    // readers never see partially written manifest
+    File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+    Files.write(bytes, tmp);
+    Files.move(tmp, file);
+  }
+
+  public static void delete(File directory) {
+    new File(directory, PATH).delete();
+  }
+
+  /**
+   * Returns {@code true} if the manifest describes exactly the given .class files of the classes directory and none of the files changed since the manifest was written.
+   */
+  public boolean isUptodate(File directory, Collection<String> classfiles) {
+    if (classfiles.size() != entries.size()) {
+      return false;
+    }
+    for (String path : classfiles) {
+      Entry entry = entries.get(path.replace('\\', '/'));
+      if (entry == null) {
+        return false;
+      }
+      File file = new File(directory, path);
+      if (file.length() != entry.length || file.lastModified() != entry.lastModified) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns {@code true} if the manifest describes exactly the given .class file zip entries, in any order, i.e. the entries have the same paths, lengths and CRC-32.
+   */
+  public boolean matches(Collection<? extends ZipEntry> classfiles) {
+    if (classfiles.size() != entries.size()) {
+      return false;
+    }
+    for (ZipEntry classfile : classfiles) {
+      Entry entry = entries.get(classfile.getName());
+      if (entry == null || entry.length != classfile.getSize() || entry.crc != classfile.getCrc()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the manifest entry of the .class file if it has the same length, timestamp and digest, {@code null} otherwise.
+   */
+  public Entry get(String path, long length, long lastModified, byte[] digest) {
+    Entry entry = entries.get(path);
+    return entry != null && entry.length == length && entry.lastModified == lastModified && Arrays.equals(entry.digest, digest) ? entry : null;
+  }
+
+  /**
+   * Returns the most recent .class file timestamp.
+   */
+  public long getLastModified() {
+    long lastModified = 0;
+    for (Entry entry : entries.values()) {
+      lastModified = Math.max(lastModified, entry.lastModified);
+    }
+    return lastModified;
+  }
+
+  /**
+   * Returns type digests, keyed by qualified type name.
+   */
+  public Map<String, byte[]> getTypeDigests() {
+    Map<String, byte[]> digests = new HashMap<>();
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      digests.put(ClasspathDigester.toJavaType(entry.getKey(), SUFFIX_STRING_class), entry.getValue().digest);
+    }
+    return digests;
+  }
+}
@@ -9,6 +9,7 @@ import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
 
 import io.takari.maven.plugins.compile.jdt.classpath.ClasspathEntry;
 import io.takari.maven.plugins.compile.jdt.classpath.DependencyClasspathEntry;
+import io.takari.maven.plugins.compile.jdt.classpath.TypeNameFilter;
 
 class AccessRestrictionClasspathEntry implements ClasspathEntry {
   private final DependencyClasspathEntry entry;
@@ -24,6 +25,11 @@ class AccessRestrictionClasspathEntry implements ClasspathEntry {
     return entry.getPackageNames();
   }
 
+  @Override
+  public TypeNameFilter getTypeNameFilter() {
+    return entry.getTypeNameFilter();
+  }
+
   @Override
   public NameEnvironmentAnswer findType(String packageName, String typeName) {
     return entry.findType(packageName, typeName, accessRestriction);
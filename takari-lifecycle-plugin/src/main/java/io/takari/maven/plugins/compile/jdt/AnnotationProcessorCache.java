@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2014 Takari, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package io.takari.maven.plugins.compile.jdt;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.processing.Processor;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.maven.SessionScoped;
+import org.apache.maven.execution.MavenSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+
+import io.takari.maven.plugins.compile.SessionEndListener;
+
+/**
+ * Annotation processor classloaders and discovered processors of the current build session.
+ * <p>
+ * Shared classloaders are keyed by processorpath fingerprint, so projects and executions that use the same unchanged processorpath share one classloader, and processor classes are loaded and
+ * discovered once per session. Processor instances are never shared, compiler creates new instances for each compilation, but static state of processor classes is. Sharing is therefore opt-in,
+ * see {@link #get(List, List)} and {@link #create(List)}. Shared classloaders are closed when the build session ends.
+ */
+@Named
+@SessionScoped
+public class AnnotationProcessorCache {
+
+  private static final String SERVICES = "META-INF/services/" + Processor.class.getName();
+
+  private static final Logger log = LoggerFactory.getLogger(AnnotationProcessorCache.class);
+
+  public static class ProcessorClassLoader implements Closeable {
+
+    private final URLClassLoader loader;
+
+    private volatile List<String> processors;
+
+    ProcessorClassLoader(URLClassLoader loader) {
+      this.loader = loader;
+    }
+
+    public ClassLoader getClassLoader() {
+      return loader;
+    }
+
+    /**
+     * Returns names of processors declared in {@code META-INF/services/javax.annotation.processing.Processor} resources of the processorpath, in {@link java.util.ServiceLoader} order.
+     */
+    public List<String> getDiscoveredProcessors() throws IOException {
+      List<String> processors = this.processors;
+      if (processors == null) {
+        this.processors = processors = discoverProcessors(loader);
+      }
+      return processors;
+    }
+
+    /**
+     * Closes processorpath jar files, classes that are not loaded yet cannot be loaded afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+      loader.close();
+    }
+  }
+
+  private final Map<List<String>, ProcessorClassLoader> loaders = new ConcurrentHashMap<>();
+
+  @Inject
+  public AnnotationProcessorCache(MavenSession session) {
+    SessionEndListener.register(session, this::close);
+  }
+
+  /**
+   * Returns shared classloader of the processorpath with the given fingerprint, creates the classloader if necessary. The classloader must not be closed by the caller.
+   */
+  public ProcessorClassLoader get(List<String> fingerprint, List<File> processorpath) {
+    return loaders.computeIfAbsent(ImmutableList.copyOf(fingerprint), key -> create(processorpath));
+  }
+
+  /**
+   * Returns new classloader of the processorpath, which must be closed by the caller.
+   */
+  public ProcessorClassLoader create(List<File> processorpath) {
+    return new ProcessorClassLoader(newClassLoader(processorpath));
+  }
+
+  /**
+   * Closes all shared classloaders.
+   */
+  public void close() {
+    for (ProcessorClassLoader loader : loaders.values()) {
+      try {
+        loader.close();
+      } catch (IOException e) {
+        log.debug("Could not close annotation processor classloader", e);
+      }
+    }
+    loaders.clear();
+  }
+
+  private URLClassLoader newClassLoader(List<File> processorpath) {
+    URL[] urls = new URL[processorpath.size()];
+    for (int i = 0; i < urls.length; i++) {
+      try {
+        urls[i] = processorpath.get(i).toURI().toURL();
+      } catch (MalformedURLException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    // same parent as EclipseFileManager processor classloader
+    return new URLClassLoader(urls, getClass().getClassLoader());
+  }
+
+  private static List<String> discoverProcessors(ClassLoader loader) throws IOException {
+    Set<String> processors = new LinkedHashSet<>();
+    Enumeration<URL> resources = loader.getResources(SERVICES);
+    while (resources.hasMoreElements()) {
+      try (BufferedReader r = new BufferedReader(new InputStreamReader(resources.nextElement().openStream(), Charsets.UTF_8))) {
+        String line;
+        while ((line = r.readLine()) != null) {
+          int comment = line.indexOf('#');
+          if (comment >= 0) {
+            line = line.substring(0, comment);
+          }
+          line = line.trim();
+          if (!line.isEmpty()) {
+            processors.add(line);
+          }
+        }
+      }
+    }
+    return ImmutableList.copyOf(processors);
+  }
+}
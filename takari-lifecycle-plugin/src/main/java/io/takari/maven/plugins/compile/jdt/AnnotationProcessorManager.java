@@ -1,11 +1,8 @@
 package io.takari.maven.plugins.compile.jdt;
 
 import java.util.Iterator;
-import java.util.ServiceLoader;
 
 import javax.annotation.processing.Processor;
-import javax.tools.StandardJavaFileManager;
-import javax.tools.StandardLocation;
 
 import org.eclipse.jdt.internal.compiler.apt.dispatch.BaseAnnotationProcessorManager;
 import org.eclipse.jdt.internal.compiler.apt.dispatch.ProcessorInfo;
@@ -72,45 +69,14 @@ class AnnotationProcessorManager extends BaseAnnotationProcessorManager {
     }
   }
 
-  private static class DiscoveredProcessors implements ResettableProcessorIterator {
-
-    private final ServiceLoader<Processor> loader;
-    private Iterator<Processor> iterator;
-
-    public DiscoveredProcessors(ClassLoader procLoader) {
-      this.loader = ServiceLoader.load(Processor.class, procLoader);
-      this.iterator = loader.iterator();
-    }
-
-    @Override
-    public boolean hasNext() {
-      return iterator.hasNext();
-    }
-
-    @Override
-    public Processor next() {
-      return iterator.next();
-    }
-
-    @Override
-    public void remove() {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public void reset() {
-      this.iterator = loader.iterator();
-    }
-
-  }
-
-  public AnnotationProcessorManager(CompilerBuildContext context, ProcessingEnvImpl processingEnv, StandardJavaFileManager fileManager, String[] processors) {
+  /**
+   * @param procLoader processorpath classloader, see {@link AnnotationProcessorCache}
+   * @param processors names of specified or discovered processors
+   */
+  public AnnotationProcessorManager(CompilerBuildContext context, ProcessingEnvImpl processingEnv, ClassLoader procLoader, String[] processors) {
     this.context = context;
     this._processingEnv = processingEnv;
-    ClassLoader procLoader = fileManager.getClassLoader(StandardLocation.ANNOTATION_PROCESSOR_PATH);
-    this.processors = processors != null //
-        ? new SpecifiedProcessors(procLoader, processors) //
-        : new DiscoveredProcessors(procLoader);
+    this.processors = new SpecifiedProcessors(procLoader, processors);
   }
 
   @Override
@@ -7,313 +7,720 @@
  */
 package io.takari.maven.plugins.compile.jdt;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileConstants;
 import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
-import org.eclipse.jdt.internal.compiler.classfmt.FieldInfo;
-import org.eclipse.jdt.internal.compiler.classfmt.MethodInfo;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
 import org.eclipse.jdt.internal.compiler.codegen.AnnotationTargetTypeConstants;
-import org.eclipse.jdt.internal.compiler.env.ClassSignature;
-import org.eclipse.jdt.internal.compiler.env.EnumConstantSignature;
-import org.eclipse.jdt.internal.compiler.env.IBinaryAnnotation;
-import org.eclipse.jdt.internal.compiler.env.IBinaryElementValuePair;
-import org.eclipse.jdt.internal.compiler.env.IBinaryNestedType;
-import org.eclipse.jdt.internal.compiler.env.IBinaryType;
-import org.eclipse.jdt.internal.compiler.env.IBinaryTypeAnnotation;
-import org.eclipse.jdt.internal.compiler.impl.Constant;
 import org.eclipse.jdt.internal.compiler.lookup.TagBits;
-import org.eclipse.jdt.internal.compiler.lookup.TypeIds;
 
 import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 
 /**
- * Adopted from {@link ClassFileReader#hasStructuralChanges(byte[], boolean, boolean)}
- * 
+ * Computes hash of the parts of .class file that are visible to dependent types, i.e. changes to the hash indicate dependent types must be recompiled.
+ * <p>
+ * Considers the same information as {@link ClassFileReader#hasStructuralChanges(byte[], boolean, boolean)}, but reads .class file bytes directly without decoding them into {@link ClassFileReader}.
+ * Method {@code Code} and other attributes that do not affect dependent types are skipped. Digested information is encoded into reusable scratch buffer, which is hashed with 128-bit murmur3 at the
+ * end.
+ * <p>
+ * Instances are not thread safe, but can be reused to digest any number of .class files.
+ * <p>
  * Last updated to match JDT I20160517-2000.
  */
 public class ClassfileDigester {
 
-  // TODO use Guava Hasher
-  private final MessageDigest digester;
-
-  public ClassfileDigester() {
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  // only consider a portion of the tagbits which indicate a structural change for dependents
+  // e.g. @Override change has no influence outside
+  private static final long STRUCTURAL_TAG_BITS = TagBits.AnnotationTargetMASK // different @Target status ?
+      | TagBits.AnnotationDeprecated // different @Deprecated status ?
+      | TagBits.AnnotationRetentionMASK // different @Retention status ?
+      | TagBits.HierarchyHasProblems; // different hierarchy status ?
+
+  private static final int CONSTANT_Utf8 = 1;
+  private static final int CONSTANT_Integer = 3;
+  private static final int CONSTANT_Float = 4;
+  private static final int CONSTANT_Long = 5;
+  private static final int CONSTANT_Double = 6;
+  private static final int CONSTANT_Class = 7;
+  private static final int CONSTANT_String = 8;
+  private static final int CONSTANT_Fieldref = 9;
+  private static final int CONSTANT_Methodref = 10;
+  private static final int CONSTANT_InterfaceMethodref = 11;
+  private static final int CONSTANT_NameAndType = 12;
+  private static final int CONSTANT_MethodHandle = 15;
+  private static final int CONSTANT_MethodType = 16;
+  private static final int CONSTANT_Dynamic = 17;
+  private static final int CONSTANT_InvokeDynamic = 18;
+  private static final int CONSTANT_Module = 19;
+  private static final int CONSTANT_Package = 20;
+
+  private static final byte[] ATTR_Signature = ascii("Signature");
+  private static final byte[] ATTR_Deprecated = ascii("Deprecated");
+  private static final byte[] ATTR_Synthetic = ascii("Synthetic");
+  private static final byte[] ATTR_Varargs = ascii("Varargs");
+  private static final byte[] ATTR_AnnotationDefault = ascii("AnnotationDefault");
+  private static final byte[] ATTR_ConstantValue = ascii("ConstantValue");
+  private static final byte[] ATTR_Exceptions = ascii("Exceptions");
+  private static final byte[] ATTR_InnerClasses = ascii("InnerClasses");
+  private static final byte[] ATTR_InconsistentHierarchy = ascii("InconsistentHierarchy");
+  private static final byte[] ATTR_MissingTypes = ascii("MissingTypes");
+  private static final byte[] ATTR_RuntimeVisibleAnnotations = ascii("RuntimeVisibleAnnotations");
+  private static final byte[] ATTR_RuntimeInvisibleAnnotations = ascii("RuntimeInvisibleAnnotations");
+  private static final byte[] ATTR_RuntimeVisibleParameterAnnotations = ascii("RuntimeVisibleParameterAnnotations");
+  private static final byte[] ATTR_RuntimeInvisibleParameterAnnotations = ascii("RuntimeInvisibleParameterAnnotations");
+  private static final byte[] ATTR_RuntimeVisibleTypeAnnotations = ascii("RuntimeVisibleTypeAnnotations");
+  private static final byte[] ATTR_RuntimeInvisibleTypeAnnotations = ascii("RuntimeInvisibleTypeAnnotations");
+
+  private static final byte[] JAVA_LANG_STRING = ascii("Ljava/lang/String;");
+
+  // annotations jdt represents as tagbits, see org.eclipse.jdt.internal.compiler.classfmt.AnnotationInfo.scanAnnotation
+  private static final byte[] JAVA_LANG_DEPRECATED = ascii("Ljava/lang/Deprecated;");
+  private static final byte[] JAVA_LANG_ANNOTATION_TARGET = ascii("Ljava/lang/annotation/Target;");
+  private static final byte[] JAVA_LANG_ANNOTATION_RETENTION = ascii("Ljava/lang/annotation/Retention;");
+  private static final byte[][] STANDARD_ANNOTATIONS = {JAVA_LANG_DEPRECATED, JAVA_LANG_ANNOTATION_TARGET, JAVA_LANG_ANNOTATION_RETENTION, //
+      ascii("Ljava/lang/annotation/Inherited;"), //
+      ascii("Ljava/lang/annotation/Documented;"), //
+      ascii("Ljava/lang/SafeVarargs;"), //
+      ascii("Ljava/lang/invoke/MethodHandle$PolymorphicSignature;")};
+
+  private static final byte[][] TARGET_NAMES = {ascii("TYPE"), ascii("FIELD"), ascii("METHOD"), ascii("PARAMETER"), ascii("CONSTRUCTOR"), ascii("LOCAL_VARIABLE"), ascii("ANNOTATION_TYPE"),
+      ascii("PACKAGE"), ascii("TYPE_USE"), ascii("TYPE_PARAMETER")};
+  private static final long[] TARGET_TAG_BITS = {TagBits.AnnotationForType, TagBits.AnnotationForField, TagBits.AnnotationForMethod, TagBits.AnnotationForParameter,
+      TagBits.AnnotationForConstructor, TagBits.AnnotationForLocalVariable, TagBits.AnnotationForAnnotationType, TagBits.AnnotationForPackage, TagBits.AnnotationForTypeUse,
+      TagBits.AnnotationForTypeParameter};
+
+  private static final byte[][] RETENTION_NAMES = {ascii("SOURCE"), ascii("CLASS"), ascii("RUNTIME")};
+  private static final long[] RETENTION_TAG_BITS = {TagBits.AnnotationSourceRetention, TagBits.AnnotationClassRetention, TagBits.AnnotationRuntimeRetention};
+
+  /**
+   * The .class file being digested.
+   */
+  private byte[] bytes;
+
+  /**
+   * Offsets of constant pool entries, indexed by constant pool index.
+   */
+  private int[] constantPool = new int[256];
+
+  /**
+   * Scratch buffer the digested information is encoded into.
+   */
+  private byte[] buffer = new byte[1024];
+
+  private int length;
+
+  public byte[] digest(byte[] classfile) throws ClassFormatException {
+    this.bytes = classfile;
+    this.length = 0;
     try {
-      digester = MessageDigest.getInstance("SHA1");
-    } catch (NoSuchAlgorithmException e) {
-      throw new IllegalStateException("Unsupported JVM", e);
+      digest();
+      return HASH.hashBytes(buffer, 0, length).asBytes();
+    } catch (IndexOutOfBoundsException e) {
+      throw new ClassFormatException(ClassFormatException.ErrTruncatedInput);
+    } finally {
+      this.bytes = null;
     }
   }
 
-  public byte[] digest(IBinaryType classFile) {
+  private void digest() throws ClassFormatException {
+    if (u4(0) != 0xCAFEBABE) {
+      throw new ClassFormatException(ClassFormatException.ErrBadMagic);
+    }
+    int offset = readConstantPool();
+
+    int accessFlags = u2(offset);
+    int thisClass = u2(offset + 2);
+    int superClass = u2(offset + 4);
+    int interfacesCount = u2(offset + 6);
+    int interfaces = offset + 8;
+    int fields = interfaces + 2 * interfacesCount;
+    int methods = skipMembers(fields);
+    int attributes = skipMembers(methods);
 
     // type level comparison
-    // modifiers
-    updateInt(classFile.getModifiers());
+    int signature = 0;
+    int innerClasses = -1;
+    int missingTypes = -1;
+    long tagBits = 0;
+    for (int i = 0, count = u2(attributes), attribute = attributes + 2; i < count; i++, attribute = nextAttribute(attribute)) {
+      int name = u2(attribute);
+      if (utf8Equals(name, ATTR_Signature)) {
+        signature = u2(attribute + 6);
+      } else if (utf8Equals(name, ATTR_Deprecated)) {
+        accessFlags |= ClassFileConstants.AccDeprecated;
+      } else if (utf8Equals(name, ATTR_Synthetic)) {
+        accessFlags |= ClassFileConstants.AccSynthetic;
+      } else if (utf8Equals(name, ATTR_InnerClasses)) {
+        innerClasses = attribute + 6;
+      } else if (utf8Equals(name, ATTR_MissingTypes)) {
+        missingTypes = attribute + 6;
+      } else if (utf8Equals(name, ATTR_InconsistentHierarchy)) {
+        tagBits |= TagBits.HierarchyHasProblems;
+      } else if (isAnnotations(name)) {
+        tagBits |= annotationsTagBits(attribute + 6);
+      }
+    }
 
-    // only consider a portion of the tagbits which indicate a structural change for dependents
-    // e.g. @Override change has no influence outside
-    long OnlyStructuralTagBits = TagBits.AnnotationTargetMASK // different @Target status ?
-        | TagBits.AnnotationDeprecated // different @Deprecated status ?
-        | TagBits.AnnotationRetentionMASK // different @Retention status ?
-        | TagBits.HierarchyHasProblems; // different hierarchy status ?
+    // modifiers
+    int modifiers = accessFlags;
+    if (innerClasses >= 0) {
+      for (int i = 0, count = u2(innerClasses), entry = innerClasses + 2; i < count; i++, entry += 8) {
+        if (u2(entry) == thisClass) {
+          modifiers = u2(entry + 6) | (accessFlags & (ClassFileConstants.AccDeprecated | ClassFileConstants.AccSynthetic));
+          break;
+        }
+      }
+    }
+    putInt(modifiers);
 
     // meta-annotations
-    updateLong(classFile.getTagBits() & OnlyStructuralTagBits);
+    putLong(tagBits & STRUCTURAL_TAG_BITS);
     // annotations
-    updateAnnotations(classFile.getAnnotations());
-    updateTypeAnnotations(classFile.getTypeAnnotations());
+    putAnnotations(attributes);
+    putTypeAnnotations(attributes);
 
     // generic signature
-    updateChars(classFile.getGenericSignature());
+    putUtf8(signature);
     // superclass
-    updateChars(classFile.getSuperclassName());
+    putClass(superClass);
     // interfaces
-    char[][] interfacesNames = classFile.getInterfaceNames();
-    if (interfacesNames != null) {
-      for (int i = 0; i < interfacesNames.length; i++) {
-        updateChars(interfacesNames[i]);
-      }
+    putInt(interfacesCount);
+    for (int i = 0; i < interfacesCount; i++) {
+      putClass(u2(interfaces + 2 * i));
     }
 
     // member types
-    IBinaryNestedType[] memberTypes = classFile.getMemberTypes();
-    if (memberTypes != null) {
-      for (int i = 0; i < memberTypes.length; i++) {
-        updateChars(memberTypes[i].getName());
-        updateInt(memberTypes[i].getModifiers());
+    if (innerClasses >= 0) {
+      for (int i = 0, count = u2(innerClasses), entry = innerClasses + 2; i < count; i++, entry += 8) {
+        int innerName = u2(entry + 4);
+        if (u2(entry + 2) == thisClass && innerName != 0 && utf8Length(innerName) > 0) {
+          putClass(u2(entry));
+          putInt(u2(entry + 6));
+        }
       }
     }
 
     // fields
-    FieldInfo[] fieldInfos = (FieldInfo[]) classFile.getFields();
-    if (fieldInfos != null) {
-      for (int i = 0; i < fieldInfos.length; i++) {
-        updateField(fieldInfos[i]);
-      }
+    putInt(u2(fields));
+    for (int i = 0, count = u2(fields), field = fields + 2; i < count; i++, field = skipAttributes(field + 6)) {
+      putField(field);
     }
 
     // methods
-    MethodInfo[] methodInfos = (MethodInfo[]) classFile.getMethods();
-    if (methodInfos != null) {
-      for (int i = 0; i < methodInfos.length; i++) {
-        updateMethod(classFile, methodInfos[i]);
-      }
+    putInt(u2(methods));
+    for (int i = 0, count = u2(methods), method = methods + 2; i < count; i++, method = skipAttributes(method + 6)) {
+      putMethod(method);
     }
 
     // missing types
-    char[][][] missingTypes = classFile.getMissingTypeNames();
-    if (missingTypes != null) {
-      for (int i = 0; i < missingTypes.length; i++) {
-        for (int j = 0; j < missingTypes[i].length; j++) {
-          if (j > 0) {
-            updateChar('.'); // don't ask why
+    if (missingTypes >= 0) {
+      for (int i = 0, count = u2(missingTypes); i < count; i++) {
+        putClass(u2(missingTypes + 2 + 2 * i));
+      }
+    }
+  }
+
+  private void putMethod(int method) throws ClassFormatException {
+    int modifiers = u2(method);
+    int signature = 0;
+    int exceptions = -1;
+    long tagBits = 0;
+    int attributes = method + 6;
+    for (int i = 0, count = u2(attributes), attribute = attributes + 2; i < count; i++, attribute = nextAttribute(attribute)) {
+      int name = u2(attribute);
+      if (utf8Equals(name, ATTR_Signature)) {
+        signature = u2(attribute + 6);
+      } else if (utf8Equals(name, ATTR_Deprecated)) {
+        modifiers |= ClassFileConstants.AccDeprecated;
+      } else if (utf8Equals(name, ATTR_Synthetic)) {
+        modifiers |= ClassFileConstants.AccSynthetic;
+      } else if (utf8Equals(name, ATTR_AnnotationDefault)) {
+        modifiers |= ClassFileConstants.AccAnnotationDefault;
+      } else if (utf8Equals(name, ATTR_Varargs)) {
+        modifiers |= ClassFileConstants.AccVarargs;
+      } else if (utf8Equals(name, ATTR_Exceptions)) {
+        exceptions = attribute + 6;
+      } else if (isAnnotations(name)) {
+        tagBits |= annotationsTagBits(attribute + 6);
+      }
+    }
+
+    // generic signature
+    putUtf8(signature);
+    putInt(modifiers);
+    putLong(tagBits & TagBits.AnnotationDeprecated);
+    putAnnotations(attributes);
+    // parameter annotations
+    for (int i = 0, count = u2(attributes), attribute = attributes + 2; i < count; i++, attribute = nextAttribute(attribute)) {
+      int name = u2(attribute);
+      if (utf8Equals(name, ATTR_RuntimeVisibleParameterAnnotations) || utf8Equals(name, ATTR_RuntimeInvisibleParameterAnnotations)) {
+        int parameters = u1(attribute + 6);
+        putInt(parameters);
+        for (int p = 0, annotations = attribute + 7; p < parameters; p++) {
+          int annotationsCount = u2(annotations);
+          putInt(annotationsCount);
+          annotations += 2;
+          for (int a = 0; a < annotationsCount; a++) {
+            annotations = putAnnotation(annotations);
           }
-          updateChars(missingTypes[i][j]);
         }
       }
     }
+    putTypeAnnotations(attributes);
+
+    putUtf8(u2(method + 2)); // selector
+    putUtf8(u2(method + 4)); // descriptor
 
-    return digester.digest();
+    if (exceptions >= 0) {
+      for (int i = 0, count = u2(exceptions); i < count; i++) {
+        putClass(u2(exceptions + 2 + 2 * i));
+      }
+    }
   }
 
-  private void updateMethod(IBinaryType classFile, MethodInfo methodInfo) {
+  private void putField(int field) throws ClassFormatException {
+    int modifiers = u2(field);
+    int signature = 0;
+    int constant = 0;
+    long tagBits = 0;
+    int attributes = field + 6;
+    for (int i = 0, count = u2(attributes), attribute = attributes + 2; i < count; i++, attribute = nextAttribute(attribute)) {
+      int name = u2(attribute);
+      if (utf8Equals(name, ATTR_Signature)) {
+        signature = u2(attribute + 6);
+      } else if (utf8Equals(name, ATTR_Deprecated)) {
+        modifiers |= ClassFileConstants.AccDeprecated;
+      } else if (utf8Equals(name, ATTR_Synthetic)) {
+        modifiers |= ClassFileConstants.AccSynthetic;
+      } else if (utf8Equals(name, ATTR_ConstantValue)) {
+        constant = u2(attribute + 6);
+      } else if (isAnnotations(name)) {
+        tagBits |= annotationsTagBits(attribute + 6);
+      }
+    }
+
     // generic signature
-    updateChars(methodInfo.getGenericSignature());
-    updateInt(methodInfo.getModifiers());
-    updateLong(methodInfo.getTagBits() & TagBits.AnnotationDeprecated);
-    updateAnnotations(methodInfo.getAnnotations());
-    // parameter annotations:
-    for (int i = 0; i < methodInfo.getAnnotatedParametersCount(); i++) {
-      updateAnnotations(methodInfo.getParameterAnnotations(i, classFile.getName()));
+    putUtf8(signature);
+    putInt(modifiers);
+    putLong(tagBits & TagBits.AnnotationDeprecated);
+    putAnnotations(attributes);
+    putTypeAnnotations(attributes);
+    putUtf8(u2(field + 2)); // name
+    putUtf8(u2(field + 4)); // type name
+    // jdt only recognizes constant values of primitive and String fields
+    boolean hasConstant = constant != 0 && isConstantType(u2(field + 4));
+    putByte(hasConstant ? 1 : 0);
+    if (hasConstant) {
+      putConstant(constant);
     }
-    updateTypeAnnotations(methodInfo.getTypeAnnotations());
+  }
+
+  private boolean isConstantType(int descriptor) {
+    int offset = constantPool[descriptor];
+    int length = u2(offset + 1);
+    if (length == 1) {
+      return "BCDFIJSZ".indexOf(bytes[offset + 3]) >= 0;
+    }
+    return utf8Equals(descriptor, JAVA_LANG_STRING);
+  }
+
+  //
+  // annotations
+  //
 
-    updateChars(methodInfo.getSelector());
-    updateChars(methodInfo.getMethodDescriptor());
-    updateChars(methodInfo.getGenericSignature());
+  private boolean isAnnotations(int name) {
+    return utf8Equals(name, ATTR_RuntimeVisibleAnnotations) || utf8Equals(name, ATTR_RuntimeInvisibleAnnotations);
+  }
 
-    char[][] thrownExceptions = methodInfo.getExceptionTypeNames();
-    for (int i = 0; i < thrownExceptions.length; i++) {
-      updateChars(thrownExceptions[i]);
+  /**
+   * Digests annotations found in the attributes, except annotations jdt represents as tagbits.
+   */
+  private void putAnnotations(int attributes) throws ClassFormatException {
+    for (int i = 0, count = u2(attributes), attribute = attributes + 2; i < count; i++, attribute = nextAttribute(attribute)) {
+      if (isAnnotations(u2(attribute))) {
+        for (int a = 0, annotationsCount = u2(attribute + 6), annotation = attribute + 8; a < annotationsCount; a++) {
+          annotation = isStandardAnnotation(u2(annotation)) ? skipAnnotation(annotation) : putAnnotation(annotation);
+        }
+      }
     }
   }
 
-  private void updateField(FieldInfo fieldInfo) {
-    // generic signature
-    updateChars(fieldInfo.getGenericSignature());
-    updateInt(fieldInfo.getModifiers());
-    updateLong(fieldInfo.getTagBits() & TagBits.AnnotationDeprecated);
-    updateAnnotations(fieldInfo.getAnnotations());
-    updateTypeAnnotations(fieldInfo.getTypeAnnotations());
-    updateChars(fieldInfo.getName());
-    updateChars(fieldInfo.getTypeName());
-    updateBoolean(fieldInfo.hasConstant());
-    if (fieldInfo.hasConstant()) {
-      updateConstant(fieldInfo.getConstant());
-    }
-  }
-
-  private void updateConstant(Constant constant) {
-    updateInt(constant.typeID());
-    updateString(constant.getClass().getName());
-    switch (constant.typeID()) {
-      case TypeIds.T_int:
-        updateInt(constant.intValue());
-        break;
-      case TypeIds.T_byte:
-        updateByte(constant.byteValue());
-        break;
-      case TypeIds.T_short:
-        updateShort(constant.shortValue());
-        break;
-      case TypeIds.T_char:
-        updateChar(constant.charValue());
-        break;
-      case TypeIds.T_long:
-        updateLong(constant.longValue());
-        break;
-      case TypeIds.T_float:
-        updateFloat(constant.floatValue());
-        break;
-      case TypeIds.T_double:
-        updateDouble(constant.doubleValue());
-        break;
-      case TypeIds.T_boolean:
-        updateBoolean(constant.booleanValue());
-        break;
-      case TypeIds.T_JavaLangString:
-        updateString(constant.stringValue());
-        break;
-      default:
-        throw new IllegalArgumentException("Unexpected constant typeID=" + constant.typeID());
+  private boolean isStandardAnnotation(int type) {
+    for (byte[] standard : STANDARD_ANNOTATIONS) {
+      if (utf8Equals(type, standard)) {
+        return true;
+      }
     }
+    return false;
   }
 
-  private void updateAnnotations(IBinaryAnnotation[] annotations) {
-    if (annotations != null) {
-      for (int i = 0; i < annotations.length; i++) {
-        updateAnnotation(annotations[i]);
+  private long annotationsTagBits(int annotations) throws ClassFormatException {
+    long tagBits = 0;
+    for (int a = 0, count = u2(annotations), annotation = annotations + 2; a < count; a++) {
+      int type = u2(annotation);
+      if (utf8Equals(type, JAVA_LANG_DEPRECATED)) {
+        tagBits |= TagBits.AnnotationDeprecated;
+      } else if (utf8Equals(type, JAVA_LANG_ANNOTATION_TARGET)) {
+        tagBits |= TagBits.AnnotationTarget | enumTagBits(annotation, TARGET_NAMES, TARGET_TAG_BITS);
+      } else if (utf8Equals(type, JAVA_LANG_ANNOTATION_RETENTION)) {
+        tagBits |= enumTagBits(annotation, RETENTION_NAMES, RETENTION_TAG_BITS);
       }
+      annotation = skipAnnotation(annotation);
     }
+    return tagBits;
   }
 
-  private void updateAnnotation(IBinaryAnnotation annotation) {
-    updateChars(annotation.getTypeName());
-    IBinaryElementValuePair[] pairs = annotation.getElementValuePairs();
-    for (int j = 0; j < pairs.length; j++) {
-      updateChars(pairs[j].getName());
-      final Object value = pairs[j].getValue();
-      if (value instanceof Object[]) {
-        Object[] values = (Object[]) value;
-        for (int n = 0; n < values.length; n++) {
-          updateAnnotationValue(values[n]);
+  /**
+   * Returns tagbits of enum constants in {@code value} element of the annotation.
+   */
+  private long enumTagBits(int annotation, byte[][] names, long[] tagBits) throws ClassFormatException {
+    long result = 0;
+    for (int i = 0, count = u2(annotation + 2), pair = annotation + 4; i < count; i++) {
+      int value = pair + 2;
+      int tag = u1(value);
+      if (tag == 'e') {
+        result |= enumConstantTagBits(u2(value + 3), names, tagBits);
+      } else if (tag == '[') {
+        for (int j = 0, length = u2(value + 1), element = value + 3; j < length; j++, element = skipElementValue(element)) {
+          if (u1(element) == 'e') {
+            result |= enumConstantTagBits(u2(element + 3), names, tagBits);
+          }
         }
-      } else {
-        updateAnnotationValue(value);
+      }
+      pair = skipElementValue(value);
+    }
+    return result;
+  }
+
+  private long enumConstantTagBits(int constName, byte[][] names, long[] tagBits) {
+    for (int i = 0; i < names.length; i++) {
+      if (utf8Equals(constName, names[i])) {
+        return tagBits[i];
       }
     }
+    return 0;
   }
 
-  private void updateAnnotationValue(Object object) {
-    // @see org.eclipse.jdt.internal.compiler.env.IBinaryElementValuePair.getValue()
-    // @see org.eclipse.jdt.internal.compiler.classfmt.AnnotationInfo.decodeDefaultValue()
-    if (object instanceof ClassSignature) {
-      updateChars(((ClassSignature) object).getTypeName());
-    } else if (object instanceof Constant) {
-      updateConstant((Constant) object);
-    } else if (object instanceof EnumConstantSignature) {
-      updateChars(((EnumConstantSignature) object).getTypeName());
-      updateChars(((EnumConstantSignature) object).getEnumConstantName());
-    } else if (object instanceof IBinaryAnnotation) {
-      updateAnnotation((IBinaryAnnotation) object);
-    } else {
-      throw new IllegalArgumentException("Unsupported annotation value " + object.toString());
+  private int putAnnotation(int annotation) throws ClassFormatException {
+    putUtf8(u2(annotation)); // type name
+    int pairs = u2(annotation + 2);
+    putInt(pairs);
+    int offset = annotation + 4;
+    for (int i = 0; i < pairs; i++) {
+      putUtf8(u2(offset)); // element name
+      offset = putElementValue(offset + 2);
     }
+    return offset;
   }
 
-  private void updateTypeAnnotations(IBinaryTypeAnnotation[] typeAnnotations) {
-    if (typeAnnotations != null) {
-      for (IBinaryTypeAnnotation typeAnnotation : typeAnnotations) {
-        if (!affectsSignature(typeAnnotation)) {
-          continue;
+  private int putElementValue(int value) throws ClassFormatException {
+    int tag = u1(value);
+    putByte(tag);
+    switch (tag) {
+      case 'B':
+      case 'C':
+      case 'D':
+      case 'F':
+      case 'I':
+      case 'J':
+      case 'S':
+      case 'Z':
+      case 's':
+        putConstant(u2(value + 1));
+        return value + 3;
+      case 'e':
+        putUtf8(u2(value + 1)); // type name
+        putUtf8(u2(value + 3)); // const name
+        return value + 5;
+      case 'c':
+        putUtf8(u2(value + 1));
+        return value + 3;
+      case '@':
+        return putAnnotation(value + 1);
+      case '[':
+        int length = u2(value + 1);
+        putInt(length);
+        int offset = value + 3;
+        for (int i = 0; i < length; i++) {
+          offset = putElementValue(offset);
+        }
+        return offset;
+      default:
+        throw new ClassFormatException(ClassFormatException.ErrMalformedAttribute);
+    }
+  }
+
+  private int skipAnnotation(int annotation) throws ClassFormatException {
+    int offset = annotation + 4;
+    for (int i = 0, pairs = u2(annotation + 2); i < pairs; i++) {
+      offset = skipElementValue(offset + 2);
+    }
+    return offset;
+  }
+
+  private int skipElementValue(int value) throws ClassFormatException {
+    switch (u1(value)) {
+      case 'B':
+      case 'C':
+      case 'D':
+      case 'F':
+      case 'I':
+      case 'J':
+      case 'S':
+      case 'Z':
+      case 's':
+      case 'c':
+        return value + 3;
+      case 'e':
+        return value + 5;
+      case '@':
+        return skipAnnotation(value + 1);
+      case '[':
+        int offset = value + 3;
+        for (int i = 0, length = u2(value + 1); i < length; i++) {
+          offset = skipElementValue(offset);
+        }
+        return offset;
+      default:
+        throw new ClassFormatException(ClassFormatException.ErrMalformedAttribute);
+    }
+  }
+
+  private void putTypeAnnotations(int attributes) throws ClassFormatException {
+    for (int i = 0, count = u2(attributes), attribute = attributes + 2; i < count; i++, attribute = nextAttribute(attribute)) {
+      int name = u2(attribute);
+      if (utf8Equals(name, ATTR_RuntimeVisibleTypeAnnotations) || utf8Equals(name, ATTR_RuntimeInvisibleTypeAnnotations)) {
+        for (int a = 0, annotationsCount = u2(attribute + 6), annotation = attribute + 8; a < annotationsCount; a++) {
+          int targetType = u1(annotation);
+          int offset = skipTargetInfo(annotation + 1, targetType);
+          offset += 1 + 2 * u1(offset); // type_path
+          if (targetType >= AnnotationTargetTypeConstants.LOCAL_VARIABLE && targetType <= AnnotationTargetTypeConstants.METHOD_REFERENCE_TYPE_ARGUMENT) {
+            annotation = skipAnnotation(offset); // affects detail within a block
+          } else {
+            annotation = putAnnotation(offset);
+          }
         }
-        updateAnnotation(typeAnnotation.getAnnotation());
       }
     }
   }
 
-  private boolean affectsSignature(IBinaryTypeAnnotation typeAnnotation) {
-    int targetType = typeAnnotation.getTargetType();
-    if (targetType >= AnnotationTargetTypeConstants.LOCAL_VARIABLE && targetType <= AnnotationTargetTypeConstants.METHOD_REFERENCE_TYPE_ARGUMENT) {
-      return false; // affects detail within a block
+  private int skipTargetInfo(int offset, int targetType) throws ClassFormatException {
+    switch (targetType) {
+      case AnnotationTargetTypeConstants.CLASS_TYPE_PARAMETER:
+      case AnnotationTargetTypeConstants.METHOD_TYPE_PARAMETER:
+      case AnnotationTargetTypeConstants.METHOD_FORMAL_PARAMETER:
+        return offset + 1;
+      case AnnotationTargetTypeConstants.CLASS_EXTENDS:
+      case AnnotationTargetTypeConstants.THROWS:
+      case AnnotationTargetTypeConstants.EXCEPTION_PARAMETER:
+      case AnnotationTargetTypeConstants.INSTANCEOF:
+      case AnnotationTargetTypeConstants.NEW:
+      case AnnotationTargetTypeConstants.CONSTRUCTOR_REFERENCE:
+      case AnnotationTargetTypeConstants.METHOD_REFERENCE:
+      case AnnotationTargetTypeConstants.CLASS_TYPE_PARAMETER_BOUND:
+      case AnnotationTargetTypeConstants.METHOD_TYPE_PARAMETER_BOUND:
+        return offset + 2;
+      case AnnotationTargetTypeConstants.FIELD:
+      case AnnotationTargetTypeConstants.METHOD_RETURN:
+      case AnnotationTargetTypeConstants.METHOD_RECEIVER:
+        return offset;
+      case AnnotationTargetTypeConstants.LOCAL_VARIABLE:
+      case AnnotationTargetTypeConstants.RESOURCE_VARIABLE:
+        return offset + 2 + 6 * u2(offset);
+      case AnnotationTargetTypeConstants.CAST:
+      case AnnotationTargetTypeConstants.CONSTRUCTOR_INVOCATION_TYPE_ARGUMENT:
+      case AnnotationTargetTypeConstants.METHOD_INVOCATION_TYPE_ARGUMENT:
+      case AnnotationTargetTypeConstants.CONSTRUCTOR_REFERENCE_TYPE_ARGUMENT:
+      case AnnotationTargetTypeConstants.METHOD_REFERENCE_TYPE_ARGUMENT:
+        return offset + 3;
+      default:
+        throw new ClassFormatException(ClassFormatException.ErrMalformedAttribute);
     }
-    return true;
   }
 
   //
-  // TODO move to a general purpose digester?
+  // class file structure
   //
 
-  private void updateLong(long value) {
-    byte[] tmp = new byte[8];
-    tmp[0] = (byte) ((value >> 0x00) & 0xFF);
-    tmp[1] = (byte) ((value >> 0x08) & 0xFF);
-    tmp[2] = (byte) ((value >> 0x10) & 0xFF);
-    tmp[3] = (byte) ((value >> 0x18) & 0xFF);
-    tmp[4] = (byte) ((value >> 0x20) & 0xFF);
-    tmp[5] = (byte) ((value >> 0x28) & 0xFF);
-    tmp[6] = (byte) ((value >> 0x30) & 0xFF);
-    tmp[7] = (byte) ((value >> 0x38) & 0xFF);
-    digester.update(tmp);
-  }
-
-  private void updateInt(int value) {
-    byte[] tmp = new byte[4];
-    tmp[0] = (byte) ((value >> 0x00) & 0xFF);
-    tmp[1] = (byte) ((value >> 0x08) & 0xFF);
-    tmp[2] = (byte) ((value >> 0x10) & 0xFF);
-    tmp[3] = (byte) ((value >> 0x18) & 0xFF);
-    digester.update(tmp);
-  }
-
-  private void updateShort(short value) {
-    byte[] tmp = new byte[2];
-    tmp[0] = (byte) ((value >> 0x00) & 0xFF);
-    tmp[1] = (byte) ((value >> 0x08) & 0xFF);
-    digester.update(tmp);
-  }
-
-  private void updateChars(char[] value) {
-    if (value != null) {
-      for (int i = 0; i < value.length; i++) {
-        updateChar(value[i]);
+  /**
+   * Records offsets of constant pool entries, returns offset of the first byte after the constant pool.
+   */
+  private int readConstantPool() throws ClassFormatException {
+    int count = u2(8);
+    if (constantPool.length < count) {
+      constantPool = new int[Math.max(count, constantPool.length * 2)];
+    }
+    int offset = 10;
+    for (int i = 1; i < count; i++) {
+      constantPool[i] = offset;
+      switch (u1(offset)) {
+        case CONSTANT_Utf8:
+          offset += 3 + u2(offset + 1);
+          break;
+        case CONSTANT_Class:
+        case CONSTANT_String:
+        case CONSTANT_MethodType:
+        case CONSTANT_Module:
+        case CONSTANT_Package:
+          offset += 3;
+          break;
+        case CONSTANT_MethodHandle:
+          offset += 4;
+          break;
+        case CONSTANT_Integer:
+        case CONSTANT_Float:
+        case CONSTANT_Fieldref:
+        case CONSTANT_Methodref:
+        case CONSTANT_InterfaceMethodref:
+        case CONSTANT_NameAndType:
+        case CONSTANT_Dynamic:
+        case CONSTANT_InvokeDynamic:
+          offset += 5;
+          break;
+        case CONSTANT_Long:
+        case CONSTANT_Double:
+          offset += 9;
+          i++; // takes two constant pool slots
+          break;
+        default:
+          throw new ClassFormatException(ClassFormatException.ErrUnknownConstantTag);
       }
     }
+    return offset;
+  }
+
+  private int skipMembers(int members) {
+    int offset = members + 2;
+    for (int i = 0, count = u2(members); i < count; i++) {
+      offset = skipAttributes(offset + 6);
+    }
+    return offset;
+  }
+
+  private int skipAttributes(int attributes) {
+    int offset = attributes + 2;
+    for (int i = 0, count = u2(attributes); i < count; i++) {
+      offset = nextAttribute(offset);
+    }
+    return offset;
   }
 
-  private void updateString(String value) {
-    digester.update(value.getBytes(Charsets.UTF_8));
+  private int nextAttribute(int attribute) {
+    return attribute + 6 + u4(attribute + 2);
   }
 
-  private void updateDouble(double value) {
-    updateLong(Double.doubleToRawLongBits(value));
+  private int u1(int offset) {
+    return bytes[offset] & 0xFF;
   }
 
-  private void updateFloat(float value) {
-    updateInt(Float.floatToRawIntBits(value));
+  private int u2(int offset) {
+    return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
   }
 
-  private void updateChar(char value) {
-    updateInt(value);
+  private int u4(int offset) {
+    return (u2(offset) << 16) | u2(offset + 2);
   }
 
-  private void updateByte(byte value) {
-    digester.update(value);
+  private int utf8Length(int index) {
+    return u2(constantPool[index] + 1);
   }
 
-  private void updateBoolean(boolean value) {
-    digester.update(value ? (byte) 1 : (byte) 0);
+  private boolean utf8Equals(int index, byte[] expected) {
+    int offset = constantPool[index];
+    if (u2(offset + 1) != expected.length) {
+      return false;
+    }
+    offset += 3;
+    for (int i = 0; i < expected.length; i++) {
+      if (bytes[offset + i] != expected[i]) {
+        return false;
+      }
+    }
+    return true;
   }
 
+  //
+  // scratch buffer
+  //
+
+  private void ensureCapacity(int size) {
+    if (length + size > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(length + size, buffer.length * 2));
+    }
+  }
+
+  private void putByte(int value) {
+    ensureCapacity(1);
+    buffer[length++] = (byte) value;
+  }
+
+  private void putInt(int value) {
+    ensureCapacity(4);
+    buffer[length++] = (byte) (value >>> 24);
+    buffer[length++] = (byte) (value >>> 16);
+    buffer[length++] = (byte) (value >>> 8);
+    buffer[length++] = (byte) value;
+  }
+
+  private void putLong(long value) {
+    putInt((int) (value >>> 32));
+    putInt((int) value);
+  }
+
+  private void putBytes(int offset, int size) {
+    ensureCapacity(size);
+    System.arraycopy(bytes, offset, buffer, length, size);
+    length += size;
+  }
+
+  /**
+   * Digests length-prefixed modified UTF-8 bytes of the constant pool entry, or {@code -1} if {@code index} is {@code 0}.
+   */
+  private void putUtf8(int index) {
+    if (index == 0) {
+      putInt(-1);
+      return;
+    }
+    int offset = constantPool[index];
+    int size = u2(offset + 1);
+    putInt(size);
+    putBytes(offset + 3, size);
+  }
+
+  private void putClass(int index) {
+    putUtf8(index != 0 ? u2(constantPool[index] + 1) : 0);
+  }
+
+  private void putConstant(int index) throws ClassFormatException {
+    int offset = constantPool[index];
+    int tag = u1(offset);
+    putByte(tag);
+    switch (tag) {
+      case CONSTANT_Integer:
+      case CONSTANT_Float:
+        putBytes(offset + 1, 4);
+        break;
+      case CONSTANT_Long:
+      case CONSTANT_Double:
+        putBytes(offset + 1, 8);
+        break;
+      case CONSTANT_Utf8:
+        putUtf8(index);
+        break;
+      case CONSTANT_String:
+        putUtf8(u2(offset + 1));
+        break;
+      default:
+        throw new ClassFormatException(ClassFormatException.ErrBadConstantPoolIndex);
+    }
+  }
+
+  private static byte[] ascii(String string) {
+    return string.getBytes(Charsets.US_ASCII);
+  }
 }
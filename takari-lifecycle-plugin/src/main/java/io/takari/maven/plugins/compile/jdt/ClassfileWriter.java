@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2014 Takari, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package io.takari.maven.plugins.compile.jdt;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.takari.incrementalbuild.Output;
+
+/**
+ * Digests and writes generated class files on background threads.
+ * <p>
+ * The number of pending class files is bounded, the compiler thread digests and writes class files itself when all writer threads are busy and the queue is full. Build context is not thread safe
+ * and is not accessed by the writer threads. Instead, class file digests are collected and handed back to the compiler thread by {@link #drain(Callback)}.
+ */
+class ClassfileWriter implements Closeable {
+
+  private static final int QUEUE_SIZE = 64;
+
+  private static final ThreadLocal<ClassfileDigester> DIGESTER = ThreadLocal.withInitial(ClassfileDigester::new);
+
+  public static interface Callback {
+    /**
+     * Called on the compiler thread for each written class file. {@code hash} is {@code null} if the class file could not be digested.
+     */
+    void accept(Output<File> output, String type, byte[] hash);
+  }
+
+  private static class Digest {
+    final Output<File> output;
+    final String type;
+    final byte[] hash;
+
+    Digest(Output<File> output, String type, byte[] hash) {
+      this.output = output;
+      this.type = type;
+      this.hash = hash;
+    }
+  }
+
+  private final ThreadPoolExecutor executor;
+
+  private final List<Future<?>> pending = new ArrayList<>();
+
+  private final ConcurrentLinkedQueue<Digest> digests = new ConcurrentLinkedQueue<>();
+
+  public ClassfileWriter(int threads) {
+    this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, //
+        new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), //
+        new ThreadFactoryBuilder().setNameFormat("jdt-classfile-writer-%d").setDaemon(true).build(), //
+        new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  public void write(Output<File> output, String type, byte[] bytes) {
+    pending.add(executor.submit(() -> {
+      digests.add(new Digest(output, type, digest(bytes)));
+      try (BufferedOutputStream os = new BufferedOutputStream(output.newOutputStream())) {
+        os.write(bytes);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }));
+  }
+
+  private static byte[] digest(byte[] bytes) {
+    try {
+      return DIGESTER.get().digest(bytes);
+    } catch (ClassFormatException e) {
+      return null; // ignore this class
+    }
+  }
+
+  /**
+   * Passes digests of class files written so far to the callback.
+   */
+  public void drain(Callback callback) {
+    Digest digest;
+    while ((digest = digests.poll()) != null) {
+      callback.accept(digest.output, digest.type, digest.hash);
+    }
+  }
+
+  /**
+   * Waits for all pending class files to be written, then passes their digests to the callback.
+   */
+  public void flush(Callback callback) throws IOException {
+    try {
+      for (Future<?> future : pending) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof UncheckedIOException) {
+            throw ((UncheckedIOException) e.getCause()).getCause();
+          }
+          throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while writing class files", e);
+        }
+      }
+    } finally {
+      pending.clear();
+    }
+    drain(callback);
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+}
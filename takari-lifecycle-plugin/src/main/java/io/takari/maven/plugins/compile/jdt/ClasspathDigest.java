@@ -0,0 +1,341 @@
+/**
+ * Copyright (c) 2014 Takari, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package io.takari.maven.plugins.compile.jdt;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Type digests of all classpath entries of a project.
+ * <p>
+ * Digests of individual classpath entries are stored as immutable {@link Segment}s, which are shared among all projects that have the entry on their classpath. The project view is an ordered
+ * composition of segments, types defined by earlier segments hide same-named types defined by later segments.
+ * <p>
+ * Each segment has aggregate hash of all its types and their digests. Segments with the same classpath entry and the same aggregate hash are considered unchanged, which allows
+ * {@link #diff(ClasspathDigest, Consumer)} to only look at types of the classpath entries that changed.
+ */
+public class ClasspathDigest implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final Interner<String> NAMES = Interners.newWeakInterner();
+
+  /**
+   * Type digests of a single classpath entry, stored in columnar form: sorted type names and one contiguous array of type digests.
+   */
+  public static class Segment implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final Segment EMPTY = create(new HashMap<String, byte[]>());
+
+    /**
+     * Sorted type names.
+     */
+    final String[] types;
+
+    /**
+     * Sorted names of packages that have at least one type.
+     */
+    final String[] packages;
+
+    /**
+     * Digest of {@code types[i]} is stored in {@code digests[offsets[i]..offsets[i+1]]}.
+     */
+    final int[] offsets;
+
+    final byte[] digests;
+
+    /**
+     * Aggregate hash of all type names and digests.
+     */
+    final byte[] hash;
+
+    private Segment(String[] types, String[] packages, int[] offsets, byte[] digests) {
+      this.types = types;
+      this.packages = packages;
+      this.offsets = offsets;
+      this.digests = digests;
+
+      Hasher hasher = Hashing.murmur3_128().newHasher();
+      for (int i = 0; i < types.length; i++) {
+        hasher.putString(types[i], Charsets.UTF_8);
+        hasher.putInt(offsets[i + 1] - offsets[i]);
+        hasher.putBytes(digests, offsets[i], offsets[i + 1] - offsets[i]);
+      }
+      this.hash = hasher.hash().asBytes();
+    }
+
+    public static Segment create(Map<String, byte[]> digest) {
+      String[] types = new String[digest.size()];
+      int size = 0, i = 0;
+      for (Map.Entry<String, byte[]> entry : digest.entrySet()) {
+        types[i++] = NAMES.intern(entry.getKey());
+        size += entry.getValue().length;
+      }
+      Arrays.sort(types);
+      TreeSet<String> packages = new TreeSet<>();
+      int[] offsets = new int[types.length + 1];
+      byte[] digests = new byte[size];
+      for (i = 0; i < types.length; i++) {
+        byte[] hash = digest.get(types[i]);
+        System.arraycopy(hash, 0, digests, offsets[i], hash.length);
+        offsets[i + 1] = offsets[i] + hash.length;
+        String pkg = getPackage(types[i]);
+        if (pkg != null) {
+          packages.add(pkg);
+        }
+      }
+      String[] packageArray = new String[packages.size()];
+      i = 0;
+      for (String pkg : packages) {
+        packageArray[i++] = NAMES.intern(pkg);
+      }
+      return new Segment(types, packageArray, offsets, digests);
+    }
+
+    public int size() {
+      return types.length;
+    }
+
+    /**
+     * Returns sorted type names.
+     */
+    public List<String> getTypes() {
+      return Collections.unmodifiableList(Arrays.asList(types));
+    }
+
+    public boolean containsPackage(String pkg) {
+      return Arrays.binarySearch(packages, pkg) >= 0;
+    }
+
+    int indexOf(String type) {
+      return Arrays.binarySearch(types, type);
+    }
+
+    boolean digestEquals(int index, Segment other, int otherIndex) {
+      int length = offsets[index + 1] - offsets[index];
+      if (length != other.offsets[otherIndex + 1] - other.offsets[otherIndex]) {
+        return false;
+      }
+      for (int i = 0, offset = offsets[index], otherOffset = other.offsets[otherIndex]; i < length; i++) {
+        if (digests[offset + i] != other.digests[otherOffset + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Classpath entries, parallel to {@link #segments}.
+   */
+  private final File[] files;
+
+  private final Segment[] segments;
+
+  public ClasspathDigest(List<File> files, List<Segment> segments) {
+    if (files.size() != segments.size()) {
+      throw new IllegalArgumentException();
+    }
+    this.files = files.toArray(new File[files.size()]);
+    this.segments = segments.toArray(new Segment[segments.size()]);
+  }
+
+  private boolean isSame(int index, ClasspathDigest other, int otherIndex) {
+    return files[index].equals(other.files[otherIndex]) && Arrays.equals(segments[index].hash, other.segments[otherIndex].hash);
+  }
+
+  public boolean containsPackage(String pkg) {
+    for (Segment segment : segments) {
+      if (segment.containsPackage(pkg)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns total number of types in all segments, including hidden types.
+   */
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  /**
+   * Iterates visible types of the classpath in name order by merging sorted segments.
+   */
+  private static class Cursor {
+
+    private static class Position {
+      final Segment segment;
+      final int order;
+      int index;
+
+      Position(Segment segment, int order) {
+        this.segment = segment;
+        this.order = order;
+      }
+
+      String type() {
+        return segment.types[index];
+      }
+    }
+
+    private final PriorityQueue<Position> queue;
+
+    Segment segment;
+
+    int index;
+
+    Cursor(Segment[] segments) {
+      queue = new PriorityQueue<>(Math.max(1, segments.length), (a, b) -> {
+        int result = a.type().compareTo(b.type());
+        return result != 0 ? result : Integer.compare(a.order, b.order);
+      });
+      for (int i = 0; i < segments.length; i++) {
+        if (segments[i].size() > 0) {
+          queue.add(new Position(segments[i], i));
+        }
+      }
+    }
+
+    /**
+     * Advances to the next visible type, returns {@code null} when there are no more types.
+     */
+    String next() {
+      Position position = queue.poll();
+      if (position == null) {
+        segment = null;
+        return null;
+      }
+      segment = position.segment;
+      index = position.index;
+      String type = position.type();
+      advance(position);
+      // skip same-named types hidden by this one
+      while (!queue.isEmpty() && queue.peek().type().equals(type)) {
+        advance(queue.poll());
+      }
+      return type;
+    }
+
+    private void advance(Position position) {
+      if (++position.index < position.segment.size()) {
+        queue.add(position);
+      }
+    }
+  }
+
+  /**
+   * Passes names of types that were added, removed or have different digests compared to {@code oldDigest} to the consumer, in name order.
+   */
+  public void diff(ClasspathDigest oldDigest, Consumer<String> changed) {
+    // match unchanged segments, assuming classpath entries are not duplicated
+    List<Integer> matched = new ArrayList<>();
+    List<Integer> oldMatched = new ArrayList<>();
+    boolean[] unchanged = new boolean[segments.length];
+    boolean[] oldUnchanged = new boolean[oldDigest.segments.length];
+    for (int i = 0; i < segments.length; i++) {
+      for (int j = 0; j < oldDigest.segments.length; j++) {
+        if (!oldUnchanged[j] && isSame(i, oldDigest, j)) {
+          unchanged[i] = oldUnchanged[j] = true;
+          matched.add(i);
+          oldMatched.add(j);
+          break;
+        }
+      }
+    }
+    if (matched.size() == segments.length && matched.size() == oldDigest.segments.length && matched.equals(oldMatched)) {
+      return; // nothing changed
+    }
+    List<Integer> sorted = new ArrayList<>(oldMatched);
+    sorted.sort(null);
+    if (!sorted.equals(oldMatched)) {
+      // unchanged entries were reordered, which can change what types they hide
+      diffAll(oldDigest, changed);
+      return;
+    }
+
+    // a type can only change if it is defined by at least one changed entry
+    TreeSet<String> candidates = new TreeSet<>();
+    for (int i = 0; i < segments.length; i++) {
+      if (!unchanged[i]) {
+        candidates.addAll(Arrays.asList(segments[i].types));
+      }
+    }
+    for (int j = 0; j < oldDigest.segments.length; j++) {
+      if (!oldUnchanged[j]) {
+        candidates.addAll(Arrays.asList(oldDigest.segments[j].types));
+      }
+    }
+    for (String type : candidates) {
+      if (!digestEquals(type, oldDigest)) {
+        changed.accept(type);
+      }
+    }
+  }
+
+  private boolean digestEquals(String type, ClasspathDigest oldDigest) {
+    int segment = 0, index = -1;
+    for (; segment < segments.length && (index = segments[segment].indexOf(type)) < 0; segment++);
+    int oldSegment = 0, oldIndex = -1;
+    for (; oldSegment < oldDigest.segments.length && (oldIndex = oldDigest.segments[oldSegment].indexOf(type)) < 0; oldSegment++);
+    if (index < 0 || oldIndex < 0) {
+      return index < 0 && oldIndex < 0;
+    }
+    return segments[segment].digestEquals(index, oldDigest.segments[oldSegment], oldIndex);
+  }
+
+  private void diffAll(ClasspathDigest oldDigest, Consumer<String> changed) {
+    Cursor cursor = new Cursor(segments);
+    Cursor oldCursor = new Cursor(oldDigest.segments);
+    String type = cursor.next();
+    String oldType = oldCursor.next();
+    while (type != null || oldType != null) {
+      int compare = type == null ? 1 : oldType == null ? -1 : type.compareTo(oldType);
+      if (compare < 0) {
+        changed.accept(type);
+        type = cursor.next();
+      } else if (compare > 0) {
+        changed.accept(oldType);
+        oldType = oldCursor.next();
+      } else {
+        if (!cursor.segment.digestEquals(cursor.index, oldCursor.segment, oldCursor.index)) {
+          changed.accept(type);
+        }
+        type = cursor.next();
+        oldType = oldCursor.next();
+      }
+    }
+  }
+
+  static String getPackage(String type) {
+    int idx = type.lastIndexOf('.');
+    return idx > 0 ? type.substring(0, idx) : null;
+  }
+}
@@ -13,11 +13,16 @@ import static org.eclipse.jdt.internal.compiler.util.SuffixConstants.SUFFIX_STRI
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -29,17 +34,22 @@ import org.apache.maven.execution.MavenSession;
 import org.apache.maven.execution.scope.MojoExecutionScoped;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.util.DirectoryScanner;
-import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
 import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.hash.Funnels;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import io.takari.maven.plugins.compile.ReactorOutputRegistry;
 
 @Named
 @MojoExecutionScoped
@@ -47,108 +57,186 @@ public class ClasspathDigester {
 
   private final Logger log = LoggerFactory.getLogger(getClass());
 
-  private static final Map<File, Map<String, byte[]>> CACHE = new ConcurrentHashMap<File, Map<String, byte[]>>();
+  /**
+   * Maximum number of classpath entries digested concurrently. Digesting is mostly I/O, which does not belong to {@link java.util.concurrent.ForkJoinPool#commonPool()}.
+   */
+  private static final int DIGEST_THREADS = 4;
 
-  private final ClassfileDigester digester;
+  /**
+   * Per-jar/directory type digests. Each classpath entry is digested at most once, concurrent requests for the same entry wait for the first one to complete.
+   */
+  private static final Cache<File, ClasspathDigest.Segment> CACHE = CacheBuilder.newBuilder().build();
 
-  @Inject
-  public ClasspathDigester(MavenProject project, MavenSession session, ClassfileDigester digester) {
-    this.digester = digester;
+  private final ReactorOutputRegistry reactorOutputs;
 
+  @Inject
+  public ClasspathDigester(MavenProject project, MavenSession session, ReactorOutputRegistry reactorOutputs) {
+    this.reactorOutputs = reactorOutputs;
     // this is only needed for unit tests, but won't hurt in general
-    CACHE.remove(new File(project.getBuild().getOutputDirectory()));
-    CACHE.remove(new File(project.getBuild().getTestOutputDirectory()));
+    CACHE.invalidate(new File(project.getBuild().getOutputDirectory()));
+    CACHE.invalidate(new File(project.getBuild().getTestOutputDirectory()));
   }
 
-  public HashMap<String, byte[]> digestDependencies(List<File> dependencies) throws IOException {
+  public ClasspathDigest digestDependencies(List<File> dependencies) throws IOException {
     Stopwatch stopwatch = Stopwatch.createStarted();
 
-    HashMap<String, byte[]> digest = new HashMap<String, byte[]>();
-
-    // scan dependencies backwards to properly deal with duplicate type definitions
-    for (int i = dependencies.size() - 1; i >= 0; i--) {
-      File file = dependencies.get(i);
-      if (file.isFile()) {
-        digest.putAll(digestJar(file));
-      } else if (file.isDirectory()) {
-        digest.putAll(digestDirectory(file));
-      } else {
-        // happens with reactor dependencies with empty source folders
-        continue;
+    // dependencies are digested in parallel, but the results are composed in classpath order below
+    int threads = Math.max(1, Math.min(dependencies.size(), Math.min(DIGEST_THREADS, Runtime.getRuntime().availableProcessors())));
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, //
+        new LinkedBlockingQueue<Runnable>(), //
+        new ThreadFactoryBuilder().setNameFormat("classpath-digester-%d").setDaemon(true).build());
+    List<ClasspathDigest.Segment> segments = new ArrayList<>();
+    try {
+      List<Future<ClasspathDigest.Segment>> tasks = new ArrayList<>();
+      for (File file : dependencies) {
+        tasks.add(executor.submit(() -> digest(file)));
+      }
+      for (Future<ClasspathDigest.Segment> task : tasks) {
+        segments.add(join(task));
       }
+    } finally {
+      executor.shutdownNow();
     }
+    ClasspathDigest digest = new ClasspathDigest(dependencies, segments);
 
     log.debug("Analyzed {} classpath dependencies ({} ms)", dependencies.size(), stopwatch.elapsed(TimeUnit.MILLISECONDS));
 
     return digest;
   }
 
-  private Map<String, byte[]> digestJar(final File file) throws IOException {
-    Map<String, byte[]> digest = CACHE.get(file);
-    if (digest == null) {
-      digest = new HashMap<String, byte[]>();
-      Map<String, byte[]> sourcesDigest = new HashMap<String, byte[]>();
-      JarFile jar = new JarFile(file);
-      try {
-        for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements();) {
-          JarEntry entry = entries.nextElement();
-          String path = entry.getName();
-          if (path.endsWith(SUFFIX_STRING_class)) {
-            String type = toJavaType(path, SUFFIX_STRING_class);
-            try {
-              digest.put(type, digester.digest(ClassFileReader.read(jar, path)));
-            } catch (ClassFormatException e) {
-              // as far as jdt is concerned, the type does not exist
-            }
-          } else if (path.endsWith(SUFFIX_STRING_java)) {
-            String type = toJavaType(path, SUFFIX_STRING_java);
-            Hasher hasher = Hashing.sha1().newHasher();
-            try (InputStream in = jar.getInputStream(entry)) {
-              ByteStreams.copy(in, Funnels.asOutputStream(hasher));
-            }
-            sourcesDigest.put(type, hasher.hash().asBytes());
-          }
-        }
-      } finally {
-        jar.close();
+  private static ClasspathDigest.Segment join(Future<ClasspathDigest.Segment> task) throws IOException {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) cause).getCause();
       }
-      mergeAll(digest, sourcesDigest);
-      CACHE.put(file, digest);
+      throw new IOException(cause);
     }
+  }
 
-    return digest;
+  private ClasspathDigest.Segment digest(File file) {
+    ReactorOutputRegistry.ClassesDirectory published = reactorOutputs.get(file);
+    if (published != null) {
+      return published.getTypeDigests();
+    }
+    try {
+      if (file.isFile()) {
+        return CACHE.get(file, () -> digestJar(file));
+      } else if (file.isDirectory()) {
+        return CACHE.get(file, () -> digestDirectory(file));
+      }
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw new UncheckedIOException((IOException) cause);
+      }
+      throw new IllegalStateException("Could not digest classpath entry " + file, cause);
+    }
+    // happens with reactor dependencies with empty source folders
+    return ClasspathDigest.Segment.EMPTY;
   }
 
-  private Map<String, byte[]> digestDirectory(final File directory) throws IOException {
-    Map<String, byte[]> digest = CACHE.get(directory);
-    if (digest == null) {
-      digest = new HashMap<String, byte[]>();
-      Map<String, byte[]> sourcesDigest = new HashMap<String, byte[]>();
-      DirectoryScanner scanner = new DirectoryScanner();
-      scanner.setBasedir(directory);
-      scanner.setIncludes(new String[] {"**/*" + SUFFIX_STRING_class, "**/*" + SUFFIX_STRING_java});
-      scanner.scan();
-      for (String path : scanner.getIncludedFiles()) {
+  private static ClasspathDigest.Segment digestJar(final File file) throws IOException {
+    ClassfileDigester digester = new ClassfileDigester();
+    Map<String, byte[]> digest = new HashMap<String, byte[]>();
+    Map<String, byte[]> sourcesDigest = new HashMap<String, byte[]>();
+    JarFile jar = new JarFile(file);
+    try {
+      List<JarEntry> classfiles = new ArrayList<>();
+      for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements();) {
+        JarEntry entry = entries.nextElement();
+        String path = entry.getName();
         if (path.endsWith(SUFFIX_STRING_class)) {
-          String type = toJavaType(path, SUFFIX_STRING_class);
+          classfiles.add(entry);
+        } else if (path.endsWith(SUFFIX_STRING_java)) {
+          String type = toJavaType(path, SUFFIX_STRING_java);
+          Hasher hasher = Hashing.sha1().newHasher();
+          try (InputStream in = jar.getInputStream(entry)) {
+            ByteStreams.copy(in, Funnels.asOutputStream(hasher));
+          }
+          sourcesDigest.put(type, hasher.hash().asBytes());
+        }
+      }
+      AbiManifest manifest = readManifest(jar);
+      if (manifest != null && manifest.matches(classfiles)) {
+        digest.putAll(manifest.getTypeDigests());
+      } else {
+        for (JarEntry entry : classfiles) {
+          String type = toJavaType(entry.getName(), SUFFIX_STRING_class);
           try {
-            digest.put(type, digester.digest(ClassFileReader.read(new File(directory, path))));
+            digest.put(type, digester.digest(readClassfile(jar, entry)));
           } catch (ClassFormatException e) {
             // as far as jdt is concerned, the type does not exist
           }
-        } else {
-          String type = toJavaType(path, SUFFIX_STRING_java);
-          sourcesDigest.put(type, Files.hash(new File(directory, path), Hashing.sha1()).asBytes());
         }
       }
-      mergeAll(digest, sourcesDigest);
-      CACHE.put(directory, digest);
+    } finally {
+      jar.close();
     }
+    mergeAll(digest, sourcesDigest);
 
-    return digest;
+    return ClasspathDigest.Segment.create(digest);
+  }
+
+  private static ClasspathDigest.Segment digestDirectory(final File directory) throws IOException {
+    ClassfileDigester digester = new ClassfileDigester();
+    Map<String, byte[]> digest = new HashMap<String, byte[]>();
+    Map<String, byte[]> sourcesDigest = new HashMap<String, byte[]>();
+    DirectoryScanner scanner = new DirectoryScanner();
+    scanner.setBasedir(directory);
+    scanner.setIncludes(new String[] {"**/*" + SUFFIX_STRING_class, "**/*" + SUFFIX_STRING_java});
+    scanner.scan();
+    List<String> classfiles = new ArrayList<>();
+    for (String path : scanner.getIncludedFiles()) {
+      if (path.endsWith(SUFFIX_STRING_class)) {
+        classfiles.add(path);
+      } else {
+        String type = toJavaType(path, SUFFIX_STRING_java);
+        sourcesDigest.put(type, Files.hash(new File(directory, path), Hashing.sha1()).asBytes());
+      }
+    }
+    AbiManifest manifest = AbiManifest.read(directory);
+    if (manifest != null && manifest.isUptodate(directory, classfiles)) {
+      digest.putAll(manifest.getTypeDigests());
+    } else {
+      for (String path : classfiles) {
+        String type = toJavaType(path, SUFFIX_STRING_class);
+        try {
+          digest.put(type, digester.digest(Files.toByteArray(new File(directory, path))));
+        } catch (ClassFormatException e) {
+          // as far as jdt is concerned, the type does not exist
+        }
+      }
+    }
+    mergeAll(digest, sourcesDigest);
+
+    return ClasspathDigest.Segment.create(digest);
+  }
+
+  private static AbiManifest readManifest(JarFile jar) throws IOException {
+    JarEntry entry = jar.getJarEntry(AbiManifest.PATH);
+    if (entry == null) {
+      return null;
+    }
+    try (InputStream in = jar.getInputStream(entry)) {
+      return AbiManifest.read(in);
+    } catch (IOException e) {
+      return null; // silently ignore bad manifest files
+    }
+  }
+
+  private static byte[] readClassfile(JarFile jar, JarEntry entry) throws IOException {
+    try (InputStream in = jar.getInputStream(entry)) {
+      return ByteStreams.toByteArray(in);
+    }
   }
 
-  private void mergeAll(Map<String, byte[]> target, Map<String, byte[]> source) {
+  private static void mergeAll(Map<String, byte[]> target, Map<String, byte[]> source) {
     for (Map.Entry<String, byte[]> entry : source.entrySet()) {
       byte[] value = target.get(entry.getKey());
       if (value != null) {
@@ -169,6 +257,6 @@ public class ClasspathDigester {
   }
 
   public static void flush() {
-    CACHE.clear();
+    CACHE.invalidateAll();
   }
 }
@@ -10,26 +10,171 @@ package io.takari.maven.plugins.compile.jdt;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 import javax.inject.Named;
 
+import org.apache.maven.SessionScoped;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import io.takari.maven.plugins.compile.ReactorOutputRegistry.ClassesDirectory;
+import io.takari.maven.plugins.compile.jdt.classpath.BinaryTypeCache;
 import io.takari.maven.plugins.compile.jdt.classpath.ClasspathDirectory;
 import io.takari.maven.plugins.compile.jdt.classpath.ClasspathJar;
 import io.takari.maven.plugins.compile.jdt.classpath.DependencyClasspathEntry;
 import io.takari.maven.plugins.compile.jdt.classpath.SourcepathDirectory;
 
+/**
+ * Caches {@link DependencyClasspathEntry} instances across compiler executions and build sessions.
+ * <p>
+ * Each location is loaded at most once while lookups of other locations proceed concurrently. Cached entries are validated against the location's {@link Stamp} and are recreated if the jar or
+ * directory changed on disk. Jars are validated on each lookup. Directories are expensive to stamp and are validated on first lookup during each build session only, directories produced by the
+ * current session are resolved through {@code ReactorOutputRegistry} instead. The number of cached entries is limited by {@value #PROP_MAXSIZE} system property; evicted entries release their
+ * open file handles.
+ */
 @Named
+@SessionScoped
 public class ClasspathEntryCache {
 
+  /**
+   * System property that controls maximum number of cached classpath entries.
+   */
+  public static final String PROP_MAXSIZE = "takari.classpathEntryCache.maxSize";
+
+  private static final long DEFAULT_MAXSIZE = 2000;
+
+  private static final Logger log = LoggerFactory.getLogger(ClasspathEntryCache.class);
+
   private static interface Factory {
     DependencyClasspathEntry newClasspathEntry();
   }
 
-  private static final Map<File, DependencyClasspathEntry> CACHE = new HashMap<>();
+  /**
+   * Cached classpath entry and the state of the corresponding location at the time the entry was created. {@link #entry} is {@code null} for locations that cannot be used as classpath entries,
+   * i.e. non-zip files.
+   */
+  private static class CacheEntry {
+    final Stamp stamp;
+
+    final DependencyClasspathEntry entry;
+
+    CacheEntry(Stamp stamp, DependencyClasspathEntry entry) {
+      this.stamp = stamp;
+      this.entry = entry;
+    }
+  }
+
+  /**
+   * Captures the state of a classpath file or directory. For files, the stamp includes file key (inode on most unix filesystems), size and last modified timestamp. For directories, the stamp is
+   * calculated from the number and timestamps of all nested directories, which change whenever directory members are added, removed or renamed.
+   */
+  static final class Stamp {
+    private final Object fileKey;
+
+    private final long length;
+
+    private final long lastModified;
+
+    final boolean directory;
+
+    private Stamp(Object fileKey, long length, long lastModified, boolean directory) {
+      this.fileKey = fileKey;
+      this.length = length;
+      this.lastModified = lastModified;
+      this.directory = directory;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(fileKey, length, lastModified);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Stamp)) {
+        return false;
+      }
+      Stamp other = (Stamp) obj;
+      return Objects.equal(fileKey, other.fileKey) && length == other.length && lastModified == other.lastModified && directory == other.directory;
+    }
+
+    public static Stamp of(File location) {
+      BasicFileAttributes attributes;
+      try {
+        attributes = Files.readAttributes(location.toPath(), BasicFileAttributes.class);
+      } catch (IOException e) {
+        return new Stamp(null, -1, -1, false); // missing or inaccessible
+      }
+      if (!attributes.isDirectory()) {
+        return new Stamp(attributes.fileKey(), attributes.size(), attributes.lastModifiedTime().toMillis(), false);
+      }
+      long[] counts = new long[] {0, attributes.lastModifiedTime().toMillis()};
+      addDirectories(counts, location);
+      return new Stamp(attributes.fileKey(), counts[0], counts[1], true);
+    }
+
+    private static void addDirectories(long[] counts, File directory) {
+      File[] files = directory.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          if (file.isDirectory()) {
+            counts[0]++;
+            counts[1] = Math.max(counts[1], file.lastModified());
+            addDirectories(counts, file);
+          }
+        }
+      }
+    }
+  }
+
+  private static final Cache<File, CacheEntry> CACHE = newCache();
 
-  private static final Map<File, DependencyClasspathEntry> SOURCEPATH_CACHE = new HashMap<>();
+  private static final Cache<File, CacheEntry> SOURCEPATH_CACHE = newCache();
+
+  /**
+   * Entries of published classes directories, which are only valid as long as the directory remains published.
+   */
+  private static final Cache<ClassesDirectory, DependencyClasspathEntry> PUBLISHED_CACHE = CacheBuilder.newBuilder().weakKeys().build();
+
+  /**
+   * Directories validated during this build session.
+   */
+  private final Set<File> validatedDirectories = ConcurrentHashMap.newKeySet();
+
+  private static Cache<File, CacheEntry> newCache() {
+    return CacheBuilder.newBuilder() //
+        .maximumSize(Long.getLong(PROP_MAXSIZE, DEFAULT_MAXSIZE)) //
+        .removalListener(new RemovalListener<File, CacheEntry>() {
+          @Override
+          public void onRemoval(RemovalNotification<File, CacheEntry> notification) {
+            CacheEntry cached = notification.getValue();
+            if (cached != null && cached.entry != null) {
+              try {
+                cached.entry.close();
+              } catch (IOException e) {
+                log.debug("Could not close classpath entry {}", notification.getKey(), e);
+              }
+            }
+          }
+        }) //
+        .build();
+  }
 
   public DependencyClasspathEntry get(File location) {
     return get(CACHE, location, () -> {
@@ -38,7 +183,7 @@ public class ClasspathEntryCache {
         entry = ClasspathDirectory.create(location);
       } else if (location.isFile()) {
         try {
-          entry = ClasspathJar.create(location);
+          entry = ClasspathJar.create(location, isImmutable(location));
         } catch (IOException e) {
           // not a zip/jar, ignore
         }
@@ -47,21 +192,68 @@ public class ClasspathEntryCache {
     });
   }
 
+  /**
+   * Returns {@code true} if the jar file is part of the java installation or is a release artifact in a maven repository, i.e. {@code <artifactId>/<version>/<artifactId>-<version>*.jar}.
+   * Reactor project jars, snapshots and other jar files can be rewritten during the build.
+   */
+  static boolean isImmutable(File jar) {
+    jar = normalize(jar);
+    File javaHome = normalize(new File(System.getProperty("java.home")));
+    for (File parent = jar.getParentFile(); parent != null; parent = parent.getParentFile()) {
+      if (parent.equals(javaHome) || parent.equals(javaHome.getParentFile())) {
+        return true;
+      }
+    }
+    File versionDirectory = jar.getParentFile();
+    File artifactDirectory = versionDirectory != null ? versionDirectory.getParentFile() : null;
+    if (artifactDirectory == null) {
+      return false;
+    }
+    String version = versionDirectory.getName();
+    return !version.endsWith("-SNAPSHOT") && jar.getName().startsWith(artifactDirectory.getName() + "-" + version);
+  }
+
+  /**
+   * Returns classpath entry of a classes directory published by a compiler execution of the current build session. The entry is created from the published types, without walking the
+   * directory tree.
+   */
+  public DependencyClasspathEntry get(ClassesDirectory published) {
+    try {
+      return PUBLISHED_CACHE.get(published, () -> ClasspathDirectory.create(published.getDirectory(), published.getTypes()));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw new IllegalStateException("Could not create classpath entry " + published.getDirectory(), e.getCause());
+    }
+  }
+
   public DependencyClasspathEntry getSourcepathEntry(File location, Charset encoding) {
     return get(SOURCEPATH_CACHE, location, () -> SourcepathDirectory.create(location, encoding));
   }
 
-  private static DependencyClasspathEntry get(Map<File, DependencyClasspathEntry> cache, File location, Factory factory) {
-    location = normalize(location);
-    synchronized (cache) {
-      DependencyClasspathEntry entry = null;
-      if (!cache.containsKey(location)) {
-        entry = factory.newClasspathEntry();
-        cache.put(location, entry);
-      } else {
-        entry = cache.get(location);
+  private DependencyClasspathEntry get(Cache<File, CacheEntry> cache, File location, Factory factory) {
+    final File normalized = normalize(location);
+    if (validatedDirectories.contains(normalized)) {
+      CacheEntry cached = cache.getIfPresent(normalized);
+      if (cached != null) {
+        return cached.entry;
       }
-      return entry;
+    }
+    final Stamp stamp = Stamp.of(normalized);
+    Callable<CacheEntry> loader = () -> new CacheEntry(stamp, factory.newClasspathEntry());
+    try {
+      CacheEntry cached = cache.get(normalized, loader);
+      if (!stamp.equals(cached.stamp)) {
+        // the location changed since the entry was created. only replace the stale entry,
+        // another thread may have already reloaded the location concurrently
+        log.debug("Classpath entry {} changed on disk, reloading", normalized);
+        cache.asMap().remove(normalized, cached);
+        cached = cache.get(normalized, loader);
+      }
+      if (stamp.directory) {
+        validatedDirectories.add(normalized);
+      }
+      return cached.entry;
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw new IllegalStateException("Could not create classpath entry " + normalized, e.getCause());
     }
   }
 
@@ -78,11 +270,9 @@ public class ClasspathEntryCache {
    * @noreference this method is public for test purposes only
    */
   public static void flush() {
-    synchronized (CACHE) {
-      CACHE.clear();
-    }
-    synchronized (SOURCEPATH_CACHE) {
-      SOURCEPATH_CACHE.clear();
-    }
+    CACHE.invalidateAll();
+    SOURCEPATH_CACHE.invalidateAll();
+    PUBLISHED_CACHE.invalidateAll();
+    BinaryTypeCache.flush();
   }
 }
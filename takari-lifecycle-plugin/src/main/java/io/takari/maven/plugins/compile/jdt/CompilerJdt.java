@@ -7,22 +7,31 @@
  */
 package io.takari.maven.plugins.compile.jdt;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -41,8 +50,6 @@ import org.eclipse.jdt.internal.compiler.IProblemFactory;
 import org.eclipse.jdt.internal.compiler.apt.util.EclipseFileManager;
 import org.eclipse.jdt.internal.compiler.ast.CompilationUnitDeclaration;
 import org.eclipse.jdt.internal.compiler.batch.CompilationUnit;
-import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
-import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
 import org.eclipse.jdt.internal.compiler.env.ICompilationUnit;
 import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
 import org.eclipse.jdt.internal.compiler.impl.IrritantSet;
@@ -54,6 +61,7 @@ import com.google.common.base.Stopwatch;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multiset;
 
@@ -68,6 +76,8 @@ import io.takari.maven.plugins.compile.AbstractCompileMojo.Proc;
 import io.takari.maven.plugins.compile.AbstractCompiler;
 import io.takari.maven.plugins.compile.CompilerBuildContext;
 import io.takari.maven.plugins.compile.ProjectClasspathDigester;
+import io.takari.maven.plugins.compile.ReactorOutputRegistry;
+import io.takari.maven.plugins.compile.jdt.AnnotationProcessorCache.ProcessorClassLoader;
 import io.takari.maven.plugins.compile.jdt.classpath.Classpath;
 import io.takari.maven.plugins.compile.jdt.classpath.ClasspathDirectory;
 import io.takari.maven.plugins.compile.jdt.classpath.ClasspathEntry;
@@ -91,6 +101,11 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
    */
   private static final String ATTR_CLASS_DIGEST = "jdt.class.digest";
 
+  /**
+   * Maximum number of threads used to digest and write generated class files.
+   */
+  private static final int WRITER_THREADS = 4;
+
   /**
    * Classpath digest, map of accessible types to their .class structure hashes.
    */
@@ -101,6 +116,16 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
    */
   private static final String ATTR_REFERENCES = "jdt.references";
 
+  /**
+   * {@link ReferenceIndex} of all sources
+   */
+  private static final String ATTR_REFERENCE_INDEX = "jdt.references.index";
+
+  /**
+   * Generated source contents hash
+   */
+  private static final String ATTR_GENERATED_DIGEST = "jdt.generated.digest";
+
   private List<File> dependencies;
 
   private List<File> processorpath;
@@ -116,10 +141,37 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
    */
   private final Map<File, ICompilationUnit> compileQueue = new LinkedHashMap<>();
 
-  private final ClassfileDigester digester = new ClassfileDigester();
+  /**
+   * Digests and writes class files produced by the current {@link #compile()} invocation.
+   */
+  private ClassfileWriter classfileWriter;
+
+  /**
+   * Output directory entry of the current {@link #compile()} classpath, notified about written and deleted .class files.
+   */
+  private OutputDirectoryClasspathEntry outputEntry;
+
+  private ReferenceIndex referenceIndex;
+
+  private int compilerThreads = 1;
+
+  private int compilerBatchSize;
+
+  private boolean shareProcessorClassLoader;
+
+  private List<File> sourceRoots = Collections.emptyList();
+
+  /**
+   * Sources that failed to compile during batched compilation and will be compiled again after all batches, {@code null} if not compiling batches.
+   */
+  private Set<File> deferredSources;
 
   private final ClasspathEntryCache classpathCache;
 
+  private final ReactorOutputRegistry reactorOutputs;
+
+  private final AnnotationProcessorCache processorCache;
+
   private final ClasspathDigester classpathDigester;
 
   private final ProjectClasspathDigester processorpathDigester;
@@ -129,7 +181,7 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
 
     public abstract boolean setSources(List<ResourceMetadata<File>> sources) throws IOException;
 
-    public abstract void enqueueAffectedSources(HashMap<String, byte[]> digest, Map<String, byte[]> oldDigest) throws IOException;
+    public abstract void enqueueAffectedSources(ClasspathDigest digest, ClasspathDigest oldDigest) throws IOException;
 
     public abstract void enqueueAllSources() throws IOException;
 
@@ -143,7 +195,12 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
       return CompilerJdt.this.createClasspath(sourceOutputs.values());
     }
 
-    public abstract void addGeneratedSource(Output<File> generatedSource);
+    /**
+     * Returns {@code true} if the generated source must be compiled.
+     *
+     * @param unchanged {@code true} if the source has the same contents as during previous build
+     */
+    public abstract boolean addGeneratedSource(Output<File> generatedSource, boolean unchanged);
 
     protected boolean deleteOrphanedOutputs() throws IOException {
       boolean changed = false;
@@ -163,7 +220,7 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
     protected void deleteOrphanedOutputs(Collection<ResourceMetadata<File>> outputs) throws IOException {
       for (ResourceMetadata<File> output : outputs) {
         File outputFile = output.getResource();
-        context.deleteOutput(outputFile);
+        deleteOutput(outputFile);
         addDependentsOf(outputFile);
       }
     }
@@ -173,7 +230,7 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
       for (File sourceFile : sourceOutputs.keySet()) {
         for (File associatedOutput : sourceOutputs.get(sourceFile)) {
           if (!context.isProcessedOutput(associatedOutput)) {
-            context.deleteOutput(associatedOutput);
+            deleteOutput(associatedOutput);
             addDependentsOf(associatedOutput);
             changed = true;
           }
@@ -209,6 +266,10 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
      */
     private final Multiset<File> processedSources = HashMultiset.create();
 
+    /**
+     * Set of generated sources compiled during this build.
+     */
+    private final Set<File> generatedSources = new HashSet<>();
 
     private final Set<String> rootNames = new LinkedHashSet<>();
 
@@ -241,6 +302,7 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
         ICompilationUnit[] compilationUnits = compileQueue.values().toArray(new ICompilationUnit[compileQueue.size()]);
         compileQueue.clear();
         compiler.compile(compilationUnits);
+        flushClassFiles();
         namingEnvironment.reset();
 
         if (compiler.annotationProcessorManager != null) {
@@ -269,6 +331,22 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
         }
       }
 
+      referenceIndex = context.getAttribute(ATTR_REFERENCE_INDEX, true, ReferenceIndex.class);
+      if (referenceIndex == null) {
+        // previous build did not maintain the index, build it from individual source references
+        referenceIndex = new ReferenceIndex();
+        for (File resource : CompilerJdt.this.sources.keySet()) {
+          ReferenceCollection references = context.getAttribute(resource, ATTR_REFERENCES, ReferenceCollection.class);
+          if (references != null) {
+            referenceIndex.put(resource, references);
+          }
+        }
+      }
+      for (ResourceMetadata<File> source : context.getRemovedSources()) {
+        referenceIndex.remove(source.getResource());
+      }
+      context.setAttribute(ATTR_REFERENCE_INDEX, referenceIndex);
+
       boolean compilationRequired = false;
 
       // delete orphaned outputs and rebuild all sources that reference them
@@ -280,12 +358,15 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
     }
 
     private void enqueueAffectedSources() throws IOException {
-      for (ResourceMetadata<File> input : sources.values()) {
-        final File resource = input.getResource();
-        if (!processedQueue.contains(resource) && resource.canRead()) {
-          ReferenceCollection references = context.getAttribute(resource, ATTR_REFERENCES, ReferenceCollection.class);
-          if (references != null && references.includes(qualifiedNames, simpleNames, rootNames)) {
-            enqueue(input);
+      ReferenceCollection.Query query = new ReferenceCollection.Query(qualifiedNames, simpleNames, rootNames);
+      if (!query.isEmpty()) {
+        for (File resource : referenceIndex.getCandidates(query)) {
+          ResourceMetadata<File> input = sources.get(resource);
+          if (input != null && !processedQueue.contains(resource) && resource.canRead()) {
+            ReferenceCollection references = context.getAttribute(resource, ATTR_REFERENCES, ReferenceCollection.class);
+            if (references != null && references.includes(query)) {
+              enqueue(input);
+            }
           }
         }
       }
@@ -350,25 +431,18 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
     }
 
     @Override
-    public void enqueueAffectedSources(HashMap<String, byte[]> digest, Map<String, byte[]> oldDigest) throws IOException {
+    public void enqueueAffectedSources(ClasspathDigest digest, ClasspathDigest oldDigest) throws IOException {
       if (oldDigest != null) {
         Set<String> changedPackages = new HashSet<String>();
 
-        for (Map.Entry<String, byte[]> entry : digest.entrySet()) {
-          String type = entry.getKey();
-          byte[] hash = entry.getValue();
-          if (!Arrays.equals(hash, oldDigest.get(type))) {
-            addDependentsOf(type);
-          }
-          changedPackages.add(getPackage(type));
-        }
-
-        for (String oldType : oldDigest.keySet()) {
-          if (!digest.containsKey(oldType)) {
-            addDependentsOf(oldType);
+        digest.diff(oldDigest, type -> {
+          addDependentsOf(type);
+          // packages that did not exist before
+          String pkg = ClasspathDigest.getPackage(type);
+          if (pkg != null && !changedPackages.contains(pkg) && digest.containsPackage(pkg) && !oldDigest.containsPackage(pkg)) {
+            changedPackages.add(pkg);
           }
-          changedPackages.remove(getPackage(oldType));
-        }
+        });
 
         for (String changedPackage : changedPackages) {
           addDependentsOf(changedPackage);
@@ -378,20 +452,31 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
       }
     }
 
-    private String getPackage(String type) {
-      int idx = type.lastIndexOf('.');
-      return idx > 0 ? type.substring(0, idx) : null;
-    }
-
     @Override
-    public void addGeneratedSource(Output<File> generatedSource) {
-      sources.put(generatedSource.getResource(), generatedSource);
-      processedQueue.add(generatedSource.getResource());
+    public boolean addGeneratedSource(Output<File> generatedSource, boolean unchanged) {
+      File sourceFile = generatedSource.getResource();
+      sources.put(sourceFile, generatedSource);
+      if (unchanged && !generatedSources.contains(sourceFile) && !processedSources.contains(sourceFile) && context.markUptodateGeneratedSource(sourceFile)) {
+        // carried over outputs are not stale, even though they are associated with the originating source being recompiled
+        for (ResourceMetadata<File> output : context.getAssociatedOutputs(generatedSource)) {
+          sourceOutputs.values().remove(output.getResource());
+        }
+        // the source can still be recompiled if any of its dependencies change
+        return false;
+      }
+      generatedSources.add(sourceFile);
+      processedQueue.add(sourceFile);
+      return true;
     }
   }
 
   private class FullCompilationStrategy extends CompilationStrategy {
 
+    /**
+     * Reference index of the previous build, used to order compilation batches. May be {@code null}.
+     */
+    private ReferenceIndex previousReferenceIndex;
+
     @Override
     public boolean setSources(List<ResourceMetadata<File>> sources) throws IOException {
       for (ResourceMetadata<File> source : sources) {
@@ -400,13 +485,17 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
         compileQueue.put(sourceFile, newSourceFile(sourceFile));
       }
 
+      previousReferenceIndex = context.getAttribute(ATTR_REFERENCE_INDEX, true, ReferenceIndex.class);
+      referenceIndex = new ReferenceIndex();
+      context.setAttribute(ATTR_REFERENCE_INDEX, referenceIndex);
+
       deleteOrphanedOutputs();
 
       return true;
     }
 
     @Override
-    public void enqueueAffectedSources(HashMap<String, byte[]> digest, Map<String, byte[]> oldDigest) throws IOException {
+    public void enqueueAffectedSources(ClasspathDigest digest, ClasspathDigest oldDigest) throws IOException {
       // full strategy compiles all sources in one pass
     }
 
@@ -430,8 +519,13 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
       if (!compileQueue.isEmpty()) {
         processSources();
 
-        ICompilationUnit[] compilationUnits = compileQueue.values().toArray(new ICompilationUnit[compileQueue.size()]);
-        compiler.compile(compilationUnits);
+        if (isBatched()) {
+          compileBatches(namingEnvironment, compiler);
+        } else {
+          ICompilationUnit[] compilationUnits = compileQueue.values().toArray(new ICompilationUnit[compileQueue.size()]);
+          compiler.compile(compilationUnits);
+          flushClassFiles();
+        }
 
         deleteStaleOutputs();
       }
@@ -439,17 +533,150 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
       return compileQueue.size();
     }
 
+    /**
+     * Batched compilation requires all sources of the module to be resolvable from source roots and is not compatible with annotation processing rounds.
+     */
+    public boolean isBatched() {
+      return compilerBatchSize > 0 && compileQueue.size() > compilerBatchSize && isProcNone() && !sourceRoots.isEmpty();
+    }
+
+    /**
+     * Compiles sources in batches of at most {@link #compilerBatchSize} sources, dependencies first. Types of the previous batches are resolved from their .class files, types of the pending batches
+     * are resolved from module source roots. Sources that fail to compile are not reported immediately, they are recompiled after all batches, when all other types of the module are available as
+     * .class files, and the recompilation result is reported. This guarantees batched compilation results are the same as single batch compilation results.
+     */
+    private void compileBatches(Classpath namingEnvironment, Compiler compiler) throws IOException {
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP) {
+          pool.resetPeakUsage();
+          heapPools.add(pool);
+        }
+      }
+
+      List<File> ordered = getCompileOrder();
+      int batches = 0;
+      deferredSources = new LinkedHashSet<>();
+      try {
+        for (List<File> batch : Lists.partition(ordered, compilerBatchSize)) {
+          compiler.compile(getCompilationUnits(batch));
+          flushClassFiles();
+          batches++;
+
+          // expose batch .class files to the following batches
+          for (File sourceFile : batch) {
+            if (!deferredSources.contains(sourceFile)) {
+              for (File output : sourceOutputs.removeAll(sourceFile)) {
+                if (!context.isProcessedOutput(output)) {
+                  deleteOutput(output);
+                }
+              }
+            }
+          }
+          namingEnvironment.reset();
+        }
+      } finally {
+        ordered = new ArrayList<>(deferredSources);
+        deferredSources = null;
+      }
+
+      if (!ordered.isEmpty()) {
+        compiler.compile(getCompilationUnits(ordered));
+        flushClassFiles();
+      }
+
+      long peakHeap = 0;
+      for (MemoryPoolMXBean pool : heapPools) {
+        peakHeap += pool.getPeakUsage().getUsed();
+      }
+      log.debug("Compiled {} sources in {} batches of up to {} sources, recompiled {} sources ({} ms, peak heap {} MB)", //
+          compileQueue.size(), batches, compilerBatchSize, ordered.size(), stopwatch.elapsed(TimeUnit.MILLISECONDS), peakHeap / (1024 * 1024));
+    }
+
+    private ICompilationUnit[] getCompilationUnits(Collection<File> sourceFiles) {
+      ICompilationUnit[] compilationUnits = new ICompilationUnit[sourceFiles.size()];
+      int idx = 0;
+      for (File sourceFile : sourceFiles) {
+        compilationUnits[idx++] = compileQueue.get(sourceFile);
+      }
+      return compilationUnits;
+    }
+
+    /**
+     * Orders sources such that types are compiled before sources that reference them, according to the previous build reference index. References cycles are broken arbitrarily.
+     */
+    private List<File> getCompileOrder() {
+      if (previousReferenceIndex == null) {
+        return new ArrayList<>(compileQueue.keySet());
+      }
+      Map<String, File> types = new HashMap<>();
+      for (File sourceFile : compileQueue.keySet()) {
+        String type = getSourceType(sourceFile);
+        if (type != null) {
+          types.put(type, sourceFile);
+        }
+      }
+      // source -> sources it depends on
+      Multimap<File, File> dependencies = HashMultimap.create();
+      for (Map.Entry<String, File> entry : types.entrySet()) {
+        String type = entry.getKey();
+        int idx = type.lastIndexOf('.');
+        String simpleName = type.substring(idx + 1);
+        List<String> qualifiedNames = idx > 0 ? Collections.singletonList(type.substring(0, idx)) : Collections.emptyList();
+        ReferenceCollection.Query query = new ReferenceCollection.Query(qualifiedNames, Collections.singleton(simpleName), Collections.emptyList());
+        for (File dependent : previousReferenceIndex.getCandidates(query)) {
+          if (dependent != entry.getValue() && compileQueue.containsKey(dependent)) {
+            dependencies.put(dependent, entry.getValue());
+          }
+        }
+      }
+      Set<File> ordered = new LinkedHashSet<>();
+      Set<File> visiting = new HashSet<>();
+      for (File sourceFile : compileQueue.keySet()) {
+        addDependenciesFirst(sourceFile, dependencies, visiting, ordered);
+      }
+      return new ArrayList<>(ordered);
+    }
+
+    private void addDependenciesFirst(File sourceFile, Multimap<File, File> dependencies, Set<File> visiting, Set<File> ordered) {
+      Deque<Iterator<File>> stack = new ArrayDeque<>();
+      Deque<File> path = new ArrayDeque<>();
+      if (ordered.contains(sourceFile) || !visiting.add(sourceFile)) {
+        return;
+      }
+      stack.push(dependencies.get(sourceFile).iterator());
+      path.push(sourceFile);
+      while (!stack.isEmpty()) {
+        Iterator<File> iterator = stack.peek();
+        if (iterator.hasNext()) {
+          File dependency = iterator.next();
+          if (!ordered.contains(dependency) && visiting.add(dependency)) {
+            stack.push(dependencies.get(dependency).iterator());
+            path.push(dependency);
+          }
+        } else {
+          stack.pop();
+          ordered.add(path.pop());
+        }
+      }
+    }
+
     @Override
-    public void addGeneratedSource(Output<File> generatedSource) {
+    public boolean addGeneratedSource(Output<File> generatedSource, boolean unchanged) {
       // full strategy compiles all sources in one pass
+      return true;
     }
   }
 
   private CompilationStrategy strategy;
 
   @Inject
-  public CompilerJdt(CompilerBuildContext context, ClasspathEntryCache classpathCache, ClasspathDigester classpathDigester, ProjectClasspathDigester processorpathDigester) {
+  public CompilerJdt(CompilerBuildContext context, ClasspathEntryCache classpathCache, ClasspathDigester classpathDigester, ProjectClasspathDigester processorpathDigester,
+      ReactorOutputRegistry reactorOutputs, AnnotationProcessorCache processorCache) {
     super(context);
+    this.reactorOutputs = reactorOutputs;
+    this.processorCache = processorCache;
     this.classpathCache = classpathCache;
     this.classpathDigester = classpathDigester;
     this.processorpathDigester = processorpathDigester;
@@ -536,8 +763,11 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
       }
     };
     compiler.options.produceReferenceInfo = true;
+    compiler.useSingleThread = compilerThreads <= 1;
 
     EclipseFileManager fileManager = null;
+    ProcessorClassLoader processorLoader = null;
+    classfileWriter = new ClassfileWriter(Math.min(WRITER_THREADS, Runtime.getRuntime().availableProcessors()));
     try {
       if (!isProcNone()) {
         fileManager = new EclipseFileManager(null, getSourceEncoding());
@@ -547,16 +777,30 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
 
         ProcessingEnvImpl processingEnv = new ProcessingEnvImpl(context, fileManager, getAnnotationProcessorOptions(), compiler, this, getProc());
 
-        compiler.annotationProcessorManager = new AnnotationProcessorManager(context, processingEnv, fileManager, getAnnotationProcessors());
+        processorLoader = shareProcessorClassLoader //
+            ? processorCache.get(processorpathDigester.fingerprint(dependencies), dependencies) //
+            : processorCache.create(dependencies);
+        String[] processors = getAnnotationProcessors();
+        if (processors == null) {
+          processors = processorLoader.getDiscoveredProcessors().toArray(new String[0]);
+        }
+        compiler.annotationProcessorManager = new AnnotationProcessorManager(context, processingEnv, processorLoader.getClassLoader(), processors);
         compiler.options.storeAnnotations = true;
       }
 
       return strategy.compile(namingEnvironment, compiler);
     } finally {
+      log.debug("Classpath type lookups: {} entries skipped by type name filter, {} entries searched, {} filter false positives", //
+          namingEnvironment.getFilterMisses(), namingEnvironment.getFilterHits(), namingEnvironment.getFilterFalsePositives());
+      classfileWriter.close();
+      classfileWriter = null;
       if (fileManager != null) {
         fileManager.flush();
         fileManager.close();
       }
+      if (processorLoader != null && !shareProcessorClassLoader) {
+        processorLoader.close();
+      }
     }
   }
 
@@ -587,6 +831,14 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
       OutputDirectoryClasspathEntry output = new OutputDirectoryClasspathEntry(getOutputDirectory(), staleOutputs);
       entries.add(output);
       mutableentries.add(output);
+      outputEntry = output;
+
+      if (strategy instanceof FullCompilationStrategy && ((FullCompilationStrategy) strategy).isBatched()) {
+        // types of the sources that are not compiled yet
+        for (File sourceRoot : sourceRoots) {
+          entries.add(SourcepathDirectory.create(sourceRoot, getSourceEncoding()));
+        }
+      }
     }
 
     entries.addAll(sourcepath);
@@ -611,7 +863,7 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
     }
 
     if (mainClasses != null) {
-      DependencyClasspathEntry entry = classpathCache.get(mainClasses);
+      DependencyClasspathEntry entry = getClasspathEntry(mainClasses);
       if (entry != null) {
         dependencypath.add(AccessRestrictionClasspathEntry.allowAll(entry));
         files.add(mainClasses);
@@ -619,7 +871,7 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
     }
 
     for (File dependency : dependencies) {
-      DependencyClasspathEntry entry = classpathCache.get(dependency);
+      DependencyClasspathEntry entry = getClasspathEntry(dependency);
       if (entry != null) {
         if (getTransitiveDependencyReference() == AccessRulesViolation.error && !directDependencies.contains(dependency)) {
           dependencypath.add(AccessRestrictionClasspathEntry.forbidAll(entry));
@@ -643,20 +895,24 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
     this.dependencypath = ImmutableList.copyOf(dependencypath);
 
     Stopwatch stopwatch = Stopwatch.createStarted();
-    long typecount = 0, packagecount = 0;
 
-    HashMap<String, byte[]> digest = classpathDigester.digestDependencies(files);
+    ClasspathDigest digest = classpathDigester.digestDependencies(files);
 
-    @SuppressWarnings("unchecked")
-    Map<String, byte[]> oldDigest = (Map<String, byte[]>) context.setAttribute(ATTR_CLASSPATH_DIGEST, digest);
+    Object oldDigest = context.setAttribute(ATTR_CLASSPATH_DIGEST, digest);
 
-    log.debug("Digested {} types and {} packages in {} ms", typecount, packagecount, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+    log.debug("Digested {} types in {} ms", digest.size(), stopwatch.elapsed(TimeUnit.MILLISECONDS));
 
-    strategy.enqueueAffectedSources(digest, oldDigest);
+    // plugin classpath changes force full rebuild, but don't rely on that for the attribute type
+    strategy.enqueueAffectedSources(digest, oldDigest instanceof ClasspathDigest ? (ClasspathDigest) oldDigest : null);
 
     return !compileQueue.isEmpty();
   }
 
+  private DependencyClasspathEntry getClasspathEntry(File location) {
+    ReactorOutputRegistry.ClassesDirectory published = reactorOutputs.get(location);
+    return published != null ? classpathCache.get(published) : classpathCache.get(location);
+  }
+
   @Override
   public boolean setSourcepath(List<File> dependencies) throws IOException {
     List<ClasspathEntry> sourcepath = new ArrayList<>();
@@ -690,8 +946,56 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
     return !compileQueue.isEmpty();
   }
 
+  /**
+   * Sets number of compiler threads. JDT does not support arbitrary number of compiler threads, values greater than {@code 1} enable JDT parallel compilation pipeline.
+   */
+  public void setCompilerThreads(int compilerThreads) {
+    this.compilerThreads = compilerThreads;
+  }
+
+  /**
+   * Sets maximum number of sources compiled together during full build, {@code 0} compiles all sources together. Smaller batches reduce compiler memory footprint. Batched compilation requires
+   * {@link #setSourceRoots(Collection) source roots} and is not used with annotation processing.
+   */
+  public void setCompilerBatchSize(int compilerBatchSize) {
+    this.compilerBatchSize = compilerBatchSize;
+  }
+
+  /**
+   * Sets whether annotation processor classloader is shared with other compilations that use the same processorpath, see {@link AnnotationProcessorCache}.
+   */
+  public void setShareProcessorClassLoader(boolean shareProcessorClassLoader) {
+    this.shareProcessorClassLoader = shareProcessorClassLoader;
+  }
+
+  public void setSourceRoots(Collection<String> sourceRoots) {
+    List<File> roots = new ArrayList<>();
+    for (String sourceRoot : sourceRoots) {
+      File root = new File(sourceRoot);
+      if (root.isDirectory()) {
+        roots.add(root);
+      }
+    }
+    this.sourceRoots = ImmutableList.copyOf(roots);
+  }
+
+  /**
+   * Returns qualified name of the type declared by the source file according to java source file naming convention or {@code null} if the file is not under any source root.
+   */
+  private String getSourceType(File sourceFile) {
+    String path = sourceFile.getAbsolutePath();
+    for (File sourceRoot : sourceRoots) {
+      String root = sourceRoot.getAbsolutePath() + File.separator;
+      if (path.startsWith(root) && path.endsWith(SuffixConstants.SUFFIX_STRING_java)) {
+        return path.substring(root.length(), path.length() - SuffixConstants.SUFFIX_STRING_java.length()).replace(File.separatorChar, '.');
+      }
+    }
+    return null;
+  }
+
+  // synchronized, parallel compilation pipeline may report results from compiler threads
   @Override
-  public void acceptResult(CompilationResult result) {
+  public synchronized void acceptResult(CompilationResult result) {
     if (result == null) {
       return; // ah?
     }
@@ -699,11 +1003,19 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
     final String sourceName = new String(result.getFileName());
     final File sourceFile = new File(sourceName);
 
+    if (deferredSources != null && result.hasErrors()) {
+      // will be compiled again after all batches, when all referenced types are available
+      deferredSources.add(sourceFile);
+      return;
+    }
+
     Resource<File> input = context.getProcessedSource(sourceFile);
 
     // track type references
     if (result.rootReferences != null && result.qualifiedReferences != null && result.simpleNameReferences != null) {
-      context.setAttribute(input.getResource(), ATTR_REFERENCES, new ReferenceCollection(result.rootReferences, result.qualifiedReferences, result.simpleNameReferences));
+      ReferenceCollection references = new ReferenceCollection(result.rootReferences, result.qualifiedReferences, result.simpleNameReferences);
+      context.setAttribute(input.getResource(), ATTR_REFERENCES, references);
+      referenceIndex.put(input.getResource(), references);
     }
 
     if (result.hasProblems()) {
@@ -728,9 +1040,8 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
           writeClassFile(input, relativeStringName, classFile);
         }
       }
-    } catch (IOException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
+    } finally {
+      classfileWriter.drain(this::digestClassFile);
     }
     // XXX double check affected sources are recompiled when this source has errors
   }
@@ -747,44 +1058,137 @@ public class CompilerJdt extends AbstractCompiler implements ICompilerRequestor
     return getProc() == Proc.procEX || getProc() == Proc.onlyEX;
   }
 
-  private void writeClassFile(Resource<File> input, String relativeStringName, ClassFile classFile) throws IOException {
+  private void writeClassFile(Resource<File> input, String relativeStringName, ClassFile classFile) {
     final byte[] bytes = classFile.getBytes();
     final File outputFile = new File(getOutputDirectory(), relativeStringName);
     final Output<File> output = context.associatedOutput(input, outputFile);
 
-    boolean significantChange = digestClassFile(output, bytes);
+    classfileWriter.write(output, CharOperation.toString(classFile.getCompoundName()), bytes);
+  }
 
+  /**
+   * Waits for pending class files to be written and enqueues dependents of changed types. Must be called before stale outputs are deleted.
+   */
+  private void flushClassFiles() throws IOException {
+    classfileWriter.flush(this::digestClassFile);
+  }
+
+  private void deleteOutput(File outputFile) throws IOException {
+    context.deleteOutput(outputFile);
+    if (outputEntry != null) {
+      outputEntry.removeOutput(outputFile);
+    }
+  }
+
+  private void digestClassFile(Output<File> output, String type, byte[] hash) {
+    if (outputEntry != null) {
+      outputEntry.addOutput(output.getResource());
+    }
+    boolean significantChange = true;
+    if (hash != null) {
+      byte[] oldHash = (byte[]) context.setAttribute(output.getResource(), ATTR_CLASS_DIGEST, hash);
+      significantChange = oldHash == null || !Arrays.equals(hash, oldHash);
+    }
     if (significantChange) {
       // find all sources that reference this type and put them into work queue
-      strategy.addDependentsOf(CharOperation.toString(classFile.getCompoundName()));
+      strategy.addDependentsOf(type);
     }
+  }
 
-    final BufferedOutputStream os = new BufferedOutputStream(output.newOutputStream());
-    try {
-      os.write(bytes);
-      os.flush();
-    } finally {
-      os.close();
+  /**
+   * Writes {@link AbiManifest} of all .class files produced from the sources and publishes the output directory to {@link ReactorOutputRegistry}. The manifest is deleted and the directory is
+   * not published if there are no .class files, digests of some .class files are not known or the directory has .class files produced by something else.
+   * <p>
+   * The manifest is written directly to the output directory and is not registered with the build context, otherwise it would be considered orphaned output without inputs and deleted during
+   * the next build.
+   */
+  @Override
+  public void publishOutputs() throws IOException {
+    if (isProcOnly()) {
+      return;
+    }
+    File outputDirectory = getOutputDirectory();
+    AbiManifest manifest = newAbiManifest(outputDirectory);
+    if (manifest == null || manifest.size() == 0) {
+      AbiManifest.delete(outputDirectory);
+      return;
+    }
+    manifest.write(outputDirectory);
+    // classfile count, file count and most recent timestamp of all files, see ProjectClasspathDigester
+    long[] counts = new long[] {0, 0, manifest.getLastModified()};
+    addDirectoryCounts(counts, outputDirectory);
+    if (counts[0] != manifest.size()) {
+      AbiManifest.delete(outputDirectory);
+      return;
     }
+    reactorOutputs.publish(outputDirectory, ClasspathDigest.Segment.create(manifest.getTypeDigests()), counts[1], counts[2]);
   }
 
-  private boolean digestClassFile(Output<File> output, byte[] definition) {
-    boolean significantChange = true;
-    try {
-      ClassFileReader reader = new ClassFileReader(definition, output.getResource().getAbsolutePath().toCharArray());
-      byte[] hash = digester.digest(reader);
-      if (hash != null) {
-        byte[] oldHash = (byte[]) context.setAttribute(output.getResource(), ATTR_CLASS_DIGEST, hash);
-        significantChange = oldHash == null || !Arrays.equals(hash, oldHash);
+  private static void addDirectoryCounts(long[] counts, File directory) {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.isDirectory()) {
+          addDirectoryCounts(counts, file);
+        } else {
+          counts[1]++;
+          if (file.getName().endsWith(SuffixConstants.SUFFIX_STRING_class)) {
+            counts[0]++; // timestamp is already known from the manifest
+          } else {
+            counts[2] = Math.max(counts[2], file.lastModified());
+          }
+        }
+      }
+    }
+  }
+
+  private AbiManifest newAbiManifest(File outputDirectory) throws IOException {
+    String prefix = outputDirectory.getAbsolutePath() + File.separator;
+    AbiManifest oldManifest = null;
+    SortedMap<String, AbiManifest.Entry> entries = new TreeMap<>();
+    for (ResourceMetadata<File> source : sources.values()) {
+      for (ResourceMetadata<File> output : context.getAssociatedOutputs(source)) {
+        File file = output.getResource();
+        if (!file.getName().endsWith(SuffixConstants.SUFFIX_STRING_class)) {
+          continue;
+        }
+        byte[] digest = context.getAttribute(file, ATTR_CLASS_DIGEST, byte[].class);
+        String path = file.getAbsolutePath();
+        if (digest == null || !file.isFile() || !path.startsWith(prefix)) {
+          return null;
+        }
+        path = path.substring(prefix.length()).replace('\\', '/');
+        AbiManifest.Entry entry;
+        if (context.isProcessedOutput(file)) {
+          CRC32 crc = new CRC32();
+          crc.update(Files.readAllBytes(file.toPath()));
+          entry = new AbiManifest.Entry(file.length(), file.lastModified(), crc.getValue(), digest);
+        } else {
+          // digest of carried over .class file is only known to be current if the file did not change since the previous build
+          if (oldManifest == null && (oldManifest = AbiManifest.read(outputDirectory)) == null) {
+            return null;
+          }
+          entry = oldManifest.get(path, file.length(), file.lastModified(), digest);
+          if (entry == null) {
+            return null;
+          }
+        }
+        entries.put(path, entry);
       }
-    } catch (ClassFormatException e) {
-      // ignore this class
     }
-    return significantChange;
+    return new AbiManifest(entries);
   }
 
-  public void addGeneratedSource(Output<File> generatedSource) {
-    strategy.addGeneratedSource(generatedSource);
+  /**
+   * Registers generated source and returns {@code true} if the source must be compiled. Generated sources regenerated with the same contents as during previous incremental build are not compiled
+   * again, their outputs are carried over as-is.
+   */
+  public boolean addGeneratedSource(Output<File> generatedSource, byte[] digest) {
+    File sourceFile = generatedSource.getResource();
+    byte[] oldDigest = context.getPreviousAttribute(sourceFile, ATTR_GENERATED_DIGEST, byte[].class);
+    boolean compile = strategy.addGeneratedSource(generatedSource, Arrays.equals(digest, oldDigest));
+    context.setAttribute(sourceFile, ATTR_GENERATED_DIGEST, digest);
+    return compile;
   }
 
 }
@@ -2,12 +2,14 @@ package io.takari.maven.plugins.compile.jdt;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.URI;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -57,11 +59,11 @@ class FilerImpl implements Filer {
       for (Resource<File> input : inputs) {
         input.associateOutput(output);
       }
-      return new FilterOutputStream(output.newOutputStream()) {
+      return new DigestOutputStream(output.newOutputStream(), newDigest()) {
         @Override
         public void close() throws IOException {
           super.close();
-          onClose(output);
+          onClose(output, getMessageDigest().digest());
         }
       };
     }
@@ -70,10 +72,21 @@ class FilerImpl implements Filer {
       return new OutputStreamWriter(openOutputStream(uri)); // XXX encoding
     }
 
-    protected void onClose(Output<File> output) {}
+    /**
+     * @param digest SHA-1 hash of the output contents
+     */
+    protected void onClose(Output<File> output, byte[] digest) {}
 
   }
 
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Unsupported JVM", e);
+    }
+  }
+
   // TODO EclipseFileObject implementation is quite inappropriate for our needs, consider rewrite
   private static class JavaFileObjectImpl extends ForwardingJavaFileObject<JavaFileObject> {
     private final FileObjectDelegate delegate;
@@ -131,11 +144,13 @@ class FilerImpl implements Filer {
     }
     return new JavaFileObjectImpl(sourceFile, new FileObjectDelegate(getInputs(originatingElements)) {
       @Override
-      protected void onClose(Output<File> generatedSource) {
-        // TODO optimize if the regenerated sources didn't change compared the previous build
+      protected void onClose(Output<File> generatedSource, byte[] digest) {
+        if (!incrementalCompiler.addGeneratedSource(generatedSource, digest)) {
+          // same contents as during previous build, previous build outputs are still valid
+          return;
+        }
         CompilationUnit unit = new CompilationUnit(null, generatedSource.getResource().getAbsolutePath(), null /* encoding */);
         processingEnv.addNewUnit(unit);
-        incrementalCompiler.addGeneratedSource(generatedSource);
       }
     });
   }
@@ -168,7 +183,7 @@ class FilerImpl implements Filer {
     }
     return new JavaFileObjectImpl(classFile, new FileObjectDelegate(getInputs(originatingElements)) {
       @Override
-      protected void onClose(Output<File> generatedClass) {
+      protected void onClose(Output<File> generatedClass, byte[] digest) {
         // TODO processingEnv.addNewClassFile
         throw new UnsupportedOperationException();
       }
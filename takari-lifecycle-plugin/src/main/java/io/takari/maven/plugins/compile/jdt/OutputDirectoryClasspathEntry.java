@@ -11,50 +11,152 @@ import static org.eclipse.jdt.internal.compiler.util.SuffixConstants.SUFFIX_STRI
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
 import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
 
-import io.takari.maven.plugins.compile.jdt.classpath.ClasspathDirectory;
+import com.google.common.collect.ImmutableSet;
+
 import io.takari.maven.plugins.compile.jdt.classpath.ClasspathEntry;
 import io.takari.maven.plugins.compile.jdt.classpath.MutableClasspathEntry;
+import io.takari.maven.plugins.compile.jdt.classpath.TypeNameFilter;
 
+/**
+ * Classpath entry of the compiler output directory.
+ * <p>
+ * The directory is walked once, when the entry is created. After that, package names and types of the entry are maintained from {@link #addOutput(File)} and {@link #removeOutput(File)} events,
+ * so incremental compile loop iterations do not walk the directory again. Like with the directory walk, package names are never removed, deleting .class files does not delete their directories.
+ */
 class OutputDirectoryClasspathEntry implements ClasspathEntry, MutableClasspathEntry {
 
   private final File directory;
 
+  private final String prefix;
+
   private final Collection<File> staleOutputs;
 
-  private ClasspathDirectory delegate;
+  /**
+   * '/' separated qualified names of types that have .class files in the directory.
+   */
+  private final Set<String> types = ConcurrentHashMap.newKeySet();
+
+  private final Set<String> packageNames = new HashSet<>();
 
+  /**
+   * Package names added since the last {@link #reset()}.
+   */
+  private final Set<String> addedPackageNames = new HashSet<>();
 
   public OutputDirectoryClasspathEntry(File directory, Collection<File> staleOutputs) {
-    this.directory = directory;
+    this.directory = normalize(directory);
+    this.prefix = directory.getAbsolutePath() + File.separator;
     this.staleOutputs = staleOutputs;
 
-    this.delegate = ClasspathDirectory.create(directory);
+    populateIndex(directory, "");
+  }
+
+  private static File normalize(File file) {
+    try {
+      return file.getCanonicalFile();
+    } catch (IOException e) {
+      return file.getAbsoluteFile();
+    }
+  }
+
+  private void populateIndex(File directory, String packageName) {
+    if (!packageName.isEmpty()) {
+      packageNames.add(packageName);
+    }
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        if (file.isDirectory()) {
+          populateIndex(file, childName(packageName, name));
+        } else if (name.endsWith(SUFFIX_STRING_class)) {
+          types.add(childName(packageName, name.substring(0, name.length() - SUFFIX_STRING_class.length())));
+        }
+      }
+    }
+  }
+
+  private static String childName(String packageName, String name) {
+    return packageName.isEmpty() ? name : packageName + "/" + name;
+  }
+
+  /**
+   * Records .class file written to the output directory. The new package names, if any, become visible after {@link #reset()}.
+   */
+  public synchronized void addOutput(File file) {
+    String type = getType(file);
+    if (type != null && types.add(type)) {
+      for (int idx = type.lastIndexOf('/'); idx > 0; idx = type.lastIndexOf('/', idx - 1)) {
+        String packageName = type.substring(0, idx);
+        if (!packageNames.add(packageName)) {
+          break; // parent packages are already known too
+        }
+        addedPackageNames.add(packageName);
+      }
+    }
+  }
+
+  /**
+   * Records .class file deleted from the output directory.
+   */
+  public void removeOutput(File file) {
+    String type = getType(file);
+    if (type != null) {
+      types.remove(type);
+    }
+  }
+
+  private String getType(File file) {
+    String path = file.getAbsolutePath();
+    if (!path.startsWith(prefix) || !path.endsWith(SUFFIX_STRING_class)) {
+      return null;
+    }
+    return path.substring(prefix.length(), path.length() - SUFFIX_STRING_class.length()).replace('\\', '/');
+  }
+
+  @Override
+  public synchronized Collection<String> getPackageNames() {
+    return ImmutableSet.copyOf(packageNames);
   }
 
   @Override
-  public Collection<String> getPackageNames() {
-    return delegate.getPackageNames();
+  public TypeNameFilter getTypeNameFilter() {
+    return null; // the directory changes during compilation
   }
 
   @Override
   public NameEnvironmentAnswer findType(String packageName, String typeName) {
+    String type = childName(packageName, typeName);
+    if (!types.contains(type)) {
+      return null;
+    }
+    File classFile = new File(directory, type + SUFFIX_STRING_class);
+    if (staleOutputs.contains(classFile)) {
+      return null;
+    }
     try {
-      if (!staleOutputs.contains(delegate.getFile(packageName, typeName, SUFFIX_STRING_class))) {
-        return delegate.findType(packageName, typeName, null);
-      }
-    } catch (IOException e) {
+      return new NameEnvironmentAnswer(ClassFileReader.read(classFile, false), null);
+    } catch (ClassFormatException | IOException e) {
       // treat as if class file is missing
     }
     return null;
   }
 
   @Override
-  public void reset() {
-    this.delegate = ClasspathDirectory.create(directory);
+  public synchronized Collection<String> reset() {
+    Collection<String> added = new ArrayList<>(addedPackageNames);
+    addedPackageNames.clear();
+    return added;
   }
 
   @Override
@@ -12,76 +12,205 @@
  *******************************************************************************/
 package io.takari.maven.plugins.compile.jdt;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedHashSet;
+import java.util.HashSet;
 import java.util.Set;
 
 import org.eclipse.jdt.core.compiler.CharOperation;
 
 
 // adopted from org.eclipse.jdt.internal.core.builder.ReferenceCollection
-public class ReferenceCollection implements Serializable {
+// names are interned in SymbolTable and kept as sorted arrays
+public class ReferenceCollection implements Externalizable {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final String[] NO_NAMES = new String[0];
 
   // contains no simple names as in just 'a' which is kept in simpleNameReferences instead
-  Set<String> qualifiedNameReferences;
-  Set<String> simpleNameReferences;
-  Set<String> rootReferences;
+  String[] qualifiedNameReferences;
+  String[] simpleNameReferences;
+  String[] rootReferences;
 
-  protected ReferenceCollection(char[][] rootReferences, char[][][] qualifiedNameReferences, char[][] simpleNameReferences) {
-    this.qualifiedNameReferences = toStringSet(qualifiedNameReferences);
-    this.simpleNameReferences = toStringSet(simpleNameReferences);
-    this.rootReferences = toStringSet(rootReferences);
-  }
+  /**
+   * Names referenced by changed types, kept as sorted arrays.
+   */
+  public static class Query {
+    final String[] qualifiedNames;
+    final String[] qualifiedSimpleNames; // qualified names without '.'
+    final String[] simpleNames;
+    final String[] rootNames;
 
-  private Set<String> toStringSet(char[][] strings) {
-    Set<String> set = new LinkedHashSet<String>();
-    for (char[] string : strings) {
-      set.add(new String(string));
+    public Query(Collection<String> qualifiedNames, Collection<String> simpleNames, Collection<String> rootNames) {
+      String[] qualified = new String[qualifiedNames.size()];
+      String[] qualifiedSimple = new String[qualifiedNames.size()];
+      int qualifiedCount = 0, qualifiedSimpleCount = 0;
+      for (String qualifiedName : qualifiedNames) {
+        if (qualifiedName.indexOf('.') > 0) {
+          qualified[qualifiedCount++] = qualifiedName;
+        } else {
+          qualifiedSimple[qualifiedSimpleCount++] = qualifiedName;
+        }
+      }
+      this.qualifiedNames = sort(qualified, qualifiedCount);
+      this.qualifiedSimpleNames = sort(qualifiedSimple, qualifiedSimpleCount);
+      this.simpleNames = sort(simpleNames.toArray(new String[simpleNames.size()]), simpleNames.size());
+      this.rootNames = rootNames != null ? sort(rootNames.toArray(new String[rootNames.size()]), rootNames.size()) : null;
     }
-    return set;
-  }
 
-  private Set<String> toStringSet(char[][][] arrays) {
-    Set<String> set = new LinkedHashSet<String>();
-    for (char[][] array : arrays) {
-      set.add(CharOperation.toString(array));
+    /**
+     * Returns {@code true} if no reference collection can include this query.
+     */
+    public boolean isEmpty() {
+      return simpleNames.length == 0;
     }
-    return set;
   }
 
-  public boolean includes(Collection<String> qualifiedNames, Collection<String> simpleNames, Collection<String> rootNames) {
+  /**
+   * @noreference public no-argument constructor required by {@link Externalizable}
+   */
+  public ReferenceCollection() {}
 
-    if (rootNames != null) {
-      boolean foundRoot = false;
-      for (String rootName : rootNames) {
-        foundRoot = rootReferences.contains(rootName);
-        if (foundRoot) {
-          break;
+  protected ReferenceCollection(char[][] rootReferences, char[][][] qualifiedNameReferences, char[][] simpleNameReferences) {
+    this.qualifiedNameReferences = intern(qualifiedNameReferences);
+    this.simpleNameReferences = intern(simpleNameReferences);
+    this.rootReferences = intern(rootReferences);
+  }
+
+  /**
+   * Returns references to qualified type names, for example names of types referenced by .class files. Nested type names are kept as-is.
+   */
+  public static ReferenceCollection ofTypes(Collection<String> types) {
+    Set<String> roots = new HashSet<>();
+    Set<String> qualified = new HashSet<>();
+    Set<String> simple = new HashSet<>();
+    for (String type : types) {
+      int idx = type.indexOf('.');
+      roots.add(idx > 0 ? type.substring(0, idx) : type);
+      int start = 0;
+      while (idx > 0) {
+        simple.add(type.substring(start, idx));
+        if (start > 0) {
+          qualified.add(type.substring(0, idx));
         }
+        start = idx + 1;
+        idx = type.indexOf('.', start);
       }
-      if (!foundRoot) {
-        return false;
+      simple.add(type.substring(start));
+      if (start > 0) {
+        qualified.add(type);
       }
     }
+    ReferenceCollection references = new ReferenceCollection();
+    references.qualifiedNameReferences = intern(qualified);
+    references.simpleNameReferences = intern(simple);
+    references.rootReferences = intern(roots);
+    return references;
+  }
+
+  private static String[] intern(Collection<String> strings) {
+    String[] names = new String[strings.size()];
+    int count = 0;
+    for (String string : strings) {
+      names[count++] = SymbolTable.intern(string);
+    }
+    return sort(names, count);
+  }
 
-    for (String simpleName : simpleNames) {
-      if (simpleNameReferences.contains(simpleName)) {
-        for (String qualifiedName : qualifiedNames) {
-          if (qualifiedName.indexOf('.') > 0 ? qualifiedNameReferences.contains(qualifiedName) : simpleNameReferences.contains(qualifiedName)) {
-            return true;
-          }
-        }
-        return false;
+  private static String[] intern(char[][] strings) {
+    String[] names = new String[strings.length];
+    for (int i = 0; i < strings.length; i++) {
+      names[i] = SymbolTable.intern(new String(strings[i]));
+    }
+    return sort(names, names.length);
+  }
+
+  private static String[] intern(char[][][] arrays) {
+    String[] names = new String[arrays.length];
+    for (int i = 0; i < arrays.length; i++) {
+      names[i] = SymbolTable.intern(CharOperation.toString(arrays[i]));
+    }
+    return sort(names, names.length);
+  }
+
+  /**
+   * Sorts and removes duplicates from the first {@code count} names.
+   */
+  private static String[] sort(String[] names, int count) {
+    if (count == 0) {
+      return NO_NAMES;
+    }
+    Arrays.sort(names, 0, count);
+    int unique = 1;
+    for (int i = 1; i < count; i++) {
+      if (!names[i].equals(names[unique - 1])) {
+        names[unique++] = names[i];
       }
     }
+    return unique == names.length ? names : Arrays.copyOf(names, unique);
+  }
+
+  public boolean includes(Query query) {
+
+    if (query.rootNames != null && !intersects(rootReferences, query.rootNames)) {
+      return false;
+    }
+
+    if (intersects(simpleNameReferences, query.simpleNames)) {
+      return intersects(qualifiedNameReferences, query.qualifiedNames) || intersects(simpleNameReferences, query.qualifiedSimpleNames);
+    }
 
     return false;
   }
 
+  private static boolean intersects(String[] a, String[] b) {
+    if (a.length > b.length) {
+      String[] t = a;
+      a = b;
+      b = t;
+    }
+    for (String name : a) {
+      if (Arrays.binarySearch(b, name) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
 
-  // private void writeObject(java.io.ObjectOutputStream s) {}
-  //
-  // private void readObject(java.io.ObjectInputStream s) throws java.io.IOException,
-  // ClassNotFoundException {}
+  // names are written as interned String objects, which java serialization writes once per stream
+  // and replaces with back references for all subsequent occurrences
+
+  @Override
+  public void writeExternal(ObjectOutput out) throws IOException {
+    writeNames(out, qualifiedNameReferences);
+    writeNames(out, simpleNameReferences);
+    writeNames(out, rootReferences);
+  }
+
+  private static void writeNames(ObjectOutput out, String[] names) throws IOException {
+    out.writeInt(names.length);
+    for (String name : names) {
+      out.writeObject(name);
+    }
+  }
+
+  @Override
+  public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+    qualifiedNameReferences = readNames(in);
+    simpleNameReferences = readNames(in);
+    rootReferences = readNames(in);
+  }
+
+  private static String[] readNames(ObjectInput in) throws IOException, ClassNotFoundException {
+    String[] names = new String[in.readInt()];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = SymbolTable.intern((String) in.readObject());
+    }
+    return sort(names, names.length);
+  }
 }
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2014 Takari, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package io.takari.maven.plugins.compile.jdt;
+
+import java.io.Externalizable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index of {@link ReferenceCollection}s, maps referenced simple names to the sources that reference them. A source can only be affected by a change if it references one of the changed
+ * simple names, which allows {@link ReferenceCollection#includes(ReferenceCollection.Query)} to be evaluated for candidate sources only.
+ */
+public class ReferenceIndex implements Externalizable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Source to referenced simple names.
+   */
+  private final Map<File, String[]> references = new HashMap<>();
+
+  /**
+   * Simple name to sources that reference it.
+   */
+  private final Map<String, Set<File>> sources = new HashMap<>();
+
+  /**
+   * @noreference public no-argument constructor required by {@link Externalizable}
+   */
+  public ReferenceIndex() {}
+
+  public synchronized void put(File source, ReferenceCollection collection) {
+    remove(source);
+    String[] names = collection.simpleNameReferences;
+    references.put(source, names);
+    for (String name : names) {
+      add(name, source);
+    }
+  }
+
+  private void add(String name, File source) {
+    Set<File> files = sources.get(name);
+    if (files == null) {
+      sources.put(name, files = new LinkedHashSet<>());
+    }
+    files.add(source);
+  }
+
+  public synchronized void remove(File source) {
+    String[] names = references.remove(source);
+    if (names != null) {
+      for (String name : names) {
+        Set<File> files = sources.get(name);
+        if (files != null && files.remove(source) && files.isEmpty()) {
+          sources.remove(name);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns sources that reference any of the query simple names. The result is a superset of the sources whose {@link ReferenceCollection} includes the query.
+   */
+  public synchronized Set<File> getCandidates(ReferenceCollection.Query query) {
+    Set<File> candidates = new LinkedHashSet<>();
+    for (String name : query.simpleNames) {
+      Set<File> files = sources.get(name);
+      if (files != null) {
+        candidates.addAll(files);
+      }
+    }
+    return candidates;
+  }
+
+  @Override
+  public synchronized void writeExternal(ObjectOutput out) throws IOException {
+    out.writeInt(sources.size());
+    for (Map.Entry<String, Set<File>> entry : sources.entrySet()) {
+      out.writeObject(entry.getKey());
+      out.writeInt(entry.getValue().size());
+      for (File source : entry.getValue()) {
+        out.writeObject(source);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+    // source to referenced simple names
+    Map<File, List<String>> buffers = new HashMap<>();
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      String name = SymbolTable.intern((String) in.readObject());
+      int count = in.readInt();
+      for (int j = 0; j < count; j++) {
+        File source = (File) in.readObject();
+        add(name, source);
+        List<String> buffer = buffers.get(source);
+        if (buffer == null) {
+          buffers.put(source, buffer = new ArrayList<>());
+        }
+        buffer.add(name);
+      }
+    }
+    for (Map.Entry<File, List<String>> entry : buffers.entrySet()) {
+      String[] names = entry.getValue().toArray(new String[entry.getValue().size()]);
+      Arrays.sort(names);
+      references.put(entry.getKey(), names);
+    }
+  }
+}
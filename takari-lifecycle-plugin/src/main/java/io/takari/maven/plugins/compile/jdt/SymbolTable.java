@@ -0,0 +1,24 @@
+/**
+ * Copyright (c) 2014 Takari, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package io.takari.maven.plugins.compile.jdt;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Weak interner of names referenced by {@link ReferenceCollection}s. Collections of all sources of a project share one String instance per distinct name, which also lets java serialization
+ * write each distinct name once per stream. Names are garbage collected when no collection references them any more.
+ */
+class SymbolTable {
+
+  private static final Interner<String> NAMES = Interners.newWeakInterner();
+
+  public static String intern(String name) {
+    return NAMES.intern(name);
+  }
+}
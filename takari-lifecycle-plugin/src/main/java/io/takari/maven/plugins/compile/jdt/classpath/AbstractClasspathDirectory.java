@@ -4,36 +4,96 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
 import org.eclipse.jdt.internal.compiler.env.AccessRestriction;
 import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
 import org.osgi.framework.BundleException;
 
+import com.google.common.collect.ImmutableSet;
+
 abstract class AbstractClasspathDirectory extends DependencyClasspathEntry implements ClasspathEntry {
 
-  protected AbstractClasspathDirectory(File directory) {
-    super(directory, getPackageNames(directory), getExportedPackages(directory));
+  /**
+   * Package names and type name filter of a directory, collected in a single directory tree walk.
+   */
+  private static class DirectoryIndex {
+    final Set<String> packageNames = new HashSet<String>();
+
+    int[] typeHashes = new int[64];
+
+    int typeCount;
+
+    void addType(String qualifiedTypeName) {
+      if (typeCount == typeHashes.length) {
+        typeHashes = Arrays.copyOf(typeHashes, typeCount * 2);
+      }
+      typeHashes[typeCount++] = qualifiedTypeName.hashCode();
+    }
+  }
+
+  private final TypeNameFilter typeNameFilter;
+
+  /**
+   * File names of package directories, listed on first lookup in the package, so most lookups do not touch the filesystem. The listings are never refreshed, instead, cached entries are
+   * recreated when their directory {@code Stamp} changes, see {@code ClasspathEntryCache}.
+   */
+  private final ConcurrentMap<String, Set<String>> listings = new ConcurrentHashMap<>();
+
+  /**
+   * @param suffix file name suffix of the types provided by the directory, used to build {@link #getTypeNameFilter() type name filter}
+   */
+  protected AbstractClasspathDirectory(File directory, String suffix) {
+    this(directory, newDirectoryIndex(directory, suffix));
+  }
+
+  /**
+   * Creates directory entry from already known types, without walking the directory tree.
+   *
+   * @param types '/' separated qualified names of all types provided by the directory
+   */
+  protected AbstractClasspathDirectory(File directory, Collection<String> types) {
+    this(directory, newDirectoryIndex(types));
   }
 
-  protected static Set<String> getPackageNames(File directory) {
-    Set<String> packages = new HashSet<String>();
-    populatePackageNames(packages, directory, "");
-    return packages;
+  private AbstractClasspathDirectory(File directory, DirectoryIndex index) {
+    super(directory, index.packageNames, getExportedPackages(directory));
+    this.typeNameFilter = TypeNameFilter.create(index.typeHashes, index.typeCount);
   }
 
-  private static void populatePackageNames(Set<String> packageNames, File directory, String packageName) {
+  private static DirectoryIndex newDirectoryIndex(File directory, String suffix) {
+    DirectoryIndex index = new DirectoryIndex();
+    populateIndex(index, directory, "", suffix);
+    return index;
+  }
+
+  private static DirectoryIndex newDirectoryIndex(Collection<String> types) {
+    DirectoryIndex index = new DirectoryIndex();
+    for (String type : types) {
+      index.addType(type);
+      for (int idx = type.lastIndexOf('/'); idx > 0 && index.packageNames.add(type.substring(0, idx)); idx = type.lastIndexOf('/', idx - 1));
+    }
+    return index;
+  }
+
+  private static void populateIndex(DirectoryIndex index, File directory, String packageName, String suffix) {
     if (!packageName.isEmpty()) {
-      packageNames.add(packageName);
+      index.packageNames.add(packageName);
     }
     File[] files = directory.listFiles();
     if (files != null) {
       for (File file : files) {
+        String name = file.getName();
         if (file.isDirectory()) {
-          populatePackageNames(packageNames, file, childPackageName(packageName, file.getName()));
+          populateIndex(index, file, childPackageName(packageName, name), suffix);
+        } else if (name.endsWith(suffix)) {
+          index.addType(childPackageName(packageName, name.substring(0, name.length() - suffix.length())));
         }
       }
     }
@@ -43,6 +103,11 @@ abstract class AbstractClasspathDirectory extends DependencyClasspathEntry imple
     return packageName.isEmpty() ? childName : packageName + "/" + childName;
   }
 
+  @Override
+  public TypeNameFilter getTypeNameFilter() {
+    return typeNameFilter;
+  }
+
   @Override
   public NameEnvironmentAnswer findType(String packageName, String typeName, AccessRestriction accessRestriction) {
     try {
@@ -72,17 +137,31 @@ abstract class AbstractClasspathDirectory extends DependencyClasspathEntry imple
     return exportedPackages;
   }
 
-  public File getFile(String packageName, String typeName, String suffix) throws IOException {
-    String qualifiedFileName = packageName + "/" + typeName + suffix;
-    File file = new File(this.file, qualifiedFileName).getCanonicalFile();
-    if (!file.isFile()) {
+  /**
+   * Returns the file of the type or {@code null} if the directory does not have the file. Package and type names are matched case-exact, even on case-insensitive filesystems.
+   */
+  public File getFile(String packageName, String typeName, String suffix) {
+    if (!packageName.isEmpty() && !packageNames.contains(packageName)) {
       return null;
     }
-    // must respect package/type name case even on case-insensitive filesystems
-    if (!file.getPath().replace('\\', '/').endsWith(qualifiedFileName)) {
+    String fileName = typeName + suffix;
+    if (!getListing(packageName).contains(fileName)) {
       return null;
     }
-    return file;
+    return new File(packageName.isEmpty() ? file : new File(file, packageName), fileName);
+  }
+
+  private Set<String> getListing(String packageName) {
+    Set<String> listing = listings.get(packageName);
+    if (listing == null) {
+      String[] names = (packageName.isEmpty() ? file : new File(file, packageName)).list();
+      listing = names != null ? ImmutableSet.copyOf(names) : ImmutableSet.<String>of();
+      Set<String> existing = listings.putIfAbsent(packageName, listing);
+      if (existing != null) {
+        listing = existing;
+      }
+    }
+    return listing;
   }
 
 }
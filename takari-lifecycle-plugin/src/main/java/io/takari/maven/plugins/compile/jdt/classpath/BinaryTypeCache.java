@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2014 Takari, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package io.takari.maven.plugins.compile.jdt.classpath;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Parsed class files of jar classpath entries, shared by all compiler executions and incremental compile loop iterations.
+ * <p>
+ * Cache keys are classpath entry identity and class file name. Jar entries are recreated by {@code ClasspathEntryCache} when the jar changes on disk, so cached class files are never stale.
+ * Readers are fully initialized and do not reference class file bytes, which makes them safe to share among concurrent compilers.
+ * <p>
+ * The total heap retained by cached readers is limited by {@value #PROP_MAXSIZE} system property, in bytes, and defaults to 1/16 of the maximum heap size. Retained heap of a reader is
+ * estimated as {@value #WEIGHT_FACTOR} times class file size. Decoded names, signatures, fields, methods and annotations of a fully initialized reader take about 1 to 1.6 times class file size
+ * for typical jars, the JDK runtime library included.
+ */
+public class BinaryTypeCache {
+
+  /**
+   * System property that controls maximum estimated heap retained by cached class files.
+   */
+  public static final String PROP_MAXSIZE = "takari.binaryTypeCache.maxSize";
+
+  private static final int WEIGHT_FACTOR = 2;
+
+  static interface Loader {
+    byte[] load() throws IOException;
+  }
+
+  private static final class Key {
+    final Object entry;
+
+    final String fileName;
+
+    Key(Object entry, String fileName) {
+      this.entry = entry;
+      this.fileName = fileName;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(entry) + fileName.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return entry == other.entry && fileName.equals(other.fileName);
+    }
+  }
+
+  private static final class Value {
+    final ClassFileReader reader;
+
+    final int size;
+
+    Value(ClassFileReader reader, int size) {
+      this.reader = reader;
+      this.size = size;
+    }
+  }
+
+  private static final Cache<Key, Value> CACHE = CacheBuilder.newBuilder() //
+      .maximumWeight(Long.getLong(PROP_MAXSIZE, Runtime.getRuntime().maxMemory() / 16)) //
+      .weigher((Key key, Value value) -> WEIGHT_FACTOR * value.size) //
+      .build();
+
+  static ClassFileReader get(Object entry, String fileName, Loader loader) throws IOException, ClassFormatException {
+    try {
+      return CACHE.get(new Key(entry, fileName), () -> {
+        byte[] bytes = loader.load();
+        return new Value(new ClassFileReader(bytes, fileName.toCharArray(), true /* fullyInitialize */), bytes.length);
+      }).reader;
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof ClassFormatException) {
+        throw (ClassFormatException) cause;
+      }
+      throw new IllegalStateException("Could not read class file " + fileName, cause);
+    }
+  }
+
+  /**
+   * @noreference this method is public for test purposes only
+   */
+  public static void flush() {
+    CACHE.invalidateAll();
+  }
+}
@@ -10,36 +10,27 @@ package io.takari.maven.plugins.compile.jdt.classpath;
 import java.util.Collection;
 import java.util.List;
 
-import org.eclipse.jdt.core.compiler.CharOperation;
 import org.eclipse.jdt.internal.compiler.env.INameEnvironment;
 import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
 
-import com.google.common.collect.ImmutableMultimap;
-import com.google.common.collect.LinkedHashMultimap;
-import com.google.common.collect.Multimap;
-
 public class Classpath implements INameEnvironment {
 
   private final List<ClasspathEntry> entries;
 
+  private final ClasspathEntry[] entriesArray;
+
   private final List<MutableClasspathEntry> mutableentries;
 
-  private Multimap<String, ClasspathEntry> packages;
+  private PackageIndex packages;
+
+  // type name filter statistics
+  private long filterHits, filterMisses, filterFalsePositives;
 
   public Classpath(List<ClasspathEntry> entries, List<MutableClasspathEntry> localentries) {
     this.entries = entries;
+    this.entriesArray = entries.toArray(new ClasspathEntry[entries.size()]);
     this.mutableentries = localentries;
-    this.packages = newPackageIndex(entries);
-  }
-
-  private static Multimap<String, ClasspathEntry> newPackageIndex(List<ClasspathEntry> entries) {
-    Multimap<String, ClasspathEntry> classpath = LinkedHashMultimap.create();
-    for (ClasspathEntry entry : entries) {
-      for (String packageName : entry.getPackageNames()) {
-        classpath.put(packageName, entry);
-      }
-    }
-    return ImmutableMultimap.copyOf(classpath); // preserves order
+    this.packages = PackageIndex.create(entries);
   }
 
   @Override
@@ -48,30 +39,68 @@ public class Classpath implements INameEnvironment {
       return null;
     }
     int typeNameIndex = compoundTypeName.length - 1;
-    char[][] packageName = CharOperation.subarray(compoundTypeName, 0, typeNameIndex);
-    return findType(new String(CharOperation.concatWith(packageName, '/')), new String(compoundTypeName[typeNameIndex]));
+    return findType(compoundTypeName, typeNameIndex, compoundTypeName[typeNameIndex]);
   }
 
   @Override
   public NameEnvironmentAnswer findType(char[] typeName, char[][] packageName) {
-    return findType(new String(CharOperation.concatWith(packageName, '/')), new String(typeName));
+    return findType(packageName, packageName != null ? packageName.length : 0, typeName);
+  }
+
+  private NameEnvironmentAnswer findType(char[][] packageName, int packageNameLength, char[] typeName) {
+    ClasspathEntry[] entries;
+    String packageNameString;
+    if (isDefaultPackage(packageName, packageNameLength)) {
+      entries = entriesArray;
+      packageNameString = "";
+    } else {
+      int slot = packages.find(packageName, packageNameLength, null);
+      if (slot < 0) {
+        return null;
+      }
+      entries = packages.getEntries(slot);
+      packageNameString = packages.getPackageName(slot);
+    }
+    return findType(entries, packageNameString, typeName);
+  }
+
+  private static boolean isDefaultPackage(char[][] packageName, int packageNameLength) {
+    for (int i = 0; i < packageNameLength; i++) {
+      if (packageName[i] != null && packageName[i].length > 0) {
+        return false;
+      }
+    }
+    return true;
   }
 
-  private NameEnvironmentAnswer findType(String packageName, String typeName) {
+  private NameEnvironmentAnswer findType(ClasspathEntry[] entries, String packageName, char[] typeName) {
+    int hash = TypeNameFilter.hash(packageName, typeName);
+    String typeNameString = null;
     NameEnvironmentAnswer suggestedAnswer = null;
-    Collection<ClasspathEntry> entries = !packageName.isEmpty() ? packages.get(packageName) : this.entries;
-    if (entries != null) {
-      for (ClasspathEntry entry : entries) {
-        NameEnvironmentAnswer answer = entry.findType(packageName, typeName);
-        if (answer != null) {
-          if (!answer.ignoreIfBetter()) {
-            if (answer.isBetter(suggestedAnswer)) {
-              return answer;
-            }
-          } else if (answer.isBetter(suggestedAnswer)) {
-            // remember suggestion and keep looking
-            suggestedAnswer = answer;
+    for (ClasspathEntry entry : entries) {
+      TypeNameFilter filter = entry.getTypeNameFilter();
+      if (filter != null) {
+        if (!filter.mightContain(hash)) {
+          filterMisses++;
+          continue;
+        }
+        filterHits++;
+      }
+      if (typeNameString == null) {
+        typeNameString = new String(typeName);
+      }
+      NameEnvironmentAnswer answer = entry.findType(packageName, typeNameString);
+      if (answer == null && filter != null) {
+        filterFalsePositives++;
+      }
+      if (answer != null) {
+        if (!answer.ignoreIfBetter()) {
+          if (answer.isBetter(suggestedAnswer)) {
+            return answer;
           }
+        } else if (answer.isBetter(suggestedAnswer)) {
+          // remember suggestion and keep looking
+          suggestedAnswer = answer;
         }
       }
     }
@@ -80,8 +109,7 @@ public class Classpath implements INameEnvironment {
 
   @Override
   public boolean isPackage(char[][] parentPackageName, char[] packageName) {
-    String name = new String(CharOperation.concatWith(parentPackageName, packageName, '/'));
-    return packages.containsKey(name);
+    return packages.find(parentPackageName, parentPackageName != null ? parentPackageName.length : 0, packageName) >= 0;
   }
 
   @Override
@@ -94,12 +122,35 @@ public class Classpath implements INameEnvironment {
       return;
     }
     for (MutableClasspathEntry entry : mutableentries) {
-      entry.reset();
+      Collection<String> packageNames = entry.reset();
+      if (!packageNames.isEmpty()) {
+        packages = packages.add(entries, entry, packageNames);
+      }
     }
-    packages = newPackageIndex(entries);
   }
 
   public List<ClasspathEntry> getEntries() {
     return entries;
   }
+
+  /**
+   * Returns number of entry lookups that passed {@link TypeNameFilter type name filter}.
+   */
+  public long getFilterHits() {
+    return filterHits;
+  }
+
+  /**
+   * Returns number of entry lookups skipped by {@link TypeNameFilter type name filter}.
+   */
+  public long getFilterMisses() {
+    return filterMisses;
+  }
+
+  /**
+   * Returns number of entry lookups that passed {@link TypeNameFilter type name filter} but did not find the type.
+   */
+  public long getFilterFalsePositives() {
+    return filterFalsePositives;
+  }
 }
@@ -11,6 +11,7 @@ import static org.eclipse.jdt.internal.compiler.util.SuffixConstants.SUFFIX_STRI
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 
 import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
 import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
@@ -20,7 +21,11 @@ import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
 public class ClasspathDirectory extends AbstractClasspathDirectory implements ClasspathEntry {
 
   private ClasspathDirectory(File directory) {
-    super(directory);
+    super(directory, SUFFIX_STRING_class);
+  }
+
+  private ClasspathDirectory(File directory, Collection<String> types) {
+    super(directory, types);
   }
 
   @Override
@@ -41,4 +46,11 @@ public class ClasspathDirectory extends AbstractClasspathDirectory implements Cl
     return new ClasspathDirectory(directory);
   }
 
+  /**
+   * Creates classpath entry of a directory with the given '/' separated qualified type names, for example, as published by the compiler that produced the directory.
+   */
+  public static ClasspathDirectory create(File directory, Collection<String> types) {
+    return new ClasspathDirectory(directory, types);
+  }
+
 }
@@ -17,5 +17,10 @@ public interface ClasspathEntry {
 
   NameEnvironmentAnswer findType(String packageName, String typeName);
 
+  /**
+   * Returns filter of types this entry may contain, or {@code null} if all types have to be looked up in the entry.
+   */
+  TypeNameFilter getTypeNameFilter();
+
   String getEntryDescription();
 }
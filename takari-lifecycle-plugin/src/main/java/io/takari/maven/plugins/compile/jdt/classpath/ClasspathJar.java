@@ -9,15 +9,11 @@ package io.takari.maven.plugins.compile.jdt.classpath;
 
 import static org.eclipse.jdt.internal.compiler.util.SuffixConstants.SUFFIX_STRING_class;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
-import java.util.Enumeration;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
 import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
@@ -25,36 +21,73 @@ import org.eclipse.jdt.internal.compiler.env.AccessRestriction;
 import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
 import org.osgi.framework.BundleException;
 
+/**
+ * Jar file classpath entry. Jar file contents are accessed through {@link MappedZipFile}, package names are indexed on first use, parsed class files are cached in {@link BinaryTypeCache}.
+ * Only immutable jar files are memory-mapped, only the central directory of other jar files is kept in memory and their entries are read from disk on demand.
+ */
 public class ClasspathJar extends DependencyClasspathEntry implements ClasspathEntry {
 
-  private final ZipFile zipFile;
+  /**
+   * Mapped zip file or {@code null} if this entry was {@link #close() closed}.
+   */
+  private volatile MappedZipFile zipFile;
+
+  private final boolean immutable;
 
-  private ClasspathJar(File file, ZipFile zipFile, Collection<String> packageNames, Collection<String> exportedPackages) throws IOException {
-    super(file, packageNames, exportedPackages);
+  private ClasspathJar(File file, MappedZipFile zipFile, boolean immutable, Collection<String> exportedPackages) {
+    super(file, exportedPackages);
     this.zipFile = zipFile;
+    this.immutable = immutable;
   }
 
-  private static Set<String> getPackageNames(ZipFile zipFile) {
-    Set<String> result = new HashSet<String>();
-    for (Enumeration e = zipFile.entries(); e.hasMoreElements();) {
-      ZipEntry entry = (ZipEntry) e.nextElement();
-      String name = entry.getName();
-      int last = name.lastIndexOf('/');
-      while (last > 0) {
-        name = name.substring(0, last);
-        result.add(name);
-        last = name.lastIndexOf('/');
+  private MappedZipFile getZipFile() throws IOException {
+    MappedZipFile zipFile = this.zipFile;
+    if (zipFile == null) {
+      synchronized (this) {
+        zipFile = this.zipFile;
+        if (zipFile == null) {
+          // the entry was evicted from ClasspathEntryCache but is still used by a compiler
+          this.zipFile = zipFile = MappedZipFile.open(file, immutable);
+        }
       }
     }
-    return result;
+    return zipFile;
+  }
+
+  /**
+   * Drops reference to the jar file contents, which are released when no longer used by concurrent readers.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    this.zipFile = null;
+  }
+
+  @Override
+  public Collection<String> getPackageNames() {
+    try {
+      return getZipFile().getPackageNames();
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not read jar file " + file, e);
+    }
+  }
+
+  @Override
+  public TypeNameFilter getTypeNameFilter() {
+    try {
+      return getZipFile().getTypeNameFilter();
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not read jar file " + file, e);
+    }
   }
 
   @Override
   public NameEnvironmentAnswer findType(String packageName, String typeName, AccessRestriction accessRestriction) {
     try {
-      String qualifiedFileName = packageName + "/" + typeName + SUFFIX_STRING_class;
-      ClassFileReader reader = ClassFileReader.read(this.zipFile, qualifiedFileName);
-      if (reader != null) {
+      MappedZipFile zipFile = getZipFile();
+      int entry = zipFile.getEntry(packageName, typeName, SUFFIX_STRING_class);
+      if (entry >= 0) {
+        String fileName = packageName + "/" + typeName + SUFFIX_STRING_class;
+        ClassFileReader reader = BinaryTypeCache.get(this, fileName, () -> zipFile.getBytes(entry));
         return new NameEnvironmentAnswer(reader, accessRestriction);
       }
     } catch (ClassFormatException | IOException e) {
@@ -68,27 +101,29 @@ public class ClasspathJar extends DependencyClasspathEntry implements ClasspathE
     return "Classpath for jar file " + file.getPath(); //$NON-NLS-1$
   }
 
-  public static ClasspathJar create(File file) throws IOException {
-    ZipFile zipFile = new ZipFile(file);
-    Set<String> packageNames = getPackageNames(zipFile);
+  /**
+   * Creates jar file classpath entry. Immutable jar files, i.e. files that are never modified or replaced while the JVM runs, are memory-mapped.
+   */
+  public static ClasspathJar create(File file, boolean immutable) throws IOException {
+    MappedZipFile zipFile = MappedZipFile.open(file, immutable);
     Collection<String> exportedPackages = null;
     // TODO do not look for exported packages in java standard library
-    ZipEntry entry = zipFile.getEntry(PATH_EXPORT_PACKAGE);
-    if (entry != null) {
-      try (InputStream is = zipFile.getInputStream(entry)) {
+    int entry = zipFile.getEntry(PATH_EXPORT_PACKAGE);
+    if (entry >= 0) {
+      try (InputStream is = new ByteArrayInputStream(zipFile.getBytes(entry))) {
         exportedPackages = parseExportPackage(is);
       }
     }
     if (exportedPackages == null) {
       entry = zipFile.getEntry(PATH_MANIFESTMF);
-      if (entry != null) {
-        try (InputStream is = zipFile.getInputStream(entry)) {
+      if (entry >= 0) {
+        try (InputStream is = new ByteArrayInputStream(zipFile.getBytes(entry))) {
           exportedPackages = parseBundleManifest(is);
         } catch (BundleException e) {
           // silently ignore bundle manifest parsing problems
         }
       }
     }
-    return new ClasspathJar(file, zipFile, packageNames, exportedPackages);
+    return new ClasspathJar(file, zipFile, immutable, exportedPackages);
   }
 }
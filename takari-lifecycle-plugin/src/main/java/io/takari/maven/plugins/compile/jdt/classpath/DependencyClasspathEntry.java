@@ -1,5 +1,6 @@
 package io.takari.maven.plugins.compile.jdt.classpath;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -26,7 +27,7 @@ import com.google.common.io.LineProcessor;
 
 import io.takari.maven.plugins.exportpackage.ExportPackageMojo;
 
-public abstract class DependencyClasspathEntry implements ClasspathEntry {
+public abstract class DependencyClasspathEntry implements ClasspathEntry, Closeable {
 
   protected static final String PATH_EXPORT_PACKAGE = ExportPackageMojo.PATH_EXPORT_PACKAGE;
 
@@ -34,16 +35,33 @@ public abstract class DependencyClasspathEntry implements ClasspathEntry {
 
   protected final File file;
 
+  /**
+   * Package names of this entry or {@code null} if the entry computes package names on demand.
+   */
   protected final Set<String> packageNames;
 
   protected final Set<String> exportedPackages;
 
+  /**
+   * Access restriction shared by all packages not exported by this entry, created on first use.
+   */
+  private volatile AccessRestriction forbiddenReference;
+
   protected DependencyClasspathEntry(File file, Collection<String> packageNames, Collection<String> exportedPackages) {
     this.file = normalize(file);
     this.packageNames = ImmutableSet.copyOf(packageNames);
     this.exportedPackages = exportedPackages != null ? ImmutableSet.<String>copyOf(exportedPackages) : null;
   }
 
+  /**
+   * Creates classpath entry that overrides {@link #getPackageNames()}.
+   */
+  protected DependencyClasspathEntry(File file, Collection<String> exportedPackages) {
+    this.file = normalize(file);
+    this.packageNames = null;
+    this.exportedPackages = exportedPackages != null ? ImmutableSet.<String>copyOf(exportedPackages) : null;
+  }
+
   private static File normalize(File file) {
     try {
       return file.getCanonicalFile();
@@ -55,8 +73,12 @@ public abstract class DependencyClasspathEntry implements ClasspathEntry {
 
   protected AccessRestriction getAccessRestriction(String packageName) {
     if (exportedPackages != null && !exportedPackages.contains(packageName)) {
-      AccessRule rule = new AccessRule(null /* pattern */, IProblem.ForbiddenReference, true /* keep looking for accessible type */);
-      return new AccessRestriction(rule, AccessRestriction.COMMAND_LINE, getEntryName());
+      AccessRestriction restriction = forbiddenReference;
+      if (restriction == null) {
+        AccessRule rule = new AccessRule(null /* pattern */, IProblem.ForbiddenReference, true /* keep looking for accessible type */);
+        forbiddenReference = restriction = new AccessRestriction(rule, AccessRestriction.COMMAND_LINE, getEntryName());
+      }
+      return restriction;
     }
     return null;
   }
@@ -131,4 +153,10 @@ public abstract class DependencyClasspathEntry implements ClasspathEntry {
   public String getEntryName() {
     return file.getAbsolutePath();
   }
+
+  /**
+   * Releases file handles held by this classpath entry, if any. Entries remain usable after close and reacquire the handles on demand.
+   */
+  @Override
+  public void close() throws IOException {}
 }
@@ -0,0 +1,649 @@
+/**
+ * Copyright (c) 2014 Takari, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package io.takari.maven.plugins.compile.jdt.classpath;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import org.eclipse.jdt.internal.compiler.util.SuffixConstants;
+
+/**
+ * Read-only zip file backed by memory-mapped file contents, or by a heap copy of the central directory for zip files that can change on disk.
+ * <p>
+ * Mappings are released by garbage collection only. Access to a mapped file that was truncated or rewritten in place can crash the JVM and, on Windows, mapped files cannot be deleted or
+ * replaced, so only immutable files must be mapped. Entries of zip files that are not mapped are read with positional reads, the file is opened for each read and is not kept open.
+ * <p>
+ * Only the end of central directory record is read when the zip file is opened. The name lookup table and the package index are built lazily from the central directory on first use. The lookup
+ * table references entry names in the mapping directly and hashes/compares names byte-by-byte, so neither building the index nor lookups allocate per-entry objects. Entry contents are copied (or
+ * inflated) straight from the mapping or the file into a byte array of the exact entry size.
+ * <p>
+ * This class is thread safe.
+ */
+class MappedZipFile {
+
+  private static final int ENDSIG = 0x06054b50;
+
+  private static final int ENDHDR = 22;
+
+  private static final int ZIP64_LOCSIG = 0x07064b50;
+
+  private static final int ZIP64_LOCHDR = 20;
+
+  private static final int ZIP64_ENDSIG = 0x06064b50;
+
+  private static final int CENSIG = 0x02014b50;
+
+  private static final int CENHDR = 46;
+
+  private static final int LOCSIG = 0x04034b50;
+
+  private static final int LOCHDR = 30;
+
+  private static final int ZIP64_EXTID = 0x0001;
+
+  private static final int STORED = 0;
+
+  private static final int DEFLATED = 8;
+
+  private static final byte[] CLASS_SUFFIX = SuffixConstants.SUFFIX_STRING_class.getBytes(StandardCharsets.US_ASCII);
+
+  private static final long ZIP64_MAGICVAL = 0xFFFFFFFFL;
+
+  private static final int ZIP64_MAGICCOUNT = 0xFFFF;
+
+  /**
+   * Per-thread inflater and compressed data buffer.
+   */
+  private static class InflaterHolder {
+    final Inflater inflater = new Inflater(true /* nowrap */);
+
+    byte[] buffer = new byte[8 * 1024];
+  }
+
+  private static final ThreadLocal<InflaterHolder> INFLATER = new ThreadLocal<InflaterHolder>() {
+    @Override
+    protected InflaterHolder initialValue() {
+      return new InflaterHolder();
+    }
+  };
+
+  /**
+   * Central directory index, built on first use.
+   */
+  private static class Index {
+    /**
+     * Positions of central directory file headers.
+     */
+    final int[] entries;
+
+    final int[] hashes;
+
+    /**
+     * Open addressing hash table of {@code entries} indexes plus one, zero denotes empty slot.
+     */
+    final int[] table;
+
+    final Set<String> packageNames;
+
+    final TypeNameFilter typeNameFilter;
+
+    Index(int[] entries, int[] hashes, int[] table, Set<String> packageNames, TypeNameFilter typeNameFilter) {
+      this.entries = entries;
+      this.hashes = hashes;
+      this.table = table;
+      this.packageNames = packageNames;
+      this.typeNameFilter = typeNameFilter;
+    }
+  }
+
+  private final File file;
+
+  /**
+   * Mapped file or heap copy of the central directory.
+   */
+  private final ByteBuffer buffer;
+
+  /**
+   * File position of the buffer, zero for mapped files.
+   */
+  private final long offset;
+
+  private final boolean mapped;
+
+  /**
+   * Offset of the zip file within the mapped file, non-zero for zip files with prepended data.
+   */
+  private final int base;
+
+  private final int cenStart;
+
+  private final int cenEnd;
+
+  private final int entryCount;
+
+  private volatile Index index;
+
+  private MappedZipFile(File file, ByteBuffer buffer, long offset, boolean mapped) throws IOException {
+    this.file = file;
+    this.buffer = buffer;
+    this.offset = offset;
+    this.mapped = mapped;
+
+    int end = findEndOfCentralDirectory();
+    long entryCount = u16(end + 10);
+    long cenSize = u32(end + 12);
+    long cenOffset = u32(end + 16);
+    long cenEnd = end;
+    if (entryCount == ZIP64_MAGICCOUNT || cenSize == ZIP64_MAGICVAL || cenOffset == ZIP64_MAGICVAL) {
+      int locator = end - ZIP64_LOCHDR;
+      if (locator >= offset && getInt(locator) == ZIP64_LOCSIG) {
+        long zip64end = getLong(locator + 8);
+        if (zip64end < offset || zip64end > locator - 56 || getInt((int) zip64end) != ZIP64_ENDSIG) {
+          throw new ZipException("Invalid zip64 end of central directory record " + file);
+        }
+        entryCount = getLong((int) zip64end + 32);
+        cenSize = getLong((int) zip64end + 40);
+        cenOffset = getLong((int) zip64end + 48);
+        cenEnd = zip64end;
+      }
+    }
+    long base = cenEnd - cenSize - cenOffset;
+    if (base < 0 || cenSize < 0 || entryCount < 0 || entryCount > cenSize / CENHDR) {
+      throw new ZipException("Invalid central directory " + file);
+    }
+    this.base = (int) base;
+    this.cenStart = (int) (cenEnd - cenSize);
+    this.cenEnd = (int) cenEnd;
+    this.entryCount = (int) entryCount;
+  }
+
+  /**
+   * Opens the zip file. If {@code map} is {@code false}, only the central directory is read into memory and the file is not kept open.
+   */
+  public static MappedZipFile open(File file, boolean map) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new ZipException("Zip file is too large " + file);
+      }
+      if (map) {
+        // the mapping remains valid after the channel is closed
+        return new MappedZipFile(file, channel.map(MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN), 0, true);
+      }
+      // end of central directory record, its comment and zip64 end of central directory locator and record
+      long tail = Math.max(0, size - ENDHDR - 0xFFFF - ZIP64_LOCHDR - 56);
+      MappedZipFile zipFile = new MappedZipFile(file, read(channel, tail, size), tail, false);
+      if (zipFile.cenStart < tail) {
+        zipFile = new MappedZipFile(file, read(channel, zipFile.cenStart, size), zipFile.cenStart, false);
+      }
+      return zipFile;
+    }
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, long limit) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate((int) (limit - position));
+    while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+      // read fully
+    }
+    buffer.flip();
+    return buffer.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private int findEndOfCentralDirectory() throws ZipException {
+    int limit = (int) offset + buffer.limit();
+    int min = (int) Math.max(offset, limit - ENDHDR - 0xFFFF /* max comment length */);
+    for (int pos = limit - ENDHDR; pos >= min; pos--) {
+      if (getInt(pos) == ENDSIG && pos + ENDHDR + u16(pos + 20) <= limit) {
+        return pos;
+      }
+    }
+    throw new ZipException("Not a zip file " + file);
+  }
+
+  /**
+   * Returns all package names, i.e. all entry name directory prefixes, using '/' as separator.
+   */
+  public Set<String> getPackageNames() {
+    return index().packageNames;
+  }
+
+  /**
+   * Returns filter of the class files contained in this zip file.
+   */
+  public TypeNameFilter getTypeNameFilter() {
+    return index().typeNameFilter;
+  }
+
+  /**
+   * Returns opaque entry handle of {@code packageName + '/' + typeName + suffix} entry, or {@code -1} if there is no such entry.
+   */
+  public int getEntry(String packageName, String typeName, String suffix) {
+    return getEntry(index(), packageName, typeName, suffix);
+  }
+
+  /**
+   * Returns opaque entry handle of the entry with the specified name, or {@code -1} if there is no such entry.
+   * <p>
+   * Scans the central directory if the index has not been built yet, which allows individual entries to be read without indexing the entire zip file.
+   */
+  public int getEntry(String name) {
+    Index index = this.index;
+    if (index != null) {
+      return getEntry(index, name, null, null);
+    }
+    if (!isAscii(name)) {
+      return getEntry(index(), name, null, null);
+    }
+    int pos = cenStart;
+    for (int count = 0; count < entryCount && pos + CENHDR <= cenEnd && getInt(pos) == CENSIG; count++) {
+      int nameLength = u16(pos + 28);
+      if (nameLength == name.length() && matches(pos + CENHDR, pos + CENHDR + nameLength, name) >= 0) {
+        return pos;
+      }
+      pos += CENHDR + nameLength + u16(pos + 30) + u16(pos + 32);
+    }
+    return -1;
+  }
+
+  private int getEntry(Index index, String packageName, String typeName, String suffix) {
+    if (!isAscii(packageName) || !isAscii(typeName) || !isAscii(suffix)) {
+      return getEntry(index, toBytes(packageName, typeName, suffix));
+    }
+    int hash = hash(0, packageName);
+    if (typeName != null) {
+      hash = hash(31 * hash + '/', typeName);
+    }
+    hash = hash(hash, suffix);
+    int mask = index.table.length - 1;
+    for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+      int idx = index.table[slot] - 1;
+      if (idx < 0) {
+        return -1;
+      }
+      if (index.hashes[idx] == hash) {
+        int cen = index.entries[idx];
+        int name = cen + CENHDR;
+        int nameLength = u16(cen + 28);
+        int pos = name;
+        pos = matches(pos, name + nameLength, packageName);
+        if (typeName != null) {
+          pos = pos >= 0 && pos < name + nameLength && getByte(pos) == '/' ? matches(pos + 1, name + nameLength, typeName) : -1;
+        }
+        pos = pos >= 0 ? matches(pos, name + nameLength, suffix) : -1;
+        if (pos == name + nameLength) {
+          return cen;
+        }
+      }
+    }
+  }
+
+  private int getEntry(Index index, byte[] bytes) {
+    int hash = 0;
+    for (byte b : bytes) {
+      hash = 31 * hash + (b & 0xFF);
+    }
+    int mask = index.table.length - 1;
+    for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+      int idx = index.table[slot] - 1;
+      if (idx < 0) {
+        return -1;
+      }
+      if (index.hashes[idx] == hash) {
+        int cen = index.entries[idx];
+        if (u16(cen + 28) == bytes.length) {
+          boolean equal = true;
+          for (int i = 0; i < bytes.length && equal; i++) {
+            equal = getByte(cen + CENHDR + i) == bytes[i];
+          }
+          if (equal) {
+            return cen;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the position immediately after {@code string} if buffer contents at {@code pos} match the string, {@code -1} otherwise.
+   */
+  private int matches(int pos, int limit, String string) {
+    if (string == null) {
+      return pos;
+    }
+    int length = string.length();
+    if (pos + length > limit) {
+      return -1;
+    }
+    for (int i = 0; i < length; i++) {
+      if (getByte(pos + i) != string.charAt(i)) {
+        return -1;
+      }
+    }
+    return pos + length;
+  }
+
+  private static int hash(int hash, String string) {
+    if (string != null) {
+      for (int i = 0; i < string.length(); i++) {
+        hash = 31 * hash + string.charAt(i);
+      }
+    }
+    return hash;
+  }
+
+  private static boolean isAscii(String string) {
+    if (string != null) {
+      for (int i = 0; i < string.length(); i++) {
+        if (string.charAt(i) >= 0x80) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static byte[] toBytes(String packageName, String typeName, String suffix) {
+    StringBuilder sb = new StringBuilder(packageName);
+    if (typeName != null) {
+      sb.append('/').append(typeName);
+    }
+    if (suffix != null) {
+      sb.append(suffix);
+    }
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns uncompressed contents of the entry.
+   */
+  public byte[] getBytes(int entry) throws IOException {
+    int cen = entry;
+    if ((u16(cen + 8) & 1) != 0) {
+      throw new ZipException("Encrypted zip entry " + getName(cen));
+    }
+    int method = u16(cen + 10);
+    long compressedSize = u32(cen + 20);
+    long size = u32(cen + 24);
+    long offset = u32(cen + 42);
+    if (compressedSize == ZIP64_MAGICVAL || size == ZIP64_MAGICVAL || offset == ZIP64_MAGICVAL) {
+      // zip64 extended information extra field
+      int extra = cen + CENHDR + u16(cen + 28);
+      int extraEnd = extra + u16(cen + 30);
+      while (extra + 4 <= extraEnd) {
+        int id = u16(extra);
+        int length = u16(extra + 2);
+        if (id == ZIP64_EXTID) {
+          int pos = extra + 4;
+          if (size == ZIP64_MAGICVAL) {
+            size = getLong(pos);
+            pos += 8;
+          }
+          if (compressedSize == ZIP64_MAGICVAL) {
+            compressedSize = getLong(pos);
+            pos += 8;
+          }
+          if (offset == ZIP64_MAGICVAL) {
+            offset = getLong(pos);
+          }
+          break;
+        }
+        extra += 4 + length;
+      }
+    }
+    long loc = base + offset;
+    if (loc < 0 || loc + LOCHDR > cenStart) {
+      throw new ZipException("Invalid local file header " + getName(cen));
+    }
+    try (FileChannel channel = mapped ? null : FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      byte[] header = new byte[LOCHDR];
+      read(channel, loc, header, LOCHDR, cen);
+      ByteBuffer local = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+      if (local.getInt(0) != LOCSIG) {
+        throw new ZipException("Invalid local file header " + getName(cen));
+      }
+      long data = loc + LOCHDR + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+      if (size > Integer.MAX_VALUE || compressedSize < 0 || data + compressedSize > cenStart) {
+        throw new ZipException("Invalid zip entry size " + getName(cen));
+      }
+      byte[] bytes = new byte[(int) size];
+      switch (method) {
+        case STORED:
+          if (compressedSize != size) {
+            throw new ZipException("Invalid stored zip entry size " + getName(cen));
+          }
+          read(channel, data, bytes, bytes.length, cen);
+          break;
+        case DEFLATED:
+          inflate(channel, data, (int) compressedSize, bytes, cen);
+          break;
+        default:
+          throw new ZipException("Unsupported compression method " + method + " " + getName(cen));
+      }
+      return bytes;
+    }
+  }
+
+  /**
+   * Reads file contents from the mapping, if {@code channel} is {@code null}, or from the file.
+   */
+  private void read(FileChannel channel, long position, byte[] bytes, int length, int cen) throws IOException {
+    if (channel == null) {
+      ByteBuffer source = buffer.duplicate();
+      source.position((int) position);
+      source.get(bytes, 0, length);
+      return;
+    }
+    ByteBuffer target = ByteBuffer.wrap(bytes, 0, length);
+    while (target.hasRemaining()) {
+      if (channel.read(target, position + target.position()) < 0) {
+        throw new ZipException("Unexpected end of zip file " + getName(cen));
+      }
+    }
+  }
+
+  private void inflate(FileChannel channel, long position, int compressedSize, byte[] bytes, int cen) throws IOException {
+    InflaterHolder holder = INFLATER.get();
+    if (holder.buffer.length < compressedSize + 1) {
+      holder.buffer = new byte[compressedSize + 1];
+    }
+    byte[] input = holder.buffer;
+    read(channel, position, input, compressedSize, cen);
+    input[compressedSize] = 0; // "nowrap" inflater may need an extra dummy byte
+    Inflater inflater = holder.inflater;
+    try {
+      inflater.setInput(input, 0, compressedSize + 1);
+      int length = 0;
+      while (length < bytes.length) {
+        int n = inflater.inflate(bytes, length, bytes.length - length);
+        if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        length += n;
+      }
+      if (length != bytes.length) {
+        throw new ZipException("Invalid zip entry size " + getName(cen));
+      }
+    } catch (DataFormatException e) {
+      ZipException exception = new ZipException("Invalid compressed zip entry " + getName(cen));
+      exception.initCause(e);
+      throw exception;
+    } finally {
+      inflater.reset();
+    }
+  }
+
+  private String getName(int cen) {
+    return file + "!/" + decode(cen + CENHDR, u16(cen + 28));
+  }
+
+  private Index index() {
+    Index index = this.index;
+    if (index == null) {
+      synchronized (this) {
+        index = this.index;
+        if (index == null) {
+          this.index = index = newIndex();
+        }
+      }
+    }
+    return index;
+  }
+
+  private Index newIndex() {
+    int[] entries = new int[entryCount];
+    int[] hashes = new int[entryCount];
+    int[] typeHashes = new int[entryCount];
+    int typeCount = 0;
+    Set<String> packageNames = new HashSet<>();
+
+    // position and length of the last directory prefix added to packageNames
+    // zip entries are usually grouped by directory, which allows to skip most entries without decoding their names
+    int lastDirectory = -1, lastDirectoryLength = 0;
+
+    int count = 0;
+    int pos = cenStart;
+    while (count < entryCount && pos + CENHDR <= cenEnd && getInt(pos) == CENSIG) {
+      int name = pos + CENHDR;
+      int nameLength = u16(pos + 28);
+      if (name + nameLength > cenEnd) {
+        break; // corrupted central directory
+      }
+
+      int hash = 0;
+      int typeHash = 0; // hash of the name without .class suffix
+      boolean ascii = true;
+      int directoryLength = -1;
+      for (int i = 0; i < nameLength; i++) {
+        if (i == nameLength - CLASS_SUFFIX.length) {
+          typeHash = hash;
+        }
+        byte b = getByte(name + i);
+        hash = 31 * hash + (b & 0xFF);
+        ascii &= b >= 0;
+        if (b == '/') {
+          directoryLength = i;
+        }
+      }
+      entries[count] = pos;
+      hashes[count] = hash;
+      count++;
+
+      if (nameLength > CLASS_SUFFIX.length && regionEquals(name + nameLength - CLASS_SUFFIX.length, CLASS_SUFFIX)) {
+        if (!ascii) {
+          String typeName = decode(name, nameLength);
+          typeHash = typeName.substring(0, typeName.length() - CLASS_SUFFIX.length).hashCode();
+        }
+        typeHashes[typeCount++] = typeHash;
+      }
+
+      if (directoryLength > 0 && !regionEquals(name, lastDirectory, directoryLength, lastDirectoryLength)) {
+        String packageName = decode(name, directoryLength);
+        while (packageNames.add(packageName)) {
+          int idx = packageName.lastIndexOf('/');
+          if (idx <= 0) {
+            break;
+          }
+          packageName = packageName.substring(0, idx);
+        }
+        lastDirectory = name;
+        lastDirectoryLength = directoryLength;
+      }
+
+      pos = name + nameLength + u16(pos + 30) + u16(pos + 32);
+    }
+
+    int[] table = new int[Math.max(2, Integer.highestOneBit(Math.max(count, 1)) << 2)];
+    int mask = table.length - 1;
+    for (int i = 0; i < count; i++) {
+      int slot = hashes[i] & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = i + 1;
+    }
+
+    return new Index(entries, hashes, table, Collections.unmodifiableSet(packageNames), TypeNameFilter.create(typeHashes, typeCount));
+  }
+
+  private boolean regionEquals(int pos, byte[] bytes) {
+    for (int i = 0; i < bytes.length; i++) {
+      if (getByte(pos + i) != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean regionEquals(int a, int b, int length, int otherLength) {
+    if (b < 0 || length != otherLength) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (getByte(a + i) != getByte(b + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String decode(int pos, int length) {
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      byte b = getByte(pos + i);
+      if (b < 0) {
+        // non-ascii name
+        byte[] bytes = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position((int) (pos - offset));
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+      }
+      chars[i] = (char) b;
+    }
+    return new String(chars);
+  }
+
+  // buffer accessors, positions are file positions
+
+  private byte getByte(int pos) {
+    return buffer.get((int) (pos - offset));
+  }
+
+  private int getInt(int pos) {
+    return buffer.getInt((int) (pos - offset));
+  }
+
+  private long getLong(int pos) {
+    return buffer.getLong((int) (pos - offset));
+  }
+
+  private int u16(int pos) {
+    return buffer.getShort((int) (pos - offset)) & 0xFFFF;
+  }
+
+  private long u32(int pos) {
+    return getInt(pos) & 0xFFFFFFFFL;
+  }
+
+  @Override
+  public String toString() {
+    return file.toString();
+  }
+}
@@ -7,6 +7,12 @@
  */
 package io.takari.maven.plugins.compile.jdt.classpath;
 
-public interface MutableClasspathEntry {
-  public void reset();
+import java.util.Collection;
+
+public interface MutableClasspathEntry extends ClasspathEntry {
+
+  /**
+   * Makes changes to the entry visible and returns package names added since the previous reset.
+   */
+  public Collection<String> reset();
 }
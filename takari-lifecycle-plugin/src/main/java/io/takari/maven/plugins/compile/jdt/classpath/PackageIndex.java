@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2014 Takari, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package io.takari.maven.plugins.compile.jdt.classpath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable package name to classpath entries table. Packages added to mutable classpath entries are added to a copy of the table, see {@link #add(List, ClasspathEntry, Collection)}.
+ * <p>
+ * Lookups are keyed by JDT {@code char[]} name segments and neither concatenate the segments nor allocate. Package names use '/' as separator and entries of each package are kept in classpath
+ * order.
+ */
+class PackageIndex {
+
+  private static final ClasspathEntry[] NO_ENTRIES = new ClasspathEntry[0];
+
+  private final String[] packageNames;
+
+  private final ClasspathEntry[][] entries;
+
+  private final int size;
+
+  private PackageIndex(String[] packageNames, ClasspathEntry[][] entries, int size) {
+    this.packageNames = packageNames;
+    this.entries = entries;
+    this.size = size;
+  }
+
+  public static PackageIndex create(List<ClasspathEntry> classpath) {
+    Map<String, List<ClasspathEntry>> packages = new LinkedHashMap<>();
+    for (ClasspathEntry entry : classpath) {
+      for (String packageName : entry.getPackageNames()) {
+        List<ClasspathEntry> entries = packages.get(packageName);
+        if (entries == null) {
+          packages.put(packageName, entries = new ArrayList<>(2));
+        }
+        if (!entries.contains(entry)) {
+          entries.add(entry);
+        }
+      }
+    }
+    int capacity = capacity(packages.size());
+    String[] packageNames = new String[capacity];
+    ClasspathEntry[][] entries = new ClasspathEntry[capacity][];
+    for (Map.Entry<String, List<ClasspathEntry>> entry : packages.entrySet()) {
+      insert(packageNames, entries, entry.getKey(), entry.getValue().toArray(NO_ENTRIES));
+    }
+    return new PackageIndex(packageNames, entries, packages.size());
+  }
+
+  private static int capacity(int size) {
+    return Integer.highestOneBit(Math.max(size, 1)) << 2;
+  }
+
+  private static void insert(String[] packageNames, ClasspathEntry[][] entries, String packageName, ClasspathEntry[] packageEntries) {
+    int mask = packageNames.length - 1;
+    int slot = packageName.hashCode() & mask;
+    while (packageNames[slot] != null) {
+      slot = (slot + 1) & mask;
+    }
+    packageNames[slot] = packageName;
+    entries[slot] = packageEntries;
+  }
+
+  private static int indexOf(String[] packageNames, String packageName) {
+    int mask = packageNames.length - 1;
+    for (int slot = packageName.hashCode() & mask;; slot = (slot + 1) & mask) {
+      if (packageNames[slot] == null) {
+        return -1;
+      }
+      if (packageNames[slot].equals(packageName)) {
+        return slot;
+      }
+    }
+  }
+
+  /**
+   * Returns new index with {@code entry} added to the specified packages. Entries of other packages are shared with this index, so the cost is proportional to the number of packages, not to the
+   * number of packages of all classpath entries.
+   */
+  public PackageIndex add(List<ClasspathEntry> classpath, ClasspathEntry entry, Collection<String> added) {
+    int size = this.size;
+    String[] packageNames;
+    ClasspathEntry[][] entries;
+    if (capacity(size + added.size()) > this.packageNames.length) {
+      packageNames = new String[capacity(size + added.size())];
+      entries = new ClasspathEntry[packageNames.length][];
+      for (int slot = 0; slot < this.packageNames.length; slot++) {
+        if (this.packageNames[slot] != null) {
+          insert(packageNames, entries, this.packageNames[slot], this.entries[slot]);
+        }
+      }
+    } else {
+      packageNames = this.packageNames.clone();
+      entries = this.entries.clone();
+    }
+    for (String packageName : added) {
+      int slot = indexOf(packageNames, packageName);
+      if (slot < 0) {
+        insert(packageNames, entries, packageName, new ClasspathEntry[] {entry});
+        size++;
+      } else if (!Arrays.asList(entries[slot]).contains(entry)) {
+        entries[slot] = insert(classpath, entries[slot], entry);
+      }
+    }
+    return new PackageIndex(packageNames, entries, size);
+  }
+
+  /**
+   * Inserts the entry into package entries array, keeping classpath order.
+   */
+  private static ClasspathEntry[] insert(List<ClasspathEntry> classpath, ClasspathEntry[] packageEntries, ClasspathEntry entry) {
+    int order = classpath.indexOf(entry);
+    int pos = 0;
+    while (pos < packageEntries.length && classpath.indexOf(packageEntries[pos]) < order) {
+      pos++;
+    }
+    ClasspathEntry[] result = new ClasspathEntry[packageEntries.length + 1];
+    System.arraycopy(packageEntries, 0, result, 0, pos);
+    result[pos] = entry;
+    System.arraycopy(packageEntries, pos, result, pos + 1, packageEntries.length - pos);
+    return result;
+  }
+
+  /**
+   * Returns the slot of package {@code parent[0]/.../parent[n]/name}, or {@code -1} if the package is not known. Like {@code CharOperation#concatWith}, {@code null} and empty segments are
+   * skipped. {@code name} may be {@code null}.
+   */
+  public int find(char[][] parent, int parentLength, char[] name) {
+    int hash = 0;
+    boolean first = true;
+    for (int i = 0; i < parentLength; i++) {
+      char[] segment = parent[i];
+      if (segment != null && segment.length > 0) {
+        hash = hash(first ? hash : 31 * hash + '/', segment);
+        first = false;
+      }
+    }
+    if (name != null && name.length > 0) {
+      hash = hash(first ? hash : 31 * hash + '/', name);
+      first = false;
+    }
+    if (first) {
+      return -1; // default package
+    }
+    int mask = packageNames.length - 1;
+    for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+      String packageName = packageNames[slot];
+      if (packageName == null) {
+        return -1;
+      }
+      if (packageName.hashCode() == hash && matches(packageName, parent, parentLength, name)) {
+        return slot;
+      }
+    }
+  }
+
+  public String getPackageName(int slot) {
+    return packageNames[slot];
+  }
+
+  public ClasspathEntry[] getEntries(int slot) {
+    return entries[slot];
+  }
+
+  private static int hash(int hash, char[] segment) {
+    for (char c : segment) {
+      hash = 31 * hash + c;
+    }
+    return hash;
+  }
+
+  private static boolean matches(String packageName, char[][] parent, int parentLength, char[] name) {
+    int pos = 0;
+    for (int i = 0; i < parentLength && pos >= 0; i++) {
+      pos = matches(packageName, pos, parent[i]);
+    }
+    if (pos >= 0) {
+      pos = matches(packageName, pos, name);
+    }
+    return pos == packageName.length();
+  }
+
+  /**
+   * Matches optional '/' separator followed by {@code segment} at {@code pos} and returns the position after the segment, or {@code -1} if the segment does not match.
+   */
+  private static int matches(String packageName, int pos, char[] segment) {
+    if (segment == null || segment.length == 0) {
+      return pos;
+    }
+    if (pos > 0) {
+      if (pos >= packageName.length() || packageName.charAt(pos) != '/') {
+        return -1;
+      }
+      pos++;
+    }
+    if (pos + segment.length > packageName.length()) {
+      return -1;
+    }
+    for (int i = 0; i < segment.length; i++) {
+      if (packageName.charAt(pos + i) != segment[i]) {
+        return -1;
+      }
+    }
+    return pos + segment.length;
+  }
+}
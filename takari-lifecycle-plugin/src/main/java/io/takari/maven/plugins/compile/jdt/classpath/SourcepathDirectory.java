@@ -22,7 +22,7 @@ public class SourcepathDirectory extends AbstractClasspathDirectory {
   private final String encoding;
 
   private SourcepathDirectory(File directory, Charset encoding) {
-    super(directory);
+    super(directory, SUFFIX_STRING_java);
     this.encoding = encoding != null ? encoding.name() : null;
   }
 
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2014 Takari, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package io.takari.maven.plugins.compile.jdt.classpath;
+
+/**
+ * Bloom filter of type names contained in a classpath entry. Allows classpath lookups to skip entries that definitely do not contain requested type without reading the entry contents.
+ * <p>
+ * Filter keys are {@link String#hashCode()} values of qualified type names, i.e. {@code packageName + '/' + typeName} or just {@code typeName} for types in the default package, which can be
+ * calculated from JDT {@code char[]} names without allocation.
+ */
+public class TypeNameFilter {
+
+  private static final int HASH_COUNT = 3;
+
+  private static final int BITS_PER_TYPE = 10;
+
+  private final long[] bits;
+
+  private final int mask;
+
+  private TypeNameFilter(int size) {
+    int bitCount = Math.max(64, Integer.highestOneBit(Math.max(size, 1) * BITS_PER_TYPE - 1) << 1);
+    this.bits = new long[bitCount >>> 6];
+    this.mask = bitCount - 1;
+  }
+
+  public static TypeNameFilter create(int[] hashes, int count) {
+    TypeNameFilter filter = new TypeNameFilter(count);
+    for (int i = 0; i < count; i++) {
+      filter.add(hashes[i]);
+    }
+    return filter;
+  }
+
+  private void add(int hash) {
+    int h2 = mix(hash);
+    for (int i = 0; i < HASH_COUNT; i++) {
+      int bit = (hash + i * h2) & mask;
+      bits[bit >>> 6] |= 1L << bit;
+    }
+  }
+
+  /**
+   * Returns {@code false} if the type with the specified qualified name hash is definitely not present.
+   */
+  public boolean mightContain(int hash) {
+    int h2 = mix(hash);
+    for (int i = 0; i < HASH_COUNT; i++) {
+      int bit = (hash + i * h2) & mask;
+      if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the filter key of the specified qualified type name.
+   */
+  public static int hash(String packageName, char[] typeName) {
+    int hash = packageName.hashCode();
+    if (!packageName.isEmpty()) {
+      hash = 31 * hash + '/';
+    }
+    for (char c : typeName) {
+      hash = 31 * hash + c;
+    }
+    return hash;
+  }
+
+  private static int mix(int hash) {
+    // murmur3 finalizer, derives second independent-enough hash from the first
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash | 1;
+  }
+}
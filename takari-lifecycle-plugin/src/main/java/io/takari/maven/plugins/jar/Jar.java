@@ -36,6 +36,7 @@ import io.takari.incrementalbuild.aggregator.AggregatorBuildContext;
 import io.takari.incrementalbuild.aggregator.InputAggregator;
 import io.takari.incrementalbuild.aggregator.InputSet;
 import io.takari.maven.plugins.TakariLifecycleMojo;
+import io.takari.maven.plugins.compile.jdt.AbiManifest;
 import io.takari.maven.plugins.util.PropertiesWriter;
 import io.tesla.proviso.archive.Archiver;
 import io.tesla.proviso.archive.Entry;
@@ -101,7 +102,7 @@ public class Jar extends TakariLifecycleMojo {
             if (archive != null && archive.getManifestFile() != null) {
               sources.add(jarManifestSource(archive.getManifestFile()));
             }
-            sources.add(inputsSource(classesDirectory, inputs));
+            sources.add(inputsSource(classesDirectory, withoutStaleAbiManifest(classesDirectory, inputs)));
             sources.add(singleton(pomPropertiesSource(project)));
             sources.add(jarManifestSource(project));
             archive(output.getResource(), sources);
@@ -161,7 +162,7 @@ public class Jar extends TakariLifecycleMojo {
           public void aggregate(Output<File> output, Iterable<File> inputs) throws IOException {
             logger.info("Building test JAR.");
 
-            archive(output.getResource(), asList(inputsSource(testClassesDirectory, inputs), jarManifestSource(project)));
+            archive(output.getResource(), asList(inputsSource(testClassesDirectory, withoutStaleAbiManifest(testClassesDirectory, inputs)), jarManifestSource(project)));
           }
         });
         if (!processingRequired) {
@@ -189,6 +190,35 @@ public class Jar extends TakariLifecycleMojo {
     }
   }
 
+  /**
+   * Excludes {@link AbiManifest} from the inputs if it does not describe the current .class files, for example, if the classes were modified after compilation.
+   */
+  private Iterable<File> withoutStaleAbiManifest(File basedir, Iterable<File> inputs) {
+    File manifestFile = new File(basedir, AbiManifest.PATH);
+    List<String> classfiles = new ArrayList<>();
+    List<File> result = new ArrayList<>();
+    boolean hasManifest = false;
+    for (File input : inputs) {
+      if (input.equals(manifestFile)) {
+        hasManifest = true;
+        continue;
+      }
+      if (input.getName().endsWith(".class")) {
+        classfiles.add(getRelativePath(basedir, input));
+      }
+      result.add(input);
+    }
+    if (hasManifest) {
+      AbiManifest manifest = AbiManifest.read(basedir);
+      if (manifest != null && manifest.isUptodate(basedir, classfiles)) {
+        result.add(manifestFile);
+      } else {
+        logger.debug("Ignoring stale ABI manifest {}", manifestFile);
+      }
+    }
+    return result;
+  }
+
   static String getRelativePath(File basedir, File resource) {
     return basedir.toPath().relativize(resource.toPath()).toString().replace('\\', '/'); // always use forward slash for path separator
   }
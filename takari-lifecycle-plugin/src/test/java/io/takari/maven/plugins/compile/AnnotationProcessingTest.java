@@ -28,6 +28,9 @@ import org.junit.runners.Parameterized.Parameters;
 
 import io.takari.maven.plugins.compile.AbstractCompileMojo.Proc;
 import io.takari.maven.plugins.compile.javac.CompilerJavac;
+import io.takari.maven.plugins.compile.javac.CompilerJavacLauncher;
+import io.takari.maven.plugins.compile.jdt.AnnotationProcessorCache;
+import io.takari.maven.plugins.compile.jdt.AnnotationProcessorCache.ProcessorClassLoader;
 import io.takari.maven.plugins.compile.jdt.CompilerJdt;
 
 public class AnnotationProcessingTest extends AbstractCompileTest {
@@ -196,6 +199,19 @@ public class AnnotationProcessingTest extends AbstractCompileTest {
     // TODO assert actual messages are as expected
   }
 
+  @Test
+  public void testProc_processorException() throws Exception {
+    Assume.assumeTrue(CompilerJavacLauncher.ID.equals(compilerId));
+    Xpp3Dom processors = newProcessors("processor.ThrowExceptionProcessor");
+    File basedir = resources.getBasedir("compile-proc/proc");
+    try {
+      procCompile(basedir, Proc.only, processors);
+      Assert.fail();
+    } catch (MojoExecutionException e) {
+      Assert.assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("throw exception processor"));
+    }
+  }
+
   @Test
   public void testProc_messages() throws Exception {
     ErrorMessage expected = new ErrorMessage(compilerId);
@@ -276,6 +292,39 @@ public class AnnotationProcessingTest extends AbstractCompileTest {
         "classes/proc/AnotherGeneratedSource.class");
   }
 
+  @Test
+  public void testProc_unchangedGeneratedSource() throws Exception {
+    Assume.assumeTrue(CompilerJdt.ID.equals(compilerId));
+
+    File processor = compileAnnotationProcessor();
+    File basedir = resources.getBasedir("compile-proc/proc");
+
+    Xpp3Dom processors = newProcessors("processor.Processor");
+
+    processAnnotations(basedir, Proc.proc, processor, processors);
+    mojos.assertBuildOutputs(new File(basedir, "target"), //
+        "classes/proc/Source.class", //
+        "generated-sources/annotations/proc/GeneratedSource.java", //
+        "classes/proc/GeneratedSource.class");
+
+    // regenerated source has the same contents and is not compiled again
+    touch(basedir, "src/main/java/proc/Source.java");
+    processAnnotations(basedir, Proc.proc, processor, processors);
+    mojos.assertBuildOutputs(new File(basedir, "target"), //
+        "classes/proc/Source.class", //
+        "generated-sources/annotations/proc/GeneratedSource.java");
+    mojos.assertCarriedOverOutputs(new File(basedir, "target"), //
+        "classes/proc/GeneratedSource.class");
+
+    // carried over outputs are still associated with the generated source
+    rm(basedir, "src/main/java/proc/Source.java");
+    processAnnotations(basedir, Proc.proc, processor, processors);
+    mojos.assertDeletedOutputs(new File(basedir, "target"), //
+        "generated-sources/annotations/proc/GeneratedSource.java", //
+        "classes/proc/Source.class", //
+        "classes/proc/GeneratedSource.class");
+  }
+
   @Test
   public void testProc_incrementalDeleteLastAnnotatedSource() throws Exception {
     File processor = compileAnnotationProcessor();
@@ -841,4 +890,28 @@ public class AnnotationProcessingTest extends AbstractCompileTest {
 
     processAnnotations(session, project, "compile", processor, Proc.only, processors, sourcepath);
   }
+
+  @Test
+  public void testProcessorClassLoaderCache() throws Exception {
+    Assume.assumeTrue(CompilerJdt.ID.equals(compilerId));
+
+    File processor = new File(compileAnnotationProcessor(), "target/classes");
+    List<File> processorpath = Arrays.asList(processor);
+
+    AnnotationProcessorCache cache = new AnnotationProcessorCache(null);
+    ProcessorClassLoader loader = cache.get(Arrays.asList("fingerprint"), processorpath);
+    Assert.assertSame(loader, cache.get(Arrays.asList("fingerprint"), processorpath));
+    Assert.assertNotSame(loader, cache.get(Arrays.asList("changed"), processorpath));
+    // like ServiceLoader, discovery includes processors visible through the parent classloader
+    Assert.assertTrue(loader.getDiscoveredProcessors().containsAll(Arrays.asList("processor.Processor", "processor.AnotherProcessor")));
+
+    // unshared classloaders are never cached
+    try (ProcessorClassLoader unshared = cache.create(processorpath)) {
+      Assert.assertNotSame(loader, unshared);
+    }
+
+    // end of session
+    cache.close();
+    Assert.assertNotSame(loader, cache.get(Arrays.asList("fingerprint"), processorpath));
+  }
 }
@@ -66,11 +66,43 @@ public class CompileIncrementalTest extends AbstractCompileTest {
     if ("jdt".equals(compilerId)) {
       mojos.assertCarriedOverOutputs(new File(basedir, "target/classes"), "delete/Keep.class");
     } else {
+      // javac does not know if Keep imports Delete
       mojos.assertBuildOutputs(new File(basedir, "target/classes"), "delete/Keep.class");
     }
     mojos.assertDeletedOutputs(new File(basedir, "target/classes"), "delete/Delete.class");
   }
 
+  @Test
+  public void testDependents() throws Exception {
+    Assume.assumeFalse("jdt".equals(compilerId)); // jdt does not propagate changes to subtypes
+
+    File basedir = compile("compile-incremental/dependents");
+    File classes = new File(basedir, "target/classes");
+    String[] all = {"dependents/Base.class", "dependents/Constants.class", "dependents/HidingSub.class", "dependents/HidingSuper.class", "dependents/Sub.class", "dependents/Unrelated.class",
+        "dependents/UsesConstant.class", "dependents/UsesHidingSub.class", "dependents/UsesSub.class"};
+
+    // no-change rebuild
+    compile(basedir);
+    mojos.assertCarriedOverOutputs(classes, all);
+
+    // changed type, its subtypes and their dependents are recompiled
+    cp(basedir, "src/main/java/dependents/Base.java-changed", "src/main/java/dependents/Base.java");
+    compile(basedir);
+    mojos.assertBuildOutputs(classes, "dependents/Base.class", "dependents/Sub.class", "dependents/UsesSub.class");
+    mojos.assertCarriedOverOutputs(classes, "dependents/Constants.class", "dependents/HidingSub.class", "dependents/HidingSuper.class", "dependents/Unrelated.class",
+        "dependents/UsesConstant.class", "dependents/UsesHidingSub.class");
+
+    // inlined constants are not referenced from .class files, everything is recompiled
+    cp(basedir, "src/main/java/dependents/Constants.java-changed", "src/main/java/dependents/Constants.java");
+    compile(basedir);
+    mojos.assertBuildOutputs(classes, all);
+
+    // new constant hides inherited constant inlined by dependents, everything is recompiled
+    cp(basedir, "src/main/java/dependents/HidingSub.java-changed", "src/main/java/dependents/HidingSub.java");
+    compile(basedir);
+    mojos.assertBuildOutputs(classes, all);
+  }
+
   @Test
   public void testError() throws Exception {
     ErrorMessage expected = new ErrorMessage(compilerId);
@@ -147,6 +179,12 @@ public class CompileIncrementalTest extends AbstractCompileTest {
     mojos.compile(projectA);
     mojos.assertBuildOutputs(moduleA, new String[0]);
 
+    // dependency changed, but not "structurally"
+    projectA = mojos.readMavenProject(moduleA);
+    addDependency(projectA, "module-b", new File(moduleB, "module-b-comment.jar"));
+    mojos.compile(projectA);
+    mojos.assertBuildOutputs(moduleA, new String[0]);
+
     // dependency changed "structurally"
     projectA = mojos.readMavenProject(moduleA);
     addDependency(projectA, "module-b", new File(moduleB, "module-b-method.jar"));
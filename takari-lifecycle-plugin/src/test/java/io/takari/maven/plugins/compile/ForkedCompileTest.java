@@ -1,8 +1,23 @@
 package io.takari.maven.plugins.compile;
 
+import io.takari.incrementalbuild.MessageSeverity;
+import io.takari.maven.plugins.compile.javac.CompilerJavacForked.CompilerConfiguration;
+import io.takari.maven.plugins.compile.javac.CompilerJavacForked.CompilerFailureException;
+import io.takari.maven.plugins.compile.javac.CompilerJavacForked.CompilerOutput;
+import io.takari.maven.plugins.compile.javac.CompilerJavacForked.CompilerOutputProcessor;
 import io.takari.maven.testing.TestResources;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.Diagnostic.Kind;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
@@ -54,4 +69,93 @@ public class ForkedCompileTest {
       // TODO assert compilation failed for the right reason
     }
   }
+
+  @Test
+  public void testCompilerProtocol() throws Exception {
+    File source = new File("src/main/java/p\u00e9 q/S.java").getCanonicalFile();
+    File output = new File("target/classes/p\u00e9 q/S.class").getCanonicalFile();
+
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(buf);
+    File basedir = new File("").getCanonicalFile();
+    new CompilerConfiguration(basedir, StandardCharsets.UTF_8, Arrays.asList("-d", "\u00fcber dir", "-g"), Arrays.asList(source)).write(out);
+    new CompilerConfiguration(null, Arrays.<String>asList(), Arrays.<File>asList()).write(out);
+    CompilerOutput compilerOutput = new CompilerOutput(out);
+    compilerOutput.processOutput(source, output);
+    compilerOutput.processOutput(null, output);
+    compilerOutput.addMessage(source.getPath(), 1, 2, "message \u2603\n second line", Kind.ERROR);
+    compilerOutput.addLogMessage("log");
+    compilerOutput.close();
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf.toByteArray()));
+    CompilerConfiguration config = CompilerConfiguration.read(in);
+    Assert.assertEquals(StandardCharsets.UTF_8, config.getSourceEncoding());
+    Assert.assertEquals(basedir, config.getWorkingDirectory());
+    Assert.assertEquals(Arrays.asList("-d", new File(basedir, "\u00fcber dir").getPath(), "-g"), config.getCompilerOptions());
+    Assert.assertEquals(Arrays.asList(source), config.getSources());
+    config = CompilerConfiguration.read(in);
+    Assert.assertNull(config.getWorkingDirectory());
+    Assert.assertNull(config.getSourceEncoding());
+    Assert.assertFalse(config.getSources().iterator().hasNext());
+
+    final List<String> results = new ArrayList<>();
+    CompilerOutput.process(in, new CompilerOutputProcessor() {
+      @Override
+      public void processOutput(File inputFile, File outputFile) {
+        results.add(inputFile + " " + outputFile);
+      }
+
+      @Override
+      public void addMessage(String path, int line, int column, String message, MessageSeverity kind) {
+        results.add(path + " " + line + " " + column + " " + message + " " + kind);
+      }
+
+      @Override
+      public void addLogMessage(String message) {
+        results.add(message);
+      }
+    });
+    Assert.assertEquals(Arrays.asList( //
+        source + " " + output, //
+        "null " + output, //
+        source + " 1 2 message \u2603\n second line ERROR", //
+        "log"), results);
+    Assert.assertNull(CompilerConfiguration.read(in));
+  }
+
+  @Test
+  public void testCompilerProtocol_failure() throws Exception {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(buf);
+    CompilerOutput compilerOutput = new CompilerOutput(out);
+    compilerOutput.addLogMessage("log");
+    compilerOutput.addFailure(new IllegalStateException("processor failure"));
+    compilerOutput.close();
+    compilerOutput.addLogMessage("next");
+    compilerOutput.close();
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf.toByteArray()));
+    final List<String> results = new ArrayList<>();
+    CompilerOutputProcessor callback = new CompilerOutputProcessor() {
+      @Override
+      public void processOutput(File inputFile, File outputFile) {}
+
+      @Override
+      public void addMessage(String path, int line, int column, String message, MessageSeverity kind) {}
+
+      @Override
+      public void addLogMessage(String message) {
+        results.add(message);
+      }
+    };
+    try {
+      CompilerOutput.process(in, callback);
+      Assert.fail();
+    } catch (CompilerFailureException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("java.lang.IllegalStateException: processor failure"));
+    }
+    // all results of the failed request are consumed
+    CompilerOutput.process(in, callback);
+    Assert.assertEquals(Arrays.asList("log", "next"), results);
+  }
 }
@@ -0,0 +1,82 @@
+package io.takari.maven.plugins.compile.jdt;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class ClassfileDigesterTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  private final ClassfileDigester digester = new ClassfileDigester();
+
+  @Test
+  public void testMethodBody() throws Exception {
+    byte[] original = digest("public class A { public int m() { return 1; } }");
+    Assert.assertArrayEquals(original, digest("public class A { public int m() { return 2; } }"));
+    Assert.assertFalse(Arrays.equals(original, digest("public class A { public long m() { return 1; } }")));
+    Assert.assertFalse(Arrays.equals(original, digest("public class A { int m() { return 1; } }")));
+  }
+
+  @Test
+  public void testConstants() throws Exception {
+    byte[] original = digest("public class A { public static final int C = 1; }");
+    Assert.assertFalse(Arrays.equals(original, digest("public class A { public static final int C = 2; }")));
+    Assert.assertFalse(Arrays.equals(original, digest("public class A { public static final int C = Integer.valueOf(1); }")));
+  }
+
+  @Test
+  public void testAnnotations() throws Exception {
+    String retention = "@java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.RUNTIME) ";
+    byte[] original = digest(retention + "public @interface A { String value() default \"a\"; }");
+    Assert.assertFalse(Arrays.equals(original, digest("public @interface A { String value() default \"a\"; }")));
+    Assert.assertFalse(Arrays.equals(original, digest(retention + "public @interface A { String value(); }")));
+    Assert.assertFalse(Arrays.equals(original, digest(retention + "@Deprecated public @interface A { String value() default \"a\"; }")));
+
+    original = digest("public class A { @SuppressWarnings(\"x\") @Deprecated public void m() {} }");
+    Assert.assertArrayEquals(original, digest("public class A { @SuppressWarnings(\"y\") @Deprecated public void m() {} }"));
+    Assert.assertFalse(Arrays.equals(original, digest("public class A { public void m() {} }")));
+  }
+
+  @Test
+  public void testMatchesClassFileReader() throws Exception {
+    byte[] a = compile("public class A<T> extends java.util.ArrayList<T> implements Runnable { public class B {} public void run() {} }");
+    byte[] b = compile("public class A<T> extends java.util.ArrayList<T> implements Runnable { public class B {} public void run() { run(); } }");
+    Assert.assertFalse(new ClassFileReader(a, null).hasStructuralChanges(b));
+    Assert.assertArrayEquals(digester.digest(a), digester.digest(b));
+  }
+
+  private byte[] digest(String source) throws Exception {
+    return digester.digest(compile(source));
+  }
+
+  private byte[] compile(String source) throws IOException {
+    File basedir = temp.newFolder();
+    File file = new File(basedir, "A.java");
+    Files.write(source, file, Charsets.UTF_8);
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, Charsets.UTF_8)) {
+      fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(basedir));
+      Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjects(file);
+      Assert.assertTrue(compiler.getTask(null, fileManager, null, null, null, units).call());
+    }
+    return Files.toByteArray(new File(basedir, "A.class"));
+  }
+}
@@ -0,0 +1,64 @@
+package io.takari.maven.plugins.compile.jdt;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ClasspathDigestTest {
+
+  private final ClasspathDigest.Segment a = segment("a.A", 1, "a.B", 1);
+  private final ClasspathDigest.Segment b = segment("a.A", 2, "b.B", 1);
+
+  @Test
+  public void testDiff() throws Exception {
+    ClasspathDigest digest = digest("a.jar", a, "b.jar", b);
+    Assert.assertEquals(Arrays.asList(), diff(digest, digest("a.jar", a, "b.jar", b)));
+
+    // a.A from the first segment hides a.A from the second segment
+    Assert.assertEquals(Arrays.asList(), diff(digest, digest("a.jar", a, "b.jar", segment("a.A", 3, "b.B", 1))));
+    Assert.assertEquals(Arrays.asList("b.B"), diff(digest, digest("a.jar", a, "b.jar", segment("a.A", 2, "b.B", 2))));
+
+    Assert.assertEquals(Arrays.asList("b.B"), diff(digest, digest("a.jar", a)));
+    Assert.assertEquals(Arrays.asList("a.A", "a.B", "b.B"), diff(digest, digest("a.jar", ClasspathDigest.Segment.EMPTY)));
+
+    Assert.assertTrue(digest.containsPackage("b"));
+    Assert.assertFalse(digest("a.jar", a).containsPackage("b"));
+  }
+
+  @Test
+  public void testDiffReordered() throws Exception {
+    ClasspathDigest digest = digest("a.jar", a, "b.jar", b);
+    Assert.assertEquals(Arrays.asList("a.A"), diff(digest, digest("b.jar", b, "a.jar", a)));
+    Assert.assertEquals(Arrays.asList("a.A"), diff(digest, digest("b.jar", b, "c.jar", a)));
+  }
+
+  private static ClasspathDigest digest(Object... entries) {
+    List<File> files = new ArrayList<>();
+    List<ClasspathDigest.Segment> segments = new ArrayList<>();
+    for (int i = 0; i < entries.length; i += 2) {
+      files.add(new File((String) entries[i]));
+      segments.add((ClasspathDigest.Segment) entries[i + 1]);
+    }
+    return new ClasspathDigest(files, segments);
+  }
+
+  private static List<String> diff(ClasspathDigest digest, ClasspathDigest oldDigest) {
+    List<String> changed = new ArrayList<>();
+    digest.diff(oldDigest, changed::add);
+    return changed;
+  }
+
+  private static ClasspathDigest.Segment segment(Object... types) {
+    Map<String, byte[]> digest = new LinkedHashMap<>();
+    for (int i = 0; i < types.length; i += 2) {
+      digest.put((String) types[i], new byte[] {((Integer) types[i + 1]).byteValue()});
+    }
+    return ClasspathDigest.Segment.create(digest);
+  }
+}
@@ -0,0 +1,57 @@
+package io.takari.maven.plugins.compile.jdt;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.takari.maven.plugins.compile.jdt.classpath.DependencyClasspathEntry;
+
+public class ClasspathEntryCacheTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  @After
+  public void flush() {
+    ClasspathEntryCache.flush();
+  }
+
+  @Test
+  public void testDirectoryChange() throws Exception {
+    File directory = temp.newFolder();
+    Assert.assertTrue(new File(directory, "a/b").mkdirs());
+
+    ClasspathEntryCache cache = new ClasspathEntryCache();
+    DependencyClasspathEntry entry = cache.get(directory);
+    Assert.assertTrue(entry.getPackageNames().contains("a/b"));
+
+    // no change, same entry
+    Assert.assertSame(entry, cache.get(directory));
+
+    // new nested package, directories are validated once per session
+    Assert.assertTrue(new File(directory, "a/b/c").mkdirs());
+    Assert.assertSame(entry, cache.get(directory));
+    DependencyClasspathEntry changed = new ClasspathEntryCache().get(directory);
+    Assert.assertNotSame(entry, changed);
+    Assert.assertTrue(changed.getPackageNames().contains("a/b/c"));
+  }
+
+  @Test
+  public void testImmutable() throws Exception {
+    File repository = temp.newFolder();
+    Assert.assertTrue(ClasspathEntryCache.isImmutable(new File(repository, "g/a/1.0/a-1.0.jar")));
+    Assert.assertTrue(ClasspathEntryCache.isImmutable(new File(repository, "g/a/1.0/a-1.0-tests.jar")));
+    Assert.assertFalse(ClasspathEntryCache.isImmutable(new File(repository, "g/a/1.0-SNAPSHOT/a-1.0-SNAPSHOT.jar")));
+    Assert.assertFalse(ClasspathEntryCache.isImmutable(new File(repository, "a/target/a-1.0.jar")));
+  }
+
+  @Test
+  public void testNotAJar() throws Exception {
+    File file = temp.newFile("garbage.jar");
+    Assert.assertNull(new ClasspathEntryCache().get(file));
+  }
+}
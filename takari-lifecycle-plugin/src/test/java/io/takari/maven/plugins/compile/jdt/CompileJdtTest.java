@@ -2,14 +2,39 @@ package io.takari.maven.plugins.compile.jdt;
 
 import static io.takari.maven.testing.TestResources.cp;
 import static io.takari.maven.testing.TestResources.rm;
+import static io.takari.maven.testing.TestMavenRuntime.newParameter;
 import static io.takari.maven.testing.TestResources.touch;
 
 import java.io.File;
-
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import javax.tools.ToolProvider;
+
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
 import org.junit.Assert;
 import org.junit.Test;
 
+import io.takari.maven.plugins.compile.ReactorOutputRegistry;
+import io.takari.maven.plugins.compile.jdt.classpath.DependencyClasspathEntry;
+import io.takari.maven.plugins.compile.jdt.classpath.TypeNameFilter;
+
 public class CompileJdtTest extends AbstractCompileJdtTest {
 
   /**
@@ -44,6 +69,182 @@ public class CompileJdtTest extends AbstractCompileJdtTest {
     assertBuildOutput(basedir, "src/main/java/basic/Basic1.java", "target/classes/basic/Basic1.class");
   }
 
+  @Test
+  public void testAbiManifest() throws Exception {
+    File basedir = resources.getBasedir("compile-jdt/basic");
+    File classes = new File(basedir, "target/classes");
+    List<String> classfiles = Arrays.asList("basic/Basic1.class", "basic/Basic2.class");
+
+    mojos.compile(basedir);
+    AbiManifest manifest = AbiManifest.read(classes);
+    Assert.assertNotNull(manifest);
+    Assert.assertTrue(manifest.isUptodate(classes, classfiles));
+    Assert.assertEquals(2, manifest.getTypeDigests().size());
+
+    // no-change rebuild
+    mojos.compile(basedir);
+    Assert.assertTrue(AbiManifest.read(classes).isUptodate(classes, classfiles));
+
+    // one file changed
+    cp(basedir, "src/main/java/basic/Basic1.java-changed", "src/main/java/basic/Basic1.java");
+    mojos.compile(basedir);
+    Assert.assertFalse(manifest.isUptodate(classes, classfiles));
+    Assert.assertTrue(AbiManifest.read(classes).isUptodate(classes, classfiles));
+
+    // packaged class files, same-size class file post-processed after compilation
+    byte[] basic1 = Files.readAllBytes(new File(classes, "basic/Basic1.class").toPath());
+    byte[] basic2 = Files.readAllBytes(new File(classes, "basic/Basic2.class").toPath());
+    Assert.assertTrue(AbiManifest.read(classes).matches(Arrays.asList(newZipEntry("basic/Basic1.class", basic1), newZipEntry("basic/Basic2.class", basic2))));
+    basic2[basic2.length - 1]++;
+    Assert.assertFalse(AbiManifest.read(classes).matches(Arrays.asList(newZipEntry("basic/Basic1.class", basic1), newZipEntry("basic/Basic2.class", basic2))));
+
+    // class file modified after compilation
+    Files.write(new File(classes, "basic/Basic2.class").toPath(), new byte[] {0});
+    Assert.assertFalse(AbiManifest.read(classes).isUptodate(classes, classfiles));
+  }
+
+  private static ZipEntry newZipEntry(String name, byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    ZipEntry entry = new ZipEntry(name);
+    entry.setSize(bytes.length);
+    entry.setCrc(crc.getValue());
+    return entry;
+  }
+
+  @Test
+  public void testReactorOutputRegistry() throws Exception {
+    File basedir = resources.getBasedir("compile/basic");
+    MavenProject project = mojos.readMavenProject(basedir);
+    MavenSession session = mojos.newMavenSession(project);
+    mojos.executeMojo(session, project, mojos.newMojoExecution());
+    File classes = new File(basedir, "target/classes");
+    AbiManifest manifest = AbiManifest.read(classes);
+    Assert.assertNotNull(manifest);
+
+    // test harness enters new session scope for each mojo execution, publish the way the compiler does
+    ReactorOutputRegistry registry = new ReactorOutputRegistry();
+    registry.publish(classes, ClasspathDigest.Segment.create(manifest.getTypeDigests()), 0, 0);
+
+    // a class added to the published directory by something other than the compiler
+    File extra = new File(basedir, "src/extra/java/basic/Extra.java");
+    Files.createDirectories(extra.getParentFile().toPath());
+    Files.write(extra.toPath(), "package basic; public class Extra {}".getBytes(StandardCharsets.UTF_8));
+    Assert.assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, "-d", classes.getPath(), extra.getPath()));
+    int extraHash = TypeNameFilter.hash("basic", "Extra".toCharArray());
+
+    // published directory is not digested again, the extra class is not visible
+    List<File> classpath = Collections.singletonList(classes);
+    Assert.assertEquals(manifest.size(), new ClasspathDigester(project, session, registry).digestDependencies(classpath).size());
+    Assert.assertEquals(manifest.size() + 1, new ClasspathDigester(project, session, new ReactorOutputRegistry()).digestDependencies(classpath).size());
+
+    // published directory is not scanned again, the entry is reused while the directory remains published
+    ClasspathEntryCache cache = new ClasspathEntryCache();
+    DependencyClasspathEntry entry = cache.get(registry.get(classes));
+    Assert.assertSame(entry, cache.get(registry.get(classes)));
+    Assert.assertFalse(entry.getTypeNameFilter().mightContain(extraHash));
+    Assert.assertTrue(cache.get(classes).getTypeNameFilter().mightContain(extraHash));
+
+    registry.unpublish(classes);
+    Assert.assertNull(registry.get(classes));
+  }
+
+  @Test
+  public void testCompilerThreads() throws Exception {
+    File basedir = resources.getBasedir("compile-jdt/basic");
+    // enough sources to enable jdt parallel source reader
+    for (int i = 0; i < 20; i++) {
+      writeSource(basedir, "basic/Generated" + i + ".java", "package basic; public class Generated" + i + " extends Basic1 { Generated" + ((i + 1) % 20) + " next; }");
+    }
+
+    // counts threads started by the build, directly or indirectly
+    AtomicInteger threads = new AtomicInteger();
+    InheritableThreadLocal<Boolean> tracker = new InheritableThreadLocal<Boolean>() {
+      @Override
+      protected Boolean childValue(Boolean parentValue) {
+        threads.incrementAndGet();
+        return parentValue;
+      }
+    };
+    tracker.set(Boolean.TRUE);
+    try {
+      mojos.compile(basedir);
+      int serial = threads.getAndSet(0);
+      assertSameClassfiles(basedir, 22, newParameter("compilerThreads", "4"));
+      // jdt parallel pipeline uses dedicated source reader and processing threads
+      Assert.assertTrue(threads.get() + " > " + serial, threads.get() > serial);
+    } finally {
+      tracker.remove();
+    }
+  }
+
+  /**
+   * Compiles the project again from scratch with the specified compiler parameter and asserts the build produces the same .class files as the previous build.
+   *
+   * @return outputs registered by the build, in registration order
+   */
+  private List<String> assertSameClassfiles(File basedir, int count, Xpp3Dom parameter) throws Exception {
+    File classes = new File(basedir, "target/classes");
+    Map<String, byte[]> expected = readClassfiles(classes);
+    Assert.assertEquals(count, expected.size());
+
+    FileUtils.deleteDirectory(new File(basedir, "target"));
+    mojos.compile(basedir, parameter);
+    Map<String, byte[]> actual = readClassfiles(classes);
+    Assert.assertEquals(expected.keySet(), actual.keySet());
+    for (String name : expected.keySet()) {
+      Assert.assertArrayEquals(name, expected.get(name), actual.get(name));
+    }
+
+    List<String> outputs = new ArrayList<>();
+    for (File output : mojos.getBuildContextLog().getRegisteredOutputs()) {
+      outputs.add(output.getName());
+    }
+    return outputs;
+  }
+
+  private static Map<String, byte[]> readClassfiles(File classes) throws IOException {
+    Map<String, byte[]> classfiles = new TreeMap<>();
+    for (File file : new File(classes, "basic").listFiles()) {
+      classfiles.put(file.getName(), Files.readAllBytes(file.toPath()));
+    }
+    return classfiles;
+  }
+
+  private static void writeSource(File basedir, String path, String source) throws IOException {
+    Files.write(new File(basedir, "src/main/java/" + path).toPath(), source.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testCompilerBatchSize() throws Exception {
+    File basedir = resources.getBasedir("compile-jdt/basic");
+    // reference cycle, inlined constants and secondary type, resolved across batches
+    for (int i = 0; i < 20; i++) {
+      writeSource(basedir, "basic/Generated" + i + ".java", "package basic; public class Generated" + i + " extends Basic1 { Generated" + ((i + 1) % 20) + " next; " //
+          + "static final int VALUE = Generated" + ((i + 1) % 20) + ".CONSTANT; static final int CONSTANT = " + i + "; Secondary secondary; }");
+    }
+    Files.write(new File(basedir, "src/main/java/basic/Generated19.java").toPath(), "class Secondary {}".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    mojos.compile(basedir);
+    assertSameClassfiles(basedir, 23, newParameter("compilerBatchSize", "3"));
+  }
+
+  @Test
+  public void testCompilerBatchSize_deferredSources() throws Exception {
+    File basedir = resources.getBasedir("compile-jdt/basic");
+    // secondary types cannot be resolved from source roots, whichever source is compiled first fails in its batch
+    writeSource(basedir, "basic/A.java", "package basic; public class A { SecondaryB b; } class SecondaryA {}");
+    writeSource(basedir, "basic/B.java", "package basic; public class B { SecondaryA a; } class SecondaryB {}");
+
+    mojos.compile(basedir);
+    List<String> outputs = assertSameClassfiles(basedir, 6, newParameter("compilerBatchSize", "1"));
+
+    // one source per batch, failed sources are recompiled together after all batches
+    Assert.assertEquals(6, outputs.size());
+    Assert.assertEquals(new HashSet<>(Arrays.asList("Basic1.class", "Basic2.class")), new HashSet<>(outputs.subList(0, 2)));
+    Assert.assertEquals(new HashSet<>(Arrays.asList("A.class", "SecondaryA.class", "B.class", "SecondaryB.class")), new HashSet<>(outputs.subList(2, 6)));
+  }
+
   @Test
   public void testBasic_timestampChangeRebuild() throws Exception {
     File basedir = resources.getBasedir("compile-jdt/basic");
@@ -185,7 +185,7 @@ public class FilerImplTest {
     for (File file : JavaInstallation.getDefault().getClasspath()) {
       if (file.isFile()) {
         try {
-          entries.add(ClasspathJar.create(file));
+          entries.add(ClasspathJar.create(file, true));
         } catch (IOException e) {
           // ignore, not a valid zip/jar
         }
@@ -0,0 +1,81 @@
+package io.takari.maven.plugins.compile.jdt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jdt.core.compiler.CharOperation;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReferenceCollectionTest {
+
+  private static ReferenceCollection newReferenceCollection() {
+    char[][] roots = {"java".toCharArray(), "test".toCharArray()};
+    char[][][] qualified = {CharOperation.splitOn('.', "test.pkg".toCharArray()), CharOperation.splitOn('.', "test.pkg.Type".toCharArray())};
+    char[][] simple = {"test".toCharArray(), "pkg".toCharArray(), "Type".toCharArray()};
+    return new ReferenceCollection(roots, qualified, simple);
+  }
+
+  @Test
+  public void testIncludes() throws Exception {
+    assertIncludes(newReferenceCollection());
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    try (ObjectOutputStream os = new ObjectOutputStream(buf)) {
+      os.writeObject(newReferenceCollection());
+      os.writeObject(newReferenceCollection());
+    }
+    try (ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(buf.toByteArray()))) {
+      assertIncludes((ReferenceCollection) is.readObject());
+      assertIncludes((ReferenceCollection) is.readObject());
+    }
+  }
+
+  @Test
+  public void testIndex() throws Exception {
+    File a = new File("A.java"), b = new File("B.java");
+    ReferenceIndex index = new ReferenceIndex();
+    index.put(a, newReferenceCollection());
+    index.put(b, newReferenceCollection());
+    index.remove(b);
+
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    try (ObjectOutputStream os = new ObjectOutputStream(buf)) {
+      os.writeObject(index);
+    }
+    try (ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(buf.toByteArray()))) {
+      index = (ReferenceIndex) is.readObject();
+    }
+
+    Assert.assertEquals(Collections.singleton(a), index.getCandidates(query(list("test.pkg.Other"), list("Type"), null)));
+    Assert.assertEquals(Collections.emptySet(), index.getCandidates(query(list("test.pkg.Type"), list("Unreferenced"), null)));
+    index.remove(a);
+    Assert.assertEquals(Collections.emptySet(), index.getCandidates(query(list("test.pkg.Type"), list("Type"), null)));
+  }
+
+  private static void assertIncludes(ReferenceCollection references) {
+    Assert.assertTrue(references.includes(query(list("test.pkg.Type"), list("Type"), list("test"))));
+    Assert.assertTrue(references.includes(query(list("test.pkg.Type"), list("Type"), null)));
+    Assert.assertTrue(references.includes(query(list("pkg"), list("Type", "Other"), null)));
+    Assert.assertFalse(references.includes(query(list("test.pkg.Type"), list("Type"), list("other"))));
+    Assert.assertFalse(references.includes(query(list("test.pkg.Other"), list("Type"), null)));
+    Assert.assertFalse(references.includes(query(list("test.pkg.Type"), list("Unreferenced"), null)));
+  }
+
+  private static ReferenceCollection.Query query(List<String> qualified, List<String> simple, List<String> roots) {
+    return new ReferenceCollection.Query(qualified, simple, roots);
+  }
+
+  private static List<String> list(String... names) {
+    return Arrays.asList(names);
+  }
+}
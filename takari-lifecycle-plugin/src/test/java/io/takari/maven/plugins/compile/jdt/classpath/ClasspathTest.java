@@ -3,9 +3,12 @@ package io.takari.maven.plugins.compile.jdt.classpath;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import org.eclipse.jdt.core.compiler.CharOperation;
+import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -17,7 +20,7 @@ public class ClasspathTest {
     for (File file : JavaInstallation.getDefault().getClasspath()) {
       if (file.isFile()) {
         try {
-          entries.add(ClasspathJar.create(file));
+          entries.add(ClasspathJar.create(file, true));
         } catch (IOException e) {
           // ignore
         }
@@ -29,6 +32,18 @@ public class ClasspathTest {
     Assert.assertTrue(classpath.isPackage(CharOperation.splitOn('.', "org".toCharArray()), "xml".toCharArray()));
   }
 
+  @Test
+  public void testJarBinaryTypeCache() throws Exception {
+    File jar = new File(Test.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    ClasspathJar entry = ClasspathJar.create(jar, true);
+    NameEnvironmentAnswer answer = entry.findType("org/junit", "Test");
+    Assert.assertNotNull(answer);
+    Assert.assertSame(answer.getBinaryType(), entry.findType("org/junit", "Test").getBinaryType());
+
+    // different entry instance of the same jar does not share cached types
+    Assert.assertNotSame(answer.getBinaryType(), ClasspathJar.create(jar, true).findType("org/junit", "Test").getBinaryType());
+  }
+
   @Test
   public void testCaseInsensitive() throws IOException {
     // affects windows and osx, linux users should not apply
@@ -40,4 +55,77 @@ public class ClasspathTest {
     Assert.assertNull(cpe.findType(pkg, cls.toLowerCase()));
     Assert.assertNull(cpe.findType(pkg.toUpperCase(), cls));
   }
+
+  @Test
+  public void testPackageLookup() throws IOException {
+    File sourceRoot = new File("target/test-classes").getCanonicalFile();
+    List<ClasspathEntry> entries = new ArrayList<ClasspathEntry>();
+    entries.add(ClasspathDirectory.create(sourceRoot));
+    Classpath classpath = new Classpath(entries, null);
+
+    char[][] pkg = CharOperation.splitOn('.', getClass().getPackage().getName().toCharArray());
+    char[] cls = getClass().getSimpleName().toCharArray();
+    Assert.assertTrue(classpath.isPackage(null, "io".toCharArray()));
+    Assert.assertTrue(classpath.isPackage(CharOperation.subarray(pkg, 0, pkg.length - 1), pkg[pkg.length - 1]));
+    Assert.assertTrue(classpath.isPackage(pkg, CharOperation.NO_CHAR));
+    Assert.assertFalse(classpath.isPackage(pkg, "missing".toCharArray()));
+    Assert.assertFalse(classpath.isPackage(null, "i".toCharArray()));
+
+    Assert.assertNotNull(classpath.findType(cls, pkg));
+    Assert.assertNotNull(classpath.findType(CharOperation.arrayConcat(pkg, cls)));
+    Assert.assertNull(classpath.findType("Missing".toCharArray(), pkg));
+    Assert.assertNull(classpath.findType(cls, CharOperation.subarray(pkg, 0, pkg.length - 1)));
+  }
+
+  @Test
+  public void testMutableEntryPackages() throws IOException {
+    File sourceRoot = new File("target/test-classes").getCanonicalFile();
+    String pkg = getClass().getPackage().getName().replace('.', '/');
+    List<String> lookups = new ArrayList<>();
+    List<String> added = new ArrayList<>();
+    MutableClasspathEntry mutable = new MutableClasspathEntry() {
+      @Override
+      public Collection<String> getPackageNames() {
+        return Collections.emptyList();
+      }
+
+      @Override
+      public NameEnvironmentAnswer findType(String packageName, String typeName) {
+        lookups.add(packageName + "/" + typeName);
+        return null;
+      }
+
+      @Override
+      public TypeNameFilter getTypeNameFilter() {
+        return null;
+      }
+
+      @Override
+      public String getEntryDescription() {
+        return "mutable";
+      }
+
+      @Override
+      public Collection<String> reset() {
+        List<String> result = new ArrayList<>(added);
+        added.clear();
+        return result;
+      }
+    };
+    List<ClasspathEntry> entries = new ArrayList<ClasspathEntry>();
+    entries.add(mutable);
+    entries.add(ClasspathDirectory.create(sourceRoot));
+    Classpath classpath = new Classpath(entries, Collections.singletonList(mutable));
+
+    Assert.assertFalse(classpath.isPackage(null, "mutable".toCharArray()));
+    added.add("mutable");
+    added.add(pkg);
+    classpath.reset();
+    Assert.assertTrue(classpath.isPackage(null, "mutable".toCharArray()));
+
+    // mutable entry is looked up first in the package shared with the directory entry
+    char[][] pkgName = CharOperation.splitOn('.', getClass().getPackage().getName().toCharArray());
+    Assert.assertNotNull(classpath.findType(getClass().getSimpleName().toCharArray(), pkgName));
+    Assert.assertEquals(Collections.singletonList(pkg + "/" + getClass().getSimpleName()), lookups);
+  }
 }
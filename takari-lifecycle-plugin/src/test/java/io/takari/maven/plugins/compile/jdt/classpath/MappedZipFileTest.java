@@ -0,0 +1,121 @@
+package io.takari.maven.plugins.compile.jdt.classpath;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+
+public class MappedZipFileTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void testEntries() throws Exception {
+    File file = temp.newFile("test.jar");
+    byte[] content = "content content content content".getBytes(Charsets.UTF_8);
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+      putEntry(zip, "a/b/Stored.class", content, ZipEntry.STORED);
+      putEntry(zip, "a/b/Deflated.class", content, ZipEntry.DEFLATED);
+      putEntry(zip, "a/c/été.class", content, ZipEntry.DEFLATED);
+      putEntry(zip, "META-INF/MANIFEST.MF", content, ZipEntry.DEFLATED);
+    }
+
+    assertEntries(MappedZipFile.open(file, true), content);
+    assertEntries(MappedZipFile.open(file, false), content);
+  }
+
+  private static void assertEntries(MappedZipFile zipFile, byte[] content) throws IOException {
+    // lookup before the index is built
+    Assert.assertArrayEquals(content, zipFile.getBytes(zipFile.getEntry("META-INF/MANIFEST.MF")));
+    Assert.assertEquals(-1, zipFile.getEntry("META-INF/missing"));
+
+    Assert.assertEquals(new HashSet<>(Arrays.asList("a", "a/b", "a/c", "META-INF")), zipFile.getPackageNames());
+    Assert.assertArrayEquals(content, zipFile.getBytes(zipFile.getEntry("a/b", "Stored", ".class")));
+    Assert.assertArrayEquals(content, zipFile.getBytes(zipFile.getEntry("a/b", "Deflated", ".class")));
+    Assert.assertArrayEquals(content, zipFile.getBytes(zipFile.getEntry("a/c", "été", ".class")));
+    Assert.assertEquals(-1, zipFile.getEntry("a/b", "Missing", ".class"));
+    Assert.assertEquals(-1, zipFile.getEntry("a", "b/Stored", ".clas"));
+    Assert.assertEquals(-1, zipFile.getEntry("a/b", "stored", ".class"));
+
+    TypeNameFilter filter = zipFile.getTypeNameFilter();
+    Assert.assertTrue(filter.mightContain(TypeNameFilter.hash("a/b", "Stored".toCharArray())));
+    Assert.assertTrue(filter.mightContain(TypeNameFilter.hash("a/c", "été".toCharArray())));
+    Assert.assertFalse(filter.mightContain(TypeNameFilter.hash("META-INF", "MANIFEST".toCharArray())));
+  }
+
+  @Test
+  public void testLargeFile() throws Exception {
+    // central directory is larger than end of central directory record search range
+    File file = temp.newFile("large.jar");
+    byte[] content = "content".getBytes(Charsets.UTF_8);
+    byte[] large = new byte[256 * 1024];
+    new Random(0).nextBytes(large);
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+      putEntry(zip, "a/A.class", content, ZipEntry.DEFLATED);
+      putEntry(zip, "a/Large.class", large, ZipEntry.STORED);
+      for (int i = 0; i < 3000; i++) {
+        putEntry(zip, "b/B" + i + ".class", content, ZipEntry.DEFLATED);
+      }
+    }
+
+    for (boolean map : new boolean[] {true, false}) {
+      MappedZipFile zipFile = MappedZipFile.open(file, map);
+      Assert.assertArrayEquals(content, zipFile.getBytes(zipFile.getEntry("a", "A", ".class")));
+      Assert.assertArrayEquals(large, zipFile.getBytes(zipFile.getEntry("a", "Large", ".class")));
+      Assert.assertArrayEquals(content, zipFile.getBytes(zipFile.getEntry("b", "B2999", ".class")));
+      Assert.assertEquals(new HashSet<>(Arrays.asList("a", "b")), zipFile.getPackageNames());
+    }
+  }
+
+  @Test
+  public void testPrependedData() throws Exception {
+    File file = temp.newFile("test.jar");
+    byte[] content = "content".getBytes(Charsets.UTF_8);
+    try (OutputStream os = new FileOutputStream(file)) {
+      os.write("#!/bin/sh\n".getBytes(Charsets.UTF_8));
+      try (ZipOutputStream zip = new ZipOutputStream(os)) {
+        putEntry(zip, "a/A.class", content, ZipEntry.DEFLATED);
+      }
+    }
+    MappedZipFile zipFile = MappedZipFile.open(file, false);
+    Assert.assertArrayEquals(content, zipFile.getBytes(zipFile.getEntry("a", "A", ".class")));
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotAZip() throws Exception {
+    File file = temp.newFile("garbage.jar");
+    try (OutputStream os = new FileOutputStream(file)) {
+      os.write(new byte[1024]);
+    }
+    MappedZipFile.open(file, true);
+  }
+
+  private static void putEntry(ZipOutputStream zip, String name, byte[] content, int method) throws IOException {
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(method);
+    if (method == ZipEntry.STORED) {
+      CRC32 crc = new CRC32();
+      crc.update(content);
+      entry.setSize(content.length);
+      entry.setCompressedSize(content.length);
+      entry.setCrc(crc.getValue());
+    }
+    zip.putNextEntry(entry);
+    zip.write(content);
+    zip.closeEntry();
+  }
+}
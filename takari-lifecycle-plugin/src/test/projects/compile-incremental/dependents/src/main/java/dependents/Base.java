@@ -0,0 +1,3 @@
+package dependents;
+
+public class Base {}
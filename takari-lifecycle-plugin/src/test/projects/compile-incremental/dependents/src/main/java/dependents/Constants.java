@@ -0,0 +1,5 @@
+package dependents;
+
+public class Constants {
+  public static final int VALUE = 1;
+}
@@ -0,0 +1,5 @@
+package dependents;
+
+public class HidingSuper {
+  public static final int X = 1;
+}
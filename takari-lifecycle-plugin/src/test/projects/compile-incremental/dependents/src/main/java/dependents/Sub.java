@@ -0,0 +1,3 @@
+package dependents;
+
+public class Sub extends Base {}
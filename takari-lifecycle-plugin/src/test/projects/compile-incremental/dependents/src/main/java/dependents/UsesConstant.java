@@ -0,0 +1,5 @@
+package dependents;
+
+public class UsesConstant {
+  int value = Constants.VALUE;
+}
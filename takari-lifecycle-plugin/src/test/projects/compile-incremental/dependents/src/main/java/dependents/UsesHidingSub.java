@@ -0,0 +1,5 @@
+package dependents;
+
+public class UsesHidingSub {
+  int value = HidingSub.X;
+}
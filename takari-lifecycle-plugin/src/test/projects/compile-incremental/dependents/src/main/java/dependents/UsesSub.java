@@ -0,0 +1,5 @@
+package dependents;
+
+public class UsesSub {
+  Sub sub;
+}